@@ -0,0 +1,71 @@
+package nl.alliantie.damagelogger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/** Synthetic runs for the storage and history benchmarks. */
+final class BenchRuns {
+
+    static final List<String> LABELS = List.of("IRON", "NETHER", "FORT", "BLAZE", "END", "DRAGON");
+
+    private BenchRuns() {}
+
+    /** A run that reached a random number of milestones; about one in seven completes. */
+    static RunSnapshot run(int i, Random rnd) {
+        long start = 1_700_000_000_000L + i * 3_600_000L;
+        int reached = rnd.nextInt(LABELS.size() + 1);
+
+        List<RunSnapshot.Split> splits = new ArrayList<>();
+        Map<String, RunSnapshot.Best> best = new LinkedHashMap<>();
+        Map<String, RunSnapshot.Best> segments = new LinkedHashMap<>();
+        long t = 0;
+        for (int m = 0; m < reached; m++) {
+            long seg = 60_000 + rnd.nextInt(600_000);
+            t += seg;
+            splits.add(new RunSnapshot.Split(LABELS.get(m), t, t - rnd.nextInt(5_000), seg, seg, "Player" + rnd.nextInt(8),
+                    "00000000-0000-0000-0000-00000000000" + rnd.nextInt(8)));
+            best.put(LABELS.get(m), new RunSnapshot.Best(t, "run-" + i));
+            segments.put(LABELS.get(m), new RunSnapshot.Best(seg, "run-" + i));
+        }
+
+        boolean completed = reached == LABELS.size();
+        long duration = t + rnd.nextInt(60_000);
+        return new RunSnapshot("run-" + start + "-" + (start + duration), null, start, start + duration, duration, duration - 2_000,
+                !completed, completed, completed ? "COMPLETED" : "FAILED", "Player" + rnd.nextInt(8), splits,
+                best, best, segments, segments, null);
+    }
+
+    /** Store of the given kind with this many runs, written the way the mod writes it (batches of 1,000). */
+    static RunStore store(Path dir, DamageLoggerConfig.Storage kind, int runs, long seed) throws Exception {
+        RunStore journal = RunStore.of(kind, dir);
+        journal.open();
+
+        Random rnd = new Random(seed);
+        List<RunSnapshot> batch = new ArrayList<>(1_000);
+        for (int i = 0; i < runs; i++) {
+            batch.add(run(i, rnd));
+            if (batch.size() == 1_000 || i == runs - 1) {
+                journal.write(batch);
+                batch.clear();
+            }
+        }
+        return journal;
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) return;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+}
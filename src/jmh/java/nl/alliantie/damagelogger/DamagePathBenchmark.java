@@ -0,0 +1,96 @@
+package nl.alliantie.damagelogger;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Minecraft-free part of ALLOW_DAMAGE + logDamageIfNeeded: type lookup, chat window
+ * (DamageAggregator) and run stats (RunStats), plus the per-tick window flush.
+ * Chat text and packets are only built for hits that open a window, i.e. at most once
+ * per cooldown per player and type; that part needs a server and is not measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DamagePathBenchmark {
+
+    @Param({"1", "8", "32"})
+    public int players;
+
+    private DamageTypeTable types;
+    private DamageAggregator windows;
+    private RunStats stats;
+    private UUID[] ids;
+    private int[] typeIds;
+    private long nowMs;
+    private int next;
+    private int summaries;
+    private final DamageAggregator.SummarySink countSummaries = (id, slot, amount, hits, spanMs) -> summaries++;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        types = VanillaDamageTypes.table();
+        windows = new DamageAggregator();
+        stats = new RunStats();
+        ids = new UUID[players];
+        for (int i = 0; i < players; i++) {
+            ids[i] = new UUID(0x5EED, i);
+            stats.slot(ids[i], "Player" + i);
+        }
+        // the usual mix
+        typeIds = new int[]{VanillaDamageTypes.MOB, VanillaDamageTypes.LAVA, VanillaDamageTypes.FALL,
+                VanillaDamageTypes.ARROW, VanillaDamageTypes.ON_FIRE};
+        nowMs = 0;
+        next = 0;
+    }
+
+    // every hit lands inside an open window (lava, fire ticks, mob swarm)
+    @Benchmark
+    public boolean suppressedHit() {
+        int i = next++ & 0x7fffffff;
+        UUID id = ids[i % players];
+        int typeId = typeIds[0];
+        return hit(id, typeId, nowMs, 2f);
+    }
+
+    // clock advances a tick (with the tick's flush) every `players` hits, so windows open, fill and expire
+    @Benchmark
+    public boolean mixedHit() {
+        int i = next++ & 0x7fffffff;
+        if (i % players == 0) {
+            nowMs += 50;
+            windows.flush(nowMs, countSummaries);
+        }
+        UUID id = ids[i % players];
+        int typeId = typeIds[(i / players) % typeIds.length];
+        return hit(id, typeId, nowMs, 1.5f);
+    }
+
+    // END_SERVER_TICK: close expired windows, emit summaries (to the one sink, as RunEngine does)
+    @Benchmark
+    public int flushTick() {
+        nowMs += 50;
+        for (int p = 0; p < players; p++) {
+            hit(ids[p], typeIds[1], nowMs, 4f);
+        }
+        windows.flush(nowMs, countSummaries);
+        return summaries;
+    }
+
+    private boolean hit(UUID id, int typeId, long now, float amount) {
+        byte kind = types.contains(typeId) ? types.kind(typeId) : DamageTypeTable.NORMAL;
+        if (kind == DamageTypeTable.IGNORE) return false;
+
+        int slot = stats.slot(id);
+        stats.hit(slot, kind, amount);
+
+        long cooldown = kind == DamageTypeTable.DOT ? DamageLoggerConfig.DEFAULTS.dotCooldownMs : DamageLoggerConfig.DEFAULTS.damageCooldownMs;
+        int slots = types.size() + 1;
+        return windows.hit(slot, id, typeId, slots, now, cooldown, amount);
+    }
+}
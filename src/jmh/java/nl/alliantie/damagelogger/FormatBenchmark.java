@@ -0,0 +1,41 @@
+package nl.alliantie.damagelogger;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** Timer text: actionbar (every second, or every 2 ticks with tenths) and all split messages. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+
+    private final StringBuilder sb = new StringBuilder(16);
+    private long ms = 3_723_456L;
+
+    @Benchmark
+    public String formatDuration() {
+        ms += 1_000;
+        return SplitFormat.formatDuration(ms);
+    }
+
+    // what formatDuration used to do
+    @Benchmark
+    public String stringFormatBaseline() {
+        ms += 1_000;
+        long t = ms / 1000;
+        return String.format("%02d:%02d:%02d", t / 3600, (t % 3600) / 60, t % 60);
+    }
+
+    // actionbar path: reused builder, tenths, no String unless the text changed
+    @Benchmark
+    public int appendDurationReused() {
+        ms += 100;
+        sb.setLength(0);
+        SplitFormat.appendDuration(sb, ms, true);
+        return sb.length();
+    }
+}
@@ -0,0 +1,60 @@
+package nl.alliantie.damagelogger;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** /splits queries on the history index, and keeping it current when a run is saved. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryBenchmark {
+
+    @Param({"1000", "50000"})
+    public int runs;
+
+    private RunHistory history;
+    private Random rnd;
+    private int next;
+    private String someRunId;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        history = new RunHistory(BenchRuns.LABELS);
+        rnd = new Random(42);
+        for (int i = 0; i < runs; i++) {
+            RunSnapshot run = BenchRuns.run(i, rnd);
+            history.add(run);
+            if (i == runs / 2) someRunId = run.runId;
+        }
+        history.stats(RunHistory.RTA);
+        next = runs;
+    }
+
+    @Benchmark
+    public RunHistory.Stats statsCached() {
+        return history.stats(RunHistory.RTA);
+    }
+
+    // a saved run invalidates the cache; the next /splits stats recomputes it
+    @Benchmark
+    public RunHistory.Stats addRunThenStats() {
+        history.add(BenchRuns.run(next++, rnd));
+        return history.stats(RunHistory.RTA);
+    }
+
+    @Benchmark
+    public List<RunHistory.Run> recent10() {
+        return history.recent(10);
+    }
+
+    @Benchmark
+    public RunHistory.Run runById() {
+        return history.run(someRunId);
+    }
+}
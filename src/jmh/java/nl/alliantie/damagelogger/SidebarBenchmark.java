@@ -0,0 +1,59 @@
+package nl.alliantie.damagelogger;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The text half of renderSidebar: build every milestone line and diff it against what is
+ * on screen. The Scoreboard calls themselves need a server and are not measured; the whole
+ * sidebar per second of a live run is SidebarLiveBenchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SidebarBenchmark {
+
+    /** NO_BEST: first run ever; BASELINE: bests known, nothing reached; RACING: half reached with deltas. */
+    @Param({"NO_BEST", "BASELINE", "RACING"})
+    public String state;
+
+    private final String[] labels = BenchRuns.LABELS.toArray(new String[0]);
+    private final Long[] best = new Long[labels.length];
+    private final long[] current = new long[labels.length];
+    private final String[] onScreen = new String[labels.length];
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < labels.length; i++) {
+            best[i] = "NO_BEST".equals(state) ? null : (i + 1) * 300_000L;
+            current[i] = "RACING".equals(state) && i < labels.length / 2 ? (i + 1) * 290_000L + i * 20_000L : -1;
+        }
+        for (int i = 0; i < labels.length; i++) {
+            onScreen[i] = SplitFormat.milestoneSidebarLine(labels[i], best[i], current[i], SplitFormat.SIDEBAR_MAX_LENGTH);
+        }
+    }
+
+    // 1 Hz refresh: all lines rebuilt, none changed (the common case)
+    @Benchmark
+    public int renderUnchanged() {
+        int changed = 0;
+        for (int i = 0; i < labels.length; i++) {
+            String line = SplitFormat.milestoneSidebarLine(labels[i], best[i], current[i], SplitFormat.SIDEBAR_MAX_LENGTH);
+            if (!Objects.equals(onScreen[i], line)) {
+                onScreen[i] = line;
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    @Benchmark
+    public String singleLine() {
+        return SplitFormat.milestoneSidebarLine(labels[0], best[0], current[0], SplitFormat.SIDEBAR_MAX_LENGTH);
+    }
+}
@@ -0,0 +1,152 @@
+package nl.alliantie.damagelogger;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The sidebar per second of a live run: a RunEngine with 50 players goes through one
+ * simulated second (20 ticks with their hits, now and then a split) and renders the sidebar
+ * once, as the mod does at 1 Hz. secondNoSidebar is the same second without the render, so
+ * the difference is what the sidebar costs per second.
+ *
+ * Every Output.sidebarLine call becomes one Scoreboard update in the mod (the Scoreboard
+ * needs a server and is not measured). The Updates counters count them: updates / seconds
+ * is the number of Scoreboard updates per second, added and removed show any churn.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SidebarLiveBenchmark {
+
+    /** NO_BEST: first run ever; RACING: bests known, the run halfway. */
+    @Param({"NO_BEST", "RACING"})
+    public String state;
+
+    /**
+     * 12 fill all 15 scores (with the title, 16 lines): the milestones, predicted time, sum of
+     * best and the live most-damage line. With 16 the milestones alone overflow the sidebar.
+     */
+    @Param({"12", "16"})
+    public int milestones;
+
+    private static final int PLAYERS = 50;
+    private static final int TICKS_PER_SECOND = 20;
+    private static final int SECONDS_PER_SPLIT = 45;
+    private static final int SECONDS_BEFORE_RESTART = 10;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Updates {
+        public long seconds; // simulated
+        public long updates; // sidebarLine calls
+        public long added;   // of those, a line that was not shown before
+        public long removed; // of those, a line taken away
+    }
+
+    private RunEngine engine;
+    private Updates counters;
+    private long nanos;
+    private int second;
+    private int nextMilestone;
+    private int restartIn;
+    private final UUID[] ids = new UUID[PLAYERS];
+    private final String[] names = new String[PLAYERS];
+    private final float[] hp = new float[PLAYERS];
+    private final Random rnd = new Random(42);
+
+    @Setup
+    public void setup() {
+        List<String> labels = new ArrayList<>();
+        Map<String, RunSnapshot.Best> bests = new HashMap<>();
+        for (int m = 0; m < milestones; m++) {
+            labels.add("M" + (m + 1));
+            if ("RACING".equals(state)) bests.put("M" + (m + 1), new RunSnapshot.Best((m + 1) * 44_000L, "run-best"));
+        }
+        engine = new RunEngine("", labels, DamageLoggerConfig.DEFAULTS, new RunClock(() -> nanos),
+                () -> 1_700_000_000_000L + nanos / 1_000_000L, id -> "mob");
+        engine.setDamageTypes(VanillaDamageTypes.table());
+        engine.setOutput(new RunEngine.Output() {
+            @Override
+            public void sidebarLine(int score, String text, boolean added) {
+                Updates u = counters;
+                if (u == null) return;
+                u.updates++;
+                if (added) u.added++;
+                if (text == null) u.removed++;
+            }
+        });
+        engine.mergeBest(new RunJournal.BestIndex(bests, bests, Map.of(), Map.of()));
+        for (int p = 0; p < PLAYERS; p++) {
+            ids[p] = new UUID(0x5EED, p);
+            names[p] = "Player" + p;
+            hp[p] = 20f;
+        }
+
+        engine.startRun();
+        engine.renderSidebar();
+        if ("RACING".equals(state)) {
+            while (nextMilestone < milestones / 2) {
+                playSecond();
+            }
+            engine.renderSidebar();
+        }
+    }
+
+    @Benchmark
+    public void second(Updates u) {
+        counters = u;
+        playSecond();
+        engine.renderSidebar();
+        u.seconds++;
+    }
+
+    @Benchmark
+    public void secondNoSidebar(Updates u) {
+        counters = u;
+        playSecond();
+        u.seconds++;
+    }
+
+    // 20 ticks with about one hit per player every two seconds, a split every
+    // SECONDS_PER_SPLIT, and a new run a little after the last one
+    private void playSecond() {
+        for (int t = 0; t < TICKS_PER_SECOND; t++) {
+            nanos += 50_000_000L;
+            engine.clock().tick();
+            if (engine.active()) {
+                RunStats stats = engine.stats();
+                for (int p = 0; p < PLAYERS; p++) {
+                    if (rnd.nextInt(2 * TICKS_PER_SECOND) != 0) continue;
+                    int slot = stats.slot(ids[p]);
+                    if (slot < 0) slot = stats.slot(ids[p], names[p]);
+                    float amount = 1f + rnd.nextInt(12) * 0.5f;
+                    engine.damage(slot, ids[p], VanillaDamageTypes.MOB, DamageTypeTable.NORMAL, 1, amount, hp[p], p, 64, -p);
+                    hp[p] = hp[p] > amount ? hp[p] - amount : 20f;
+                }
+            }
+            engine.tick();
+        }
+        second++;
+
+        if (engine.ended()) {
+            if (--restartIn <= 0) {
+                engine.startRun();
+                nextMilestone = 0;
+            }
+        } else if (second % SECONDS_PER_SPLIT == 0) {
+            int p = rnd.nextInt(PLAYERS);
+            engine.split(nextMilestone++, ids[p], names[p]);
+            if (engine.ended()) restartIn = SECONDS_BEFORE_RESTART;
+        }
+    }
+}
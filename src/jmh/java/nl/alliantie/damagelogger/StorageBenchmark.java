@@ -0,0 +1,112 @@
+package nl.alliantie.damagelogger;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Persistence against a large history: what a saved run costs (storage thread), what
+ * server start reads (best index, history index) and the legacy single-document runs.json.
+ * Both stores: the journal (runs.jsonl + best.json) and the H2 database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class StorageBenchmark {
+
+    @Param({"1000", "50000"})
+    public int runs;
+
+    @Param({"journal", "h2"})
+    public String storage;
+
+    private Path dir;
+    private Path legacyFile;
+    private RunStore store;
+    private Random rnd;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("dl-storage-bench");
+        store = BenchRuns.store(dir, DamageLoggerConfig.Storage.valueOf(storage.toUpperCase(Locale.ROOT)), runs, 42);
+        rnd = new Random(7);
+        next = runs;
+
+        // the pre-journal format: one document with every run plus bestSplits at the end
+        legacyFile = dir.resolve("legacy").resolve(RunJournal.LEGACY_FILE);
+        Files.createDirectories(legacyFile.getParent());
+        Random lr = new Random(42);
+        JsonArray all = new JsonArray();
+        RunSnapshot last = null;
+        for (int i = 0; i < runs; i++) {
+            last = BenchRuns.run(i, lr);
+            all.add(RunJournal.toJson(last));
+        }
+        JsonObject root = new JsonObject();
+        root.add("runs", all);
+        JsonObject best = new JsonObject();
+        for (String label : BenchRuns.LABELS) {
+            JsonObject b = new JsonObject();
+            b.addProperty("timeMs", 123_456L);
+            b.addProperty("runId", last != null ? last.runId : "run-0");
+            best.add(label, b);
+        }
+        root.add("bestSplits", best);
+        try (BufferedWriter w = Files.newBufferedWriter(legacyFile, StandardCharsets.UTF_8)) {
+            w.write(root.toString());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        store.close();
+        BenchRuns.deleteRecursively(dir);
+    }
+
+    // saveRunToStorage on the writer thread: one appended line (fsync) + best.json rewrite, or one transaction
+    @Benchmark
+    public void appendRun() throws Exception {
+        store.write(List.of(BenchRuns.run(next++, rnd)));
+    }
+
+    // server start: best splits only (the mapped index, as open() reads it; an opened store returns what it holds)
+    @Benchmark
+    public RunJournal.BestIndex readBest() throws IOException {
+        return RunStore.of(DamageLoggerConfig.Storage.valueOf(storage.toUpperCase(Locale.ROOT)), dir).readBest();
+    }
+
+    // best.json parsed (journal only; what readBest did before best.idx, and its fallback)
+    @Benchmark
+    public RunJournal.BestIndex readBestJson() throws IOException {
+        return RunJournal.readBestStreaming(dir.resolve(RunJournal.BEST_FILE));
+    }
+
+    // server start on an old install: bestSplits streamed out of the big document
+    @Benchmark
+    public RunJournal.BestIndex readBestLegacyDocument() throws IOException {
+        return RunJournal.readBestStreaming(legacyFile);
+    }
+
+    // server start: /splits history index, including the first (sorting) stats call
+    @Benchmark
+    public RunHistory.Stats loadHistory() throws IOException {
+        RunHistory history = new RunHistory(BenchRuns.LABELS);
+        store.readRuns(history::add);
+        return history.stats(RunHistory.RTA);
+    }
+}
@@ -0,0 +1,60 @@
+package nl.alliantie.damagelogger;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of DamageTimeline.Track.record on the tick thread, with the drain thread running.
+ * Each invocation records one batch into a fresh recording that is smaller than the ring,
+ * so the fast path is measured and not the "ring full, drop" path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimelineBenchmark {
+
+    private static final int BATCH = 4_096;
+
+    private Path dir;
+    private DamageTimeline timeline;
+    private DamageTimeline.Track track;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        dir = Files.createTempDirectory("dl-timeline-bench");
+        timeline = new DamageTimeline(dir);
+        track = timeline.track();
+    }
+
+    // same start time every invocation: the bench keeps rewriting one file instead of filling the disk
+    @Setup(Level.Invocation)
+    public void begin() {
+        track.begin("run-0", 0L);
+    }
+
+    @TearDown(Level.Invocation)
+    public void end() {
+        track.end();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        timeline.close(10_000);
+        BenchRuns.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void record() {
+        for (int i = 0; i < BATCH; i++) {
+            track.record(i >> 2, i & 7, 27, 101, DamageTypeTable.NORMAL, 3.5f, 12.5f, i, 64, -i);
+        }
+    }
+}
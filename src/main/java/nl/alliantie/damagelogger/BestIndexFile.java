@@ -0,0 +1,262 @@
+package nl.alliantie.damagelogger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * The best splits and segments as a small fixed-layout file (splits/best.idx, or runs.best.idx
+ * next to the database), memory-mapped.
+ * Loading the PB table at server start is a page-in of a few KiB instead of a parse.
+ *
+ * File layout (little endian):
+ *   header  32 bytes: magic "DLBI", u16 version, u16 slot size, i32 slot count,
+ *                     i32 state (0 clean, 1 dirty), i64 generation, i32 CRC32 of everything after the header, 4 reserved
+ *   slot    96 bytes per milestone, slot i at HEADER_BYTES + i * SLOT_BYTES:
+ *     0  u8 label length + 31 bytes label (UTF-8)
+ *    32  4 entries of 16 bytes (RTA, IGT, segment RTA, segment IGT):
+ *          i64 time ms (-1 none), i32 run id offset (from the start of the file), i16 run id length (-1 none), 2 reserved
+ *   run ids after the last slot, one RUN_ID_BYTES field per entry
+ *
+ * The store that owns the file calls {@link #invalidate()} before it changes its own best
+ * record and {@link #update} after: the entries are rewritten in place and the checksum and
+ * clean state are stored last. A crash in between leaves the file dirty (or the checksum
+ * wrong), {@link #torn()} reports it and the store rebuilds it from its history. The file is
+ * only a cache; if anything about it fails it is deleted and the store's own record is read.
+ */
+final class BestIndexFile {
+
+    static final String FILE_NAME = "best.idx";
+    static final int MAGIC = 0x49424C44; // "DLBI" in little endian
+    static final short VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int SLOT_BYTES = 96;
+    static final int LABEL_BYTES = 32;
+    static final int ENTRY_BYTES = 16;
+    static final int KINDS = 4;
+    static final int RUN_ID_BYTES = 128; // longer run ids (very long team names) are stored as "none"
+
+    private static final int STATE_CLEAN = 0;
+    private static final int STATE_DIRTY = 1;
+
+    private final Path file;
+    private MappedByteBuffer map = null;
+
+    BestIndexFile(Path file) {
+        this.file = file;
+    }
+
+    /** The index, or null when there is no valid file (missing, dirty, wrong checksum, other version). */
+    synchronized RunJournal.BestIndex read() {
+        MappedByteBuffer m = mapped();
+        if (m == null || !valid(m, true)) return null;
+        try {
+            return decode(m);
+        } catch (RuntimeException e) {
+            return null; // offsets out of range: not written by us
+        }
+    }
+
+    private static RunJournal.BestIndex decode(ByteBuffer m) {
+        int count = m.getInt(8);
+        List<Map<String, RunSnapshot.Best>> kinds = new ArrayList<>(KINDS);
+        for (int k = 0; k < KINDS; k++) kinds.add(new LinkedHashMap<>());
+
+        for (int s = 0; s < count; s++) {
+            int slot = HEADER_BYTES + s * SLOT_BYTES;
+            String label = string(m, slot + 1, m.get(slot) & 0xFF);
+            for (int k = 0; k < KINDS; k++) {
+                int entry = slot + LABEL_BYTES + k * ENTRY_BYTES;
+                long timeMs = m.getLong(entry);
+                if (timeMs < 0) continue;
+                short len = m.getShort(entry + 12);
+                String runId = len < 0 ? null : string(m, m.getInt(entry + 8), len);
+                kinds.get(k).put(label, new RunSnapshot.Best(timeMs, runId));
+            }
+        }
+        return new RunJournal.BestIndex(kinds.get(0), kinds.get(1), kinds.get(2), kinds.get(3));
+    }
+
+    /** True when a file exists that does not validate: an update was cut off. */
+    synchronized boolean torn() {
+        if (!Files.exists(file)) return false;
+        MappedByteBuffer m = mapped();
+        return m == null || !valid(m, true);
+    }
+
+    /** Mark the file dirty before the owning store changes its own record. */
+    synchronized void invalidate() {
+        MappedByteBuffer m = mapped();
+        if (m == null) return;
+        try {
+            m.putInt(12, STATE_DIRTY);
+            m.force();
+        } catch (RuntimeException e) {
+            discard();
+        }
+    }
+
+    /**
+     * Store this index: in place when every label already has a slot, else by writing a new
+     * file. Never throws; on failure the file is deleted and readers fall back to the store.
+     */
+    synchronized void update(RunJournal.BestIndex index) {
+        try {
+            List<String> labels = labels(index);
+            MappedByteBuffer m = mapped();
+            if (m == null || !valid(m, false) || !sameLabels(m, labels)) {
+                rebuild(index, labels);
+                return;
+            }
+
+            writeEntries(m, index, labels);
+            m.putLong(16, m.getLong(16) + 1);
+            m.putInt(24, crc(m));
+            m.force();
+            m.putInt(12, STATE_CLEAN); // last: a crash before this leaves the file dirty
+            m.force();
+        } catch (IOException | RuntimeException e) {
+            discard();
+        }
+    }
+
+    // ------------------------------------------------------------
+    // FILE
+    // ------------------------------------------------------------
+
+    private void rebuild(RunJournal.BestIndex index, List<String> labels) throws IOException {
+        for (String label : labels) {
+            if (label.getBytes(StandardCharsets.UTF_8).length >= LABEL_BYTES) throw new IOException("label too long for " + FILE_NAME + ": " + label);
+        }
+
+        map = null;
+        int count = labels.size();
+        ByteBuffer buf = ByteBuffer.allocate(size(count)).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(0, MAGIC);
+        buf.putShort(4, VERSION);
+        buf.putShort(6, (short) SLOT_BYTES);
+        buf.putInt(8, count);
+        buf.putInt(12, STATE_CLEAN);
+        buf.putLong(16, 1);
+        for (int s = 0; s < count; s++) {
+            byte[] label = labels.get(s).getBytes(StandardCharsets.UTF_8);
+            int slot = HEADER_BYTES + s * SLOT_BYTES;
+            buf.put(slot, (byte) label.length);
+            buf.put(slot + 1, label);
+        }
+        writeEntries(buf, index, labels);
+        buf.putInt(24, crc(buf));
+
+        Path tmp = file.resolveSibling(FILE_NAME + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) ch.write(buf);
+            ch.force(true);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private MappedByteBuffer mapped() {
+        if (map != null) return map;
+        if (!Files.exists(file)) return null;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (ch.size() < HEADER_BYTES || ch.size() > Integer.MAX_VALUE) return null;
+            map = ch.map(FileChannel.MapMode.READ_WRITE, 0, ch.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            return map;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void discard() {
+        map = null;
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {}
+    }
+
+    // ------------------------------------------------------------
+    // LAYOUT
+    // ------------------------------------------------------------
+
+    private static int size(int count) {
+        return HEADER_BYTES + count * (SLOT_BYTES + KINDS * RUN_ID_BYTES);
+    }
+
+    private static boolean valid(ByteBuffer b, boolean clean) {
+        if (b.capacity() < HEADER_BYTES || b.getInt(0) != MAGIC || b.getShort(4) != VERSION || b.getShort(6) != SLOT_BYTES) return false;
+        int count = b.getInt(8);
+        if (count < 0 || count > (b.capacity() - HEADER_BYTES) / SLOT_BYTES || b.capacity() != size(count)) return false;
+        if (clean && b.getInt(12) != STATE_CLEAN) return false;
+        return !clean || b.getInt(24) == crc(b);
+    }
+
+    private static boolean sameLabels(ByteBuffer b, List<String> labels) {
+        if (b.getInt(8) != labels.size()) return false;
+        for (int s = 0; s < labels.size(); s++) {
+            int slot = HEADER_BYTES + s * SLOT_BYTES;
+            if (!labels.get(s).equals(string(b, slot + 1, b.get(slot) & 0xFF))) return false;
+        }
+        return true;
+    }
+
+    // every entry of every slot, so nothing from a cut-off update survives
+    private static void writeEntries(ByteBuffer b, RunJournal.BestIndex index, List<String> labels) {
+        List<Map<String, RunSnapshot.Best>> kinds = List.of(index.rta, index.igt, index.segmentsRta, index.segmentsIgt);
+        int runIds = HEADER_BYTES + labels.size() * SLOT_BYTES;
+        for (int s = 0; s < labels.size(); s++) {
+            for (int k = 0; k < KINDS; k++) {
+                int entry = HEADER_BYTES + s * SLOT_BYTES + LABEL_BYTES + k * ENTRY_BYTES;
+                int runIdAt = runIds + (s * KINDS + k) * RUN_ID_BYTES;
+                RunSnapshot.Best best = kinds.get(k).get(labels.get(s));
+                byte[] runId = best != null && best.runId != null ? best.runId.getBytes(StandardCharsets.UTF_8) : null;
+                if (runId != null && runId.length > RUN_ID_BYTES) runId = null;
+
+                b.putLong(entry, best != null ? best.timeMs : -1);
+                b.putInt(entry + 8, runIdAt);
+                b.putShort(entry + 12, (short) (runId != null ? runId.length : -1));
+                if (runId != null) b.put(runIdAt, runId);
+            }
+        }
+    }
+
+    private static List<String> labels(RunJournal.BestIndex index) {
+        Set<String> labels = new LinkedHashSet<>();
+        labels.addAll(index.rta.keySet());
+        labels.addAll(index.igt.keySet());
+        labels.addAll(index.segmentsRta.keySet());
+        labels.addAll(index.segmentsIgt.keySet());
+        return new ArrayList<>(labels);
+    }
+
+    private static int crc(ByteBuffer b) {
+        CRC32 crc = new CRC32();
+        crc.update(b.slice(HEADER_BYTES, b.capacity() - HEADER_BYTES));
+        return (int) crc.getValue();
+    }
+
+    private static String string(ByteBuffer b, int at, int len) {
+        byte[] bytes = new byte[len];
+        b.get(at, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,103 @@
+package nl.alliantie.damagelogger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the config file on its own thread and parses it again when it changes.
+ *
+ * The directory is watched (editors often save through a temp file + rename, which the
+ * file itself would not report). Events are debounced, so one save gives one reload. A file
+ * that does not parse is reported and the running config stays as it is. Only a successful
+ * parse with different settings reaches {@link Listener#reloaded}.
+ */
+final class ConfigWatcher {
+
+    interface Listener {
+        void reloaded(DamageLoggerConfig config);
+
+        void failed(Exception error);
+    }
+
+    private static final long DEBOUNCE_MS = 250;
+
+    private final Path file;
+    private final Listener listener;
+    private final WatchService watcher;
+    private final Thread thread;
+    private volatile DamageLoggerConfig last;
+
+    ConfigWatcher(String threadName, Path file, DamageLoggerConfig current, Listener listener) throws IOException {
+        this.file = file.toAbsolutePath();
+        this.listener = listener;
+        this.last = current;
+        this.watcher = FileSystems.getDefault().newWatchService();
+        this.file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this::loop, threadName);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    void close() {
+        try {
+            watcher.close(); // wakes the thread with ClosedWatchServiceException
+        } catch (IOException ignored) {}
+    }
+
+    private void loop() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean ours = drain(key);
+
+                // an editor save is often several events; wait until it settles
+                WatchKey more;
+                while ((more = watcher.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS)) != null) {
+                    ours |= drain(more);
+                }
+
+                if (ours) reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    private boolean drain(WatchKey key) {
+        boolean ours = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                ours = true;
+                continue;
+            }
+            Object name = event.context();
+            if (name instanceof Path p && p.equals(file.getFileName())) ours = true;
+        }
+        key.reset();
+        return ours;
+    }
+
+    private void reload() {
+        DamageLoggerConfig next;
+        try {
+            if (!Files.exists(file)) return; // deleted: keep running on what we have
+            next = DamageLoggerConfig.parse(Files.readString(file, StandardCharsets.UTF_8));
+        } catch (IOException | RuntimeException e) {
+            listener.failed(e);
+            return;
+        }
+
+        if (next.sameAs(last)) return;
+        last = next;
+        listener.reloaded(next);
+    }
+}
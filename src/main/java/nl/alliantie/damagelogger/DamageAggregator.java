@@ -0,0 +1,141 @@
+package nl.alliantie.damagelogger;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Per-player, per-damage-type chat windows.
+ *
+ * The first hit of a (player, type) pair is logged right away and opens a window as long
+ * as that type's cooldown. Hits inside the window are not dropped but summed; when the
+ * window ends the server tick calls {@link #flush} and gets one summary per window that
+ * saw extra hits. Continuous damage (lava, fire) therefore gives one line per cooldown with
+ * the real total instead of only the first tick.
+ *
+ * State is a handful of primitive arrays per player, indexed by damage type slot, and the
+ * players are indexed by their run stats slot, so a suppressed hit is a few array writes
+ * and the tick's flush is an array scan. Server thread only. A player that leaves the run
+ * is {@link #remove removed}, so the flush only scans players that are still around.
+ */
+final class DamageAggregator {
+
+    interface SummarySink {
+        void summary(UUID player, int slot, float amount, int hits, long spanMs);
+    }
+
+    private static final long CLOSED = Long.MIN_VALUE;
+
+    private static final class Windows {
+        final UUID id;
+        long[] openedMs = new long[0];
+        long[] cooldownMs = new long[0];
+        float[] amount = new float[0];
+        int[] hits = new int[0];
+        long[] firstMs = new long[0];
+        long[] lastMs = new long[0];
+        int open = 0;
+
+        Windows(UUID id) {
+            this.id = id;
+        }
+
+        void ensure(int slots) {
+            if (openedMs.length >= slots) return;
+            int old = openedMs.length;
+            openedMs = Arrays.copyOf(openedMs, slots);
+            Arrays.fill(openedMs, old, slots, CLOSED);
+            cooldownMs = Arrays.copyOf(cooldownMs, slots);
+            amount = Arrays.copyOf(amount, slots);
+            hits = Arrays.copyOf(hits, slots);
+            firstMs = Arrays.copyOf(firstMs, slots);
+            lastMs = Arrays.copyOf(lastMs, slots);
+        }
+    }
+
+    private Windows[] byPlayer = new Windows[0]; // by run stats slot
+
+    /**
+     * Record a hit.
+     *
+     * @param player the player's run stats slot
+     * @param id     the player, as handed to the summary sink
+     * @return true if the hit opened a new window and should be logged as its own line
+     */
+    boolean hit(int player, UUID id, int slot, int slots, long nowMs, long cooldownMs, float amount) {
+        if (player >= byPlayer.length) byPlayer = Arrays.copyOf(byPlayer, Math.max(player + 1, byPlayer.length * 2));
+        Windows w = byPlayer[player];
+        if (w == null) {
+            w = new Windows(id);
+            byPlayer[player] = w;
+        }
+        w.ensure(Math.max(slots, slot + 1));
+
+        long opened = w.openedMs[slot];
+        boolean expired = opened == CLOSED || (nowMs - opened) >= w.cooldownMs[slot];
+
+        if (expired && w.hits[slot] == 0) {
+            if (opened == CLOSED) w.open++;
+            w.openedMs[slot] = nowMs;
+            w.cooldownMs[slot] = cooldownMs;
+            return true;
+        }
+
+        // inside the window (or waiting for the tick to flush it): accumulate
+        if (w.hits[slot] == 0) w.firstMs[slot] = nowMs;
+        w.lastMs[slot] = nowMs;
+        w.amount[slot] += amount;
+        w.hits[slot]++;
+        return false;
+    }
+
+    /**
+     * Close windows whose cooldown has passed. A window with extra hits produces one summary
+     * and immediately reopens, so ongoing damage keeps being grouped.
+     */
+    void flush(long nowMs, SummarySink sink) {
+        for (Windows w : byPlayer) {
+            if (w != null && w.open > 0) flush(w, nowMs, sink, false);
+        }
+    }
+
+    // Emit every pending summary now (run end), regardless of the window
+    void flushAll(SummarySink sink) {
+        for (Windows w : byPlayer) {
+            if (w != null && w.open > 0) flush(w, 0, sink, true);
+        }
+    }
+
+    /** The player left the run (or the server): emit what is pending and forget the windows. */
+    void remove(int player, SummarySink sink) {
+        if (player < 0 || player >= byPlayer.length) return;
+        Windows w = byPlayer[player];
+        if (w == null) return;
+        if (w.open > 0) flush(w, 0, sink, true);
+        byPlayer[player] = null;
+    }
+
+    private static void flush(Windows w, long nowMs, SummarySink sink, boolean force) {
+        for (int slot = 0; slot < w.openedMs.length; slot++) {
+            long opened = w.openedMs[slot];
+            if (opened == CLOSED) continue;
+            if (!force && (nowMs - opened) < w.cooldownMs[slot]) continue;
+
+            if (w.hits[slot] > 0) {
+                sink.summary(w.id, slot, w.amount[slot], w.hits[slot], w.lastMs[slot] - w.firstMs[slot]);
+                w.amount[slot] = 0;
+                w.hits[slot] = 0;
+                if (!force) {
+                    w.openedMs[slot] = nowMs; // damage is ongoing: next window starts now
+                    continue;
+                }
+            }
+
+            w.openedMs[slot] = CLOSED;
+            w.open--;
+        }
+    }
+
+    void clear() {
+        Arrays.fill(byPlayer, null);
+    }
+}
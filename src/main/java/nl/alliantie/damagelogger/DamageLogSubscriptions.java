@@ -0,0 +1,75 @@
+package nl.alliantie.damagelogger;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Who wants to see which [Damage] lines (/damagelog).
+ *
+ * Players without an entry get {@link Level#ALL}, which is what everyone saw before
+ * subscriptions existed. Only players who changed their setting take up an entry.
+ */
+final class DamageLogSubscriptions {
+
+    enum Level {
+        OFF,   // nothing
+        OWN,   // only damage you take yourself
+        TEAM,  // your own damage and your scoreboard team's
+        ALL,   // everything (default)
+        BIG;   // anyone's damage, but only lines of at least the threshold
+
+        static Level parse(String s) {
+            try {
+                return valueOf(s.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    static final class Subscription {
+        final Level level;
+        final float threshold; // only used by BIG
+
+        Subscription(Level level, float threshold) {
+            this.level = level;
+            this.threshold = threshold;
+        }
+    }
+
+    static final Subscription DEFAULT = new Subscription(Level.ALL, 0f);
+
+    private final Map<UUID, Subscription> byPlayer = new ConcurrentHashMap<>();
+
+    Subscription get(UUID viewer) {
+        Subscription s = byPlayer.get(viewer);
+        return s != null ? s : DEFAULT;
+    }
+
+    void set(UUID viewer, Level level, float threshold) {
+        if (level == Level.ALL) byPlayer.remove(viewer);
+        else byPlayer.put(viewer, new Subscription(level, threshold));
+    }
+
+    // Fast path: nobody changed anything, so every line goes to everyone
+    boolean allDefault() {
+        return byPlayer.isEmpty();
+    }
+
+    static boolean wants(Subscription s, boolean own, boolean sameTeam, float amount) {
+        switch (s.level) {
+            case OFF:
+                return false;
+            case OWN:
+                return own;
+            case TEAM:
+                return own || sameTeam;
+            case BIG:
+                return amount >= s.threshold;
+            default:
+                return true;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package nl.alliantie.damagelogger;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+
+/**
+ * Settings from config/damage_logger.json. Immutable: a reload builds a new instance and
+ * swaps one volatile reference, so a hot path reads all its settings from the same version.
+ *
+ * Missing keys get their default; the old -Ddamagelogger.* properties still work as the
+ * default for the keys they used to set. {@code splitsDir}, {@code storage}, {@code timing},
+ * {@code actionbarTenths} and {@code runsPerTeam} are read at server start only; everything
+ * else applies on reload.
+ */
+final class DamageLoggerConfig {
+
+    static final String FILE_NAME = "damage_logger.json";
+
+    enum PinMode {
+        PACKET,   // movement out of the radius is refused when it arrives (one correction per violation)
+        TELEPORT  // every player is checked and pulled back every pinTeleportIntervalTicks
+    }
+
+    enum Storage {
+        JOURNAL,  // runs.jsonl + best.json
+        H2        // runs.mv.db, an embedded H2 database (RunDatabase)
+    }
+
+    private static final Gson PRETTY = new GsonBuilder().setPrettyPrinting().create();
+
+    static final DamageLoggerConfig DEFAULTS = of(new JsonObject());
+
+    // ---- Restart only ----
+    final Path splitsDir;
+    final Storage storage;
+    final RunClock.Mode timing;
+    final boolean actionbarTenths;
+    final boolean runsPerTeam;            // one run per scoreboard team instead of one for the whole server
+
+    // ---- Applied on reload ----
+    final float lowHealthHp;              // "lowHearts" * 2
+    final boolean splitPolling;
+    final long damageCooldownMs;          // chat window per player and damage type
+    final long dotCooldownMs;             // same, for fire / lava / poison / ...
+    final PinMode pinMode;
+    final double pinRadius;               // blocks a failed-run player may drift before being teleported back
+    final int pinTeleportIntervalTicks;   // TELEPORT mode only
+    final int refreshIntervalTicks;       // sidebar refresh (and split polling fallback)
+    final int sidebarMaxLength;
+    final int checkpointIntervalTicks;    // run in progress to checkpoint*.jsonl; 0 = off
+    final boolean resumeCountsDowntime;   // a resumed run's RTA includes the time the server was down
+
+    private DamageLoggerConfig(JsonObject o) {
+        this.splitsDir = Paths.get(string(o, "splitsDir", "/opt/minecraft/server/splits"));
+        this.storage = storage(o, "storage", Storage.JOURNAL);
+        this.timing = mode(o, "timing", RunClock.Mode.parse(System.getProperty("damagelogger.timing"), RunClock.Mode.RTA));
+        this.actionbarTenths = bool(o, "actionbarTenths", Boolean.getBoolean("damagelogger.actionbarTenths"));
+        this.runsPerTeam = bool(o, "runsPerTeam", false);
+
+        this.lowHealthHp = integer(o, "lowHearts", Integer.getInteger("damagelogger.lowHearts", 3), 0, 1024) * 2f;
+        this.splitPolling = bool(o, "splitPolling", Boolean.getBoolean("damagelogger.splitPolling"));
+        this.damageCooldownMs = integer(o, "damageCooldownMs", 300, 0, 60_000);
+        this.dotCooldownMs = integer(o, "dotCooldownMs", 1500, 0, 60_000);
+        this.pinMode = pinMode(o, "pinMode", PinMode.PACKET);
+        this.pinRadius = number(o, "pinRadius", 0.25, 0, 64);
+        this.pinTeleportIntervalTicks = integer(o, "pinTeleportIntervalTicks", 2, 1, 200);
+        this.refreshIntervalTicks = integer(o, "refreshIntervalTicks", 20, 1, 1200);
+        this.sidebarMaxLength = integer(o, "sidebarMaxLength", SplitFormat.SIDEBAR_MAX_LENGTH, 8, 256);
+        this.checkpointIntervalTicks = integer(o, "checkpointIntervalTicks", 100, 0, 72_000);
+        this.resumeCountsDowntime = bool(o, "resumeCountsDowntime", false);
+    }
+
+    /** Config from a parsed object; missing keys get their default. */
+    static DamageLoggerConfig of(JsonObject o) {
+        return new DamageLoggerConfig(o);
+    }
+
+    /** @throws IllegalArgumentException when the text is not a JSON object or a value is out of range */
+    static DamageLoggerConfig parse(String json) {
+        JsonElement root;
+        try {
+            root = JsonParser.parseString(json);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("not valid JSON: " + e.getMessage(), e);
+        }
+        if (!root.isJsonObject()) throw new IllegalArgumentException("expected a JSON object");
+        return of(root.getAsJsonObject());
+    }
+
+    /**
+     * Reads the file, or writes one with all defaults when there is none (so every key is
+     * there to edit).
+     */
+    static DamageLoggerConfig loadOrCreate(Path file) throws IOException {
+        if (Files.exists(file)) {
+            return parse(Files.readString(file, StandardCharsets.UTF_8));
+        }
+
+        DamageLoggerConfig defaults = DEFAULTS;
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir != null) Files.createDirectories(dir);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(tmp, PRETTY.toJson(defaults.toJson()) + "\n", StandardCharsets.UTF_8);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        return defaults;
+    }
+
+    JsonObject toJson() {
+        JsonObject o = new JsonObject();
+        o.addProperty("splitsDir", splitsDir.toString());
+        o.addProperty("storage", storage.name().toLowerCase(Locale.ROOT));
+        o.addProperty("timing", timing.name().toLowerCase(Locale.ROOT));
+        o.addProperty("actionbarTenths", actionbarTenths);
+        o.addProperty("runsPerTeam", runsPerTeam);
+        o.addProperty("lowHearts", Math.round(lowHealthHp / 2f));
+        o.addProperty("splitPolling", splitPolling);
+        o.addProperty("damageCooldownMs", damageCooldownMs);
+        o.addProperty("dotCooldownMs", dotCooldownMs);
+        o.addProperty("pinMode", pinMode.name().toLowerCase(Locale.ROOT));
+        o.addProperty("pinRadius", pinRadius);
+        o.addProperty("pinTeleportIntervalTicks", pinTeleportIntervalTicks);
+        o.addProperty("refreshIntervalTicks", refreshIntervalTicks);
+        o.addProperty("sidebarMaxLength", sidebarMaxLength);
+        o.addProperty("checkpointIntervalTicks", checkpointIntervalTicks);
+        o.addProperty("resumeCountsDowntime", resumeCountsDowntime);
+        return o;
+    }
+
+    // same settings, compared as the file would write them
+    boolean sameAs(DamageLoggerConfig other) {
+        return other != null && toJson().equals(other.toJson());
+    }
+
+    // ------------------------------------------------------------
+    // VALUES (type or range errors name the key)
+    // ------------------------------------------------------------
+
+    private static JsonElement value(JsonObject o, String key) {
+        JsonElement e = o.get(key);
+        return e == null || e.isJsonNull() ? null : e;
+    }
+
+    private static String string(JsonObject o, String key, String def) {
+        JsonElement e = value(o, key);
+        if (e == null) return def;
+        if (!e.isJsonPrimitive()) throw new IllegalArgumentException(key + ": expected a string");
+        return e.getAsString();
+    }
+
+    private static RunClock.Mode mode(JsonObject o, String key, RunClock.Mode def) {
+        String s = string(o, key, null);
+        if (s == null) return def;
+        RunClock.Mode m = RunClock.Mode.parse(s, null);
+        if (m == null) throw new IllegalArgumentException(key + ": expected \"rta\" or \"igt\"");
+        return m;
+    }
+
+    private static PinMode pinMode(JsonObject o, String key, PinMode def) {
+        String s = string(o, key, null);
+        if (s == null) return def;
+        try {
+            return PinMode.valueOf(s.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(key + ": expected \"packet\" or \"teleport\"");
+        }
+    }
+
+    private static Storage storage(JsonObject o, String key, Storage def) {
+        String s = string(o, key, null);
+        if (s == null) return def;
+        try {
+            return Storage.valueOf(s.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(key + ": expected \"journal\" or \"h2\"");
+        }
+    }
+
+    private static boolean bool(JsonObject o, String key, boolean def) {
+        JsonElement e = value(o, key);
+        if (e == null) return def;
+        if (!e.isJsonPrimitive() || !e.getAsJsonPrimitive().isBoolean()) throw new IllegalArgumentException(key + ": expected true or false");
+        return e.getAsBoolean();
+    }
+
+    private static int integer(JsonObject o, String key, int def, int min, int max) {
+        double v = number(o, key, def, min, max);
+        if (v != Math.rint(v)) throw new IllegalArgumentException(key + ": expected a whole number");
+        return (int) v;
+    }
+
+    private static double number(JsonObject o, String key, double def, double min, double max) {
+        JsonElement e = value(o, key);
+        if (e == null) return def;
+        if (!e.isJsonPrimitive() || !e.getAsJsonPrimitive().isNumber()) throw new IllegalArgumentException(key + ": expected a number");
+        double v = e.getAsDouble();
+        if (!(v >= min && v <= max)) throw new IllegalArgumentException(key + ": " + v + " is not in " + min + ".." + max);
+        return v;
+    }
+}
@@ -1,18 +1,46 @@
 package nl.alliantie.damagelogger;
 
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
 import net.fabricmc.fabric.api.entity.event.v1.ServerLivingEntityEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
 import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
+import net.fabricmc.loader.api.FabricLoader;
+
+import com.mojang.brigadier.Command;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.FloatArgumentType;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 
 import net.minecraft.advancement.AdvancementEntry;
 import net.minecraft.advancement.AdvancementProgress;
 import net.minecraft.entity.Entity;
+import net.minecraft.entity.EntityType;
 import net.minecraft.entity.LivingEntity;
 import net.minecraft.entity.damage.DamageSource;
+import net.minecraft.entity.damage.DamageType;
 import net.minecraft.entity.projectile.ProjectileEntity;
-import net.minecraft.registry.RegistryKey;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.network.packet.Packet;
+import net.minecraft.network.packet.s2c.play.GameMessageS2CPacket;
+import net.minecraft.network.packet.s2c.play.PositionFlag;
+import net.minecraft.registry.Registries;
+import net.minecraft.registry.Registry;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.scoreboard.ScoreAccess;
+import net.minecraft.scoreboard.ScoreHolder;
+import net.minecraft.scoreboard.ScoreboardCriterion;
+import net.minecraft.scoreboard.ScoreboardDisplaySlot;
+import net.minecraft.scoreboard.ScoreboardObjective;
+import net.minecraft.scoreboard.ServerScoreboard;
+import net.minecraft.scoreboard.Team;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.command.CommandManager;
+import net.minecraft.server.command.ServerCommandSource;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.server.world.ServerWorld;
 import net.minecraft.text.MutableText;
@@ -20,79 +48,120 @@ import net.minecraft.text.Text;
 import net.minecraft.util.Formatting;
 import net.minecraft.util.Identifier;
 import net.minecraft.world.GameMode;
-import net.minecraft.world.World;
-
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import net.minecraft.world.GameRules;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 
 
 public class DamageLoggerMod implements ModInitializer {
 
+    static final Logger LOGGER = LoggerFactory.getLogger("damage_logger");
+
     // Force hardcore players out of the "Game Over" screen by respawning them server-side next tick
     private static final Set<UUID> PENDING_FORCE_RESPAWN = ConcurrentHashMap.newKeySet();
 
-    // ---- Damage anti-spam ----
-    private static final long DEFAULT_COOLDOWN_MS = 300;
-    private static final long DOT_COOLDOWN_MS = 1500;
-    private static final Map<String, Long> LAST_LOG_TIME = new ConcurrentHashMap<>();
-
-    // ---- One-time "first real death" guard ----
-    private static final AtomicBoolean FIRST_REAL_DEATH_HANDLED = new AtomicBoolean(false);
-
-    // ---- Run state ----
-    private static volatile long runStartMs = -1;
-    private static volatile boolean runFailed = false;     // death-fail
-    private static volatile boolean runCompleted = false;  // dragon success
-    private static volatile long runEndMs = -1;
-
-    // ---- Pin players after failure ----
-    private static volatile long pinUntilMs = -1;
-    private static volatile RegistryKey<World> deathWorldKey = null;
-    private static volatile double deathX = 0, deathY = 0, deathZ = 0;
-
-    private static final double PIN_RADIUS = 0.25;
-    private static final int PIN_TELEPORT_INTERVAL_TICKS = 2;
-    private static int pinTickCounter = 0;
-
-    // ---- Damage totals (leaderboard) ----
-    // UUID -> total damage taken (raw float amount summed)
-    private static final Map<UUID, Float> DAMAGE_TAKEN = new ConcurrentHashMap<>();
-    private static final Map<UUID, String> LAST_NAME = new ConcurrentHashMap<>();
-
-    // ---- Splits (milestones) ----
-    private static final Map<Milestone, SplitRecord> SPLITS = new ConcurrentHashMap<>();
-    private static int secondTickCounter = 0;
-
-    // ---- Sidebar via commands ----
+    // ---- Damage types (classified once per registry load, indexed by raw id) ----
+    private static volatile Registry<DamageType> damageTypeRegistry = null;
+    private static DamageTypeTable damageTypes = DamageTypeTable.EMPTY;
+    private static EntityTypeTable entityTypes = EntityTypeTable.EMPTY;
+    // item registry ids without "minecraft:", by raw id (weapon names for damage dealt)
+    private static String[] itemNames = new String[0];
+
+    // ---- Who sees which [Damage] lines (/damagelog) ----
+    private static final DamageLogSubscriptions SUBSCRIPTIONS = new DamageLogSubscriptions();
+    private static final float DEFAULT_BIG_HIT = 6.0f;
+
+    // ---- Config (config/damage_logger.json, reloaded while the server runs) ----
+    private static final Path CONFIG_FILE = FabricLoader.getInstance().getConfigDir().resolve(DamageLoggerConfig.FILE_NAME);
+    // splitsDir, timing and actionbarTenths are taken from this one for the whole server run
+    private static final DamageLoggerConfig STARTUP_CONFIG = loadConfig();
+    // everything else: read once per tick / event, swapped whole by the config watcher
+    private static volatile DamageLoggerConfig config = STARTUP_CONFIG;
+    private static volatile ConfigWatcher configWatcher = null;
+
+    // ---- Runs (one per scoreboard team with runsPerTeam, else one for everybody; see RunContext) ----
+    private static final Map<String, RunContext> RUNS = new LinkedHashMap<>();
+    // player -> run: damage, death, advancement and movement events go straight to their run
+    private static final Map<UUID, RunContext> RUN_OF = new HashMap<>();
+
+    // ---- Pin players after failure (state per run) ----
+    private static final Set<PositionFlag> NO_POSITION_FLAGS = Collections.emptySet();
+    private static final long PIN_CORRECTION_RESEND_MS = 500;
+    // some run has an active pin; the only thing the movement packet check reads off the server thread
+    private static volatile boolean pinning = false;
+
+    // ---- Sidebar refresh, team changes + split polling fallback (every refreshIntervalTicks) ----
+    private static int refreshTickCounter = 0;
+
+    // ---- Sidebar via Scoreboard API ----
     private static final String OBJ_NAME = "alliance_splits";
-    private static final Map<Integer, String> SIDEBAR_LINES = new ConcurrentHashMap<>();
-    private static volatile boolean sidebarInitialized = false;
+    // one fixed holder per score; what players see is the holder's display text
+    private static final ScoreHolder[] SIDEBAR_HOLDERS = new ScoreHolder[RunEngine.SIDEBAR_TOP_SCORE + 1];
+
+    static {
+        for (int i = 1; i <= RunEngine.SIDEBAR_TOP_SCORE; i++) {
+            SIDEBAR_HOLDERS[i] = ScoreHolder.fromName("#dl_line" + i);
+        }
+    }
 
     // ---- Persistent splits storage ----
-    private static final Path SPLITS_DIR = Paths.get("/opt/minecraft/server/splits");
-    private static final Path RUNS_FILE = SPLITS_DIR.resolve("runs.json");
-    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
-
-    // best time per milestone (e.g. "IRON" -> ms)
-    private static final Map<String, Long> BEST_SPLIT_MS = new ConcurrentHashMap<>();
-    // which run it came from
-    private static final Map<String, String> BEST_SPLIT_RUN_ID = new ConcurrentHashMap<>();
-    private static volatile boolean storageLoaded = false;
+    // in splitsDir: runs.jsonl (append-only history) + best.json (index read on load), or runs.mv.db with "storage": "h2"
+    private static final RunStore STORE = RunStore.of(STARTUP_CONFIG.storage, STARTUP_CONFIG.splitsDir);
 
+    private static volatile boolean storageLoaded = false;
+    // best times of saved runs: best.json merged with every run saved since; seeds runs that start later
+    private static RunJournal.BestIndex savedBest = null;
+    // every damage event of every run, drained to splits/run-[<team>-]<start>.dtl (one track per run)
+    private static volatile DamageTimeline timeline = null;
+    // best splits, read on HISTORY_EXECUTOR once storage is open; polled (never joined) from the tick
+    private static volatile CompletableFuture<RunJournal.BestIndex> storageLoad = null;
+    private static volatile RunStorageWriter storageWriter = null;
+    private static final long STORAGE_FLUSH_TIMEOUT_MS = 10_000;
+
+    // ---- Checkpoints of runs in progress (resume after a crash or restart) ----
+    private static volatile RunCheckpoint checkpoints = null;
+    // read at server start, by team; a run resumes from its entry when its first player joins
+    private static Map<String, RunCheckpoint.State> pendingResume = new HashMap<>();
+
+    // ---- Run history index (/splits) ----
+    // built from the stored runs at start, then one add per saved run; only touched on HISTORY_EXECUTOR
+    private static final ExecutorService HISTORY_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "DamageLogger-History");
+        t.setDaemon(true);
+        return t;
+    });
+    private static RunHistory history = null; // HISTORY_EXECUTOR only
+    private static volatile boolean historyLoaded = false;
+    private static final int HISTORY_DEFAULT_COUNT = 10;
+    private static final DateTimeFormatter HISTORY_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
+
+    // ---- Instrumentation (/damagelogger stats + Prometheus text file) ----
+    private static final HandlerStats STATS = new HandlerStats();
+    // -Ddamagelogger.metricsFile=<path>, e.g. into node_exporter's textfile collector directory
+    private static final Path METRICS_FILE = Paths.get(System.getProperty("damagelogger.metricsFile",
+            STARTUP_CONFIG.splitsDir.resolve("damagelogger.prom").toString()));
+    private static final int METRICS_INTERVAL_TICKS = 15 * 20;
+    private static int metricsTickCounter = 0;
+    private static final ExecutorService METRICS_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "DamageLogger-Metrics");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Order = split order in the engine; the last one (DRAGON) completes the run
     private enum Milestone {
         IRON("minecraft:story/smelt_iron", "IRON"),
         NETHER("minecraft:story/enter_the_nether", "NETHER"),
@@ -104,131 +173,229 @@ public class DamageLoggerMod implements ModInitializer {
         final Identifier advancementId;
         final String shortLabel;
 
+        private static final Map<Identifier, Milestone> BY_ADVANCEMENT = new HashMap<>();
+
+        static {
+            for (Milestone m : values()) BY_ADVANCEMENT.put(m.advancementId, m);
+        }
+
         Milestone(String advancementId, String shortLabel) {
             this.advancementId = Identifier.of(advancementId);
             this.shortLabel = shortLabel;
         }
-    }
 
-    private static final class SplitRecord {
-        final UUID playerId;
-        final String playerName;
-        final long timeMs;
+        static Milestone byAdvancement(Identifier id) {
+            return BY_ADVANCEMENT.get(id);
+        }
 
-        SplitRecord(UUID playerId, String playerName, long timeMs) {
-            this.playerId = playerId;
-            this.playerName = playerName;
-            this.timeMs = timeMs;
+        static List<String> labels() {
+            List<String> labels = new ArrayList<>();
+            for (Milestone m : values()) labels.add(m.shortLabel);
+            return labels;
         }
     }
 
     @Override
     public void onInitialize() {
 
-        ServerPlayConnectionEvents.JOIN.register((handler, sender, server) -> {
-            ServerPlayerEntity p = handler.getPlayer();
-            LAST_NAME.put(p.getUuid(), p.getName().getString());
+        // Version-sensitive entry points (respawnPlayer, ...) are resolved once, here
+        ServerCompat.init();
+
+        CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) -> registerCommands(dispatcher));
+
+        // Storage writer lives as long as the server; stopping flushes pending runs
+        ServerLifecycleEvents.SERVER_STARTING.register(server -> {
+            RunStorageWriter writer = startStorageWriter(server);
+            storageWriter = writer;
+            timeline = new DamageTimeline(STARTUP_CONFIG.splitsDir);
+            checkpoints = new RunCheckpoint(STARTUP_CONFIG.splitsDir);
+            pendingResume = RunCheckpoint.load(STARTUP_CONFIG.splitsDir);
+            configWatcher = startConfigWatcher(server);
+            storageLoaded = false;
+            savedBest = null;
+            // async: ready() may be complete already, and a plain thenApply would then read on the server thread;
+            // queued before the history so the bests don't wait for a full scan
+            storageLoad = writer.ready().thenApplyAsync(v -> {
+                try {
+                    return STORE.readBest();
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, HISTORY_EXECUTOR);
+            historyLoaded = false;
+            writer.ready().thenRunAsync(DamageLoggerMod::loadHistory, HISTORY_EXECUTOR);
+        });
+        ServerLifecycleEvents.SERVER_STARTED.register(DamageLoggerMod::loadDamageTypes);
+        ServerLifecycleEvents.SERVER_STARTED.register(server -> {
+            loadEntityTypes();
+            loadItemNames();
+        });
 
-            if (!storageLoaded) {
-                loadStorage(server);
+        ServerLifecycleEvents.SERVER_STOPPING.register(server -> {
+            ConfigWatcher watcher = configWatcher;
+            configWatcher = null;
+            if (watcher != null) watcher.close();
+
+            // the runs in progress carry on from here after the restart
+            RunCheckpoint cp = checkpoints;
+            checkpoints = null;
+            if (cp != null) {
+                for (RunContext run : RUNS.values()) {
+                    run.engine.checkpoint(true);
+                }
+                cp.close(STORAGE_FLUSH_TIMEOUT_MS);
             }
 
-            runCommand(server, "gamerule doImmediateRespawn true");
+            RunStorageWriter writer = storageWriter;
+            storageWriter = null;
+            if (writer != null) writer.close(STORAGE_FLUSH_TIMEOUT_MS);
+
+            DamageTimeline tl = timeline;
+            timeline = null;
+            if (tl != null) tl.close(STORAGE_FLUSH_TIMEOUT_MS);
+
+            // runs (and their objectives) belong to this server
+            RUNS.clear();
+            RUN_OF.clear();
+            pinning = false;
+        });
+
+        ServerPlayConnectionEvents.JOIN.register((handler, sender, server) -> {
+            pollStorage(server);
+
+            ensureImmediateRespawn(server);
+
+            // first player of a run starts it
+            RunContext run = joinRun(server, handler.getPlayer());
 
-            if (runStartMs < 0) {
-                startNewRunNow();
+            // late joiners get the current bar right away (it is not resent while unchanged)
+            GameMessageS2CPacket bar = run.actionbarPacket;
+            if (bar != null) {
+                handler.sendPacket(bar);
+                STATS.count(HandlerStats.Counter.PACKETS, 1);
             }
 
-            ensureSidebar(server);
-            renderSidebar(server);
+            renderSidebar(server, run);
+        });
+
+        ServerPlayConnectionEvents.DISCONNECT.register((handler, server) -> leaveRun(handler.getPlayer().getUuid()));
+
+        // One clock sample per tick and run; also advances IGT while the run is active
+        ServerTickEvents.START_SERVER_TICK.register(server -> {
+            for (RunContext run : RUNS.values()) {
+                run.engine.clock().tick();
+            }
         });
 
         ServerTickEvents.END_SERVER_TICK.register(server -> {
+            long t0 = HandlerStats.start();
+
+            pollStorage(server);
 
             // Force respawn pending players (hardcore Game Over screen workaround)
             if (!PENDING_FORCE_RESPAWN.isEmpty()) {
                 for (UUID id : new ArrayList<>(PENDING_FORCE_RESPAWN)) {
                     ServerPlayerEntity p = server.getPlayerManager().getPlayer(id);
                     if (p != null) {
-                        tryForceRespawn(server, p);
+                        ServerCompat.respawn(server.getPlayerManager(), p);
 
-                        // After respawn, force spectator + teleport via commands (reliable)
-                        if (runFailed) {
-                            forceSpectatorAndTeleportPlayer(server, p);
+                        // Respawning replaces the entity: look it up again before spectator + teleport
+                        RunContext run = RUN_OF.get(id);
+                        if (run != null && run.engine.failed()) {
+                            forceSpectatorAndTeleportPlayer(server, run, server.getPlayerManager().getPlayer(id));
                         }
-
-                        // Removed: duplicate changeGameMode + API teleport
-                        // (forceSpectatorAndTeleportPlayer already does this reliably)
                     }
                     PENDING_FORCE_RESPAWN.remove(id);
                 }
             }
 
-            // Pinning elke tick (alleen actief bij fail + binnen 5s window)
-            if (runFailed && pinUntilMs > 0 && System.currentTimeMillis() <= pinUntilMs) {
-                enforcePin(server);
-            }
-
-            secondTickCounter++;
-            if (secondTickCounter >= 20) {
-                secondTickCounter = 0;
-
-                // Actionbar timer
-                if (runStartMs >= 0) {
-                    long now = System.currentTimeMillis();
-                    long elapsed = (runFailed || runCompleted) ? (runEndMs - runStartMs) : (now - runStartMs);
-                    if (elapsed < 0) elapsed = 0;
-
-                    String timeStr = formatDuration(elapsed);
-
-                    MutableText bar;
-                    if (runCompleted) {
-                        bar = Text.empty()
-                                .append(Text.literal("RUN COMPLETED ").formatted(Formatting.GREEN, Formatting.BOLD))
-                                .append(Text.literal("— ").formatted(Formatting.DARK_GRAY))
-                                .append(Text.literal(timeStr).formatted(Formatting.GOLD));
-                    } else if (runFailed) {
-                        bar = Text.empty()
-                                .append(Text.literal("RUN FAILED ").formatted(Formatting.DARK_RED, Formatting.BOLD))
-                                .append(Text.literal("— ").formatted(Formatting.DARK_GRAY))
-                                .append(Text.literal(timeStr).formatted(Formatting.GOLD));
-                    } else {
-                        bar = Text.literal(timeStr).formatted(Formatting.GOLD);
+            // Per run, over its own players only
+            DamageLoggerConfig cfg = config;
+            boolean pins = false;
+            for (RunContext run : RUNS.values()) {
+                RunEngine engine = run.engine;
+
+                // Time at or below lowHearts (per tick, so IGT based)
+                if (engine.active()) {
+                    for (UUID id : run.members) {
+                        ServerPlayerEntity p = server.getPlayerManager().getPlayer(id);
+                        if (p != null && p.isAlive() && engine.lowHealth(p.getHealth())) {
+                            engine.stats().lowHealthTick(statsSlot(run, p));
+                        }
                     }
+                }
 
-                    for (ServerPlayerEntity p : server.getPlayerManager().getPlayerList()) {
-                        p.sendMessage(bar, true);
-                    }
+                // Pinning elke tick (alleen actief bij fail + binnen 5s window)
+                if (run.pinActive()) {
+                    pins = true;
+                    if (cfg.pinMode == DamageLoggerConfig.PinMode.TELEPORT) enforcePin(server, run);
                 }
 
-                // Splits check only while running
-                if (runStartMs >= 0 && !runFailed && !runCompleted) {
-                    checkSplits(server);
+                // Damage summaries for windows that just ended + actionbar timer
+                engine.tick();
+            }
+            pinning = pins;
+
+            refreshTickCounter++;
+            if (refreshTickCounter >= cfg.refreshIntervalTicks) {
+                refreshTickCounter = 0;
+
+                // Team changes move a player to the team's run (one pass over the player list)
+                if (STARTUP_CONFIG.runsPerTeam) {
+                    reassignRuns(server);
                 }
 
-                // Sidebar refresh
-                if (runStartMs >= 0) {
-                    ensureSidebar(server);
-                    renderSidebar(server);
+                for (RunContext run : RUNS.values()) {
+                    // Splits come from the advancement mixin; polling is only a fallback
+                    if (cfg.splitPolling && run.engine.active()) {
+                        long poll0 = HandlerStats.start();
+                        checkSplits(server, run);
+                        STATS.stop(HandlerStats.Handler.SPLIT_POLL, poll0);
+                    }
+
+                    // Sidebar refresh
+                    if (run.engine.started()) {
+                        renderSidebar(server, run);
+                    }
                 }
             }
+
+            if (HandlerStats.ENABLED && ++metricsTickCounter >= METRICS_INTERVAL_TICKS) {
+                metricsTickCounter = 0;
+                writeMetrics();
+            }
+
+            STATS.stop(HandlerStats.Handler.TICK, t0);
         });
 
         // Damage logging + totals
         ServerLivingEntityEvents.ALLOW_DAMAGE.register((LivingEntity entity, DamageSource source, float amount) -> {
             if (!(entity instanceof ServerPlayerEntity player)) return true;
             if (!(entity.getEntityWorld() instanceof ServerWorld world)) return true;
-            if (runFailed || runCompleted) return true;
 
-            String type = safeLower(source.getName());
-            if (type.contains("generickill")) return true; // ignore /kill noise
+            long t0 = HandlerStats.start();
+            try {
+                onPlayerDamage(world, player, source, amount);
+            } finally {
+                STATS.stop(HandlerStats.Handler.DAMAGE, t0);
+            }
+            return true;
+        });
 
-            // totals
-            DAMAGE_TAKEN.merge(player.getUuid(), amount, Float::sum);
-            LAST_NAME.put(player.getUuid(), player.getName().getString());
+        // Damage dealt by players: only hits that went through (not cancelled, not fully
+        // blocked), counted after armor and absorption
+        ServerLivingEntityEvents.AFTER_DAMAGE.register((LivingEntity entity, DamageSource source, float baseDamage, float damageTaken, boolean blocked) -> {
+            // every mob hit on the server comes through here: a field read and a type check
+            // turn away the ones no player dealt
+            if (!(source.getAttacker() instanceof ServerPlayerEntity attacker)) return;
+            if (blocked || damageTaken <= 0f) return;
 
-            logDamageIfNeeded(world.getServer(), player, source, amount);
-            return true;
+            long t0 = HandlerStats.start();
+            try {
+                onPlayerDealtDamage(attacker, entity, source, damageTaken);
+            } finally {
+                STATS.stop(HandlerStats.Handler.DAMAGE_DEALT, t0);
+            }
         });
 
         // End run on first real death (unless already completed)
@@ -236,272 +403,789 @@ public class DamageLoggerMod implements ModInitializer {
             if (!(entity instanceof ServerPlayerEntity player)) return;
             if (!(entity.getEntityWorld() instanceof ServerWorld world)) return;
 
-            if (runCompleted) return;
+            long t0 = HandlerStats.start();
+            try {
+                onPlayerDeath(world, player, source);
+            } finally {
+                STATS.stop(HandlerStats.Handler.DEATH, t0);
+            }
+        });
+    }
+
+    private static void onPlayerDamage(ServerWorld world, ServerPlayerEntity player, DamageSource source, float amount) {
+        RunContext run = RUN_OF.get(player.getUuid());
+        if (run == null || run.engine.ended()) return;
+        RunEngine engine = run.engine;
+
+        DamageTypeTable types = engine.damageTypes();
+        int typeId = damageTypeId(source, types);
+        byte kind = types.contains(typeId) ? types.kind(typeId) : DamageTypeTable.classify(source.getName());
+        Entity attacker = source.getAttacker();
+        int attackerTypeId = attacker != null ? Registries.ENTITY_TYPE.getRawId(attacker.getType()) : -1;
+
+        // timeline + totals + chat window; true = this hit gets its own line
+        if (engine.damage(statsSlot(run, player), player.getUuid(), typeId, kind, attackerTypeId, amount,
+                player.getHealth(), player.getBlockX(), player.getBlockY(), player.getBlockZ())) {
+            logDamage(world.getServer(), run, player, source, amount);
+        }
+    }
 
-            String type = safeLower(describeDamageType(source));
-            if (type.contains("generickill")) return;
+    private static void onPlayerDealtDamage(ServerPlayerEntity attacker, LivingEntity target, DamageSource source, float amount) {
+        RunContext run = RUN_OF.get(attacker.getUuid());
+        if (run == null || !run.engine.active()) return;
 
-            if (!FIRST_REAL_DEATH_HANDLED.compareAndSet(false, true)) return;
+        RunStats stats = run.engine.stats();
+        int key = weaponKey(attacker, source);
+        int weapon = stats.weapon(key); // -1 for key -1: counted without a weapon
+        if (weapon < 0 && key >= 0) weapon = stats.addWeapon(key, weaponName(key));
+        run.engine.dealt(statsSlot(run, attacker), Registries.ENTITY_TYPE.getRawId(target.getType()), weapon, amount);
+    }
 
-            MinecraftServer server = world.getServer();
-            runCommand(server, "gamerule doImmediateRespawn true");
+    private static void onPlayerDeath(ServerWorld world, ServerPlayerEntity player, DamageSource source) {
+        RunContext run = RUN_OF.get(player.getUuid());
+        if (run == null || run.engine.completed()) return;
 
-            runFailed = true;
-            runCompleted = false;
-            runEndMs = System.currentTimeMillis();
-            pinUntilMs = runEndMs + 5000;
+        if (DamageTypeTable.classify(describeDamageType(source)) == DamageTypeTable.IGNORE) return;
 
-            deathWorldKey = world.getRegistryKey();
-            deathX = player.getX();
-            deathY = player.getY();
-            deathZ = player.getZ();
+        if (!run.engine.fail()) return;
 
-            // queue forced respawn for the dead player (hardcore Game Over fix)
-            PENDING_FORCE_RESPAWN.add(player.getUuid());
+        MinecraftServer server = world.getServer();
+        ensureImmediateRespawn(server);
 
-            // Direct force spectator + teleport everyone (command-based, reliable)
-            forceSpectatorAndTeleportAll(server);
+        run.pinUntilMs = run.engine.clock().nowMs() + 5000;
+        pinning = true;
 
-            // NOW broadcast (after spectator+tp)
-            broadcastEndRunFailed(server, player, world, source, describeDamageType(source));
-            broadcastDamageLeaderboard(server);
-            saveRunToStorage(server, "FAILED", player.getName().getString());
+        run.deathWorldKey = world.getRegistryKey();
+        run.deathX = player.getX();
+        run.deathY = player.getY();
+        run.deathZ = player.getZ();
 
-            ensureSidebar(server);
-            renderSidebar(server);
-        });
+        // queue forced respawn for the dead player (hardcore Game Over fix)
+        PENDING_FORCE_RESPAWN.add(player.getUuid());
+
+        // Direct force spectator + teleport everyone in this run (command-based, reliable)
+        forceSpectatorAndTeleportAll(server, run);
+
+        // NOW broadcast (after spectator+tp)
+        run.engine.flushDamage(true);
+        broadcastEndRunFailed(server, run, player, world, source, describeDamageType(source));
+        pollStorage(server);
+        run.engine.endRun("FAILED", player.getName().getString());
     }
 
     // ------------------------------------------------------------
-    // RUN RESET (start new run on first join)
+    // RUNS (player -> run index; start new run on first join)
     // ------------------------------------------------------------
 
-    private static void startNewRunNow() {
-        runStartMs = System.currentTimeMillis();
-        runFailed = false;
-        runCompleted = false;
-        runEndMs = -1;
+    private static String runNameOf(ServerPlayerEntity p) {
+        if (!STARTUP_CONFIG.runsPerTeam) return RunContext.DEFAULT;
+        Team team = p.getScoreboardTeam();
+        return team != null ? team.getName() : RunContext.DEFAULT;
+    }
+
+    private static RunContext joinRun(MinecraftServer server, ServerPlayerEntity p) {
+        String name = runNameOf(p);
+        RunContext run = RUN_OF.get(p.getUuid());
+        if (run != null && !run.team.equals(name)) {
+            leaveRun(p.getUuid());
+            run = null;
+        }
+        if (run == null) {
+            run = RUNS.get(name);
+            if (run == null) {
+                run = newRun(server, name);
+                RUNS.put(name, run);
+            }
+            run.members.add(p.getUuid());
+            RUN_OF.put(p.getUuid(), run);
+        }
+
+        if (!run.engine.started()) {
+            resumeOrStartRun(server, run);
+        }
+        return run;
+    }
+
+    // A checkpoint left by a crash or restart continues; otherwise a fresh run
+    private static void resumeOrStartRun(MinecraftServer server, RunContext run) {
+        RunCheckpoint.State saved = pendingResume.remove(run.team);
+        if (saved != null && run.engine.resume(saved, config.resumeCountsDowntime)) {
+            run.reset();
+            RunEngine engine = run.engine;
+            chat(server, run, Text.literal("[Splits] Resumed run at " + SplitFormat.formatDuration(engine.clock().elapsedMs(engine.timing()))
+                    + " (" + (config.resumeCountsDowntime ? "downtime counted" : "downtime not counted") + ")").formatted(Formatting.GOLD));
+            return;
+        }
+        startNewRunNow(run);
+    }
 
-        FIRST_REAL_DEATH_HANDLED.set(false);
+    private static void leaveRun(UUID id) {
+        RunContext run = RUN_OF.remove(id);
+        if (run != null) {
+            run.members.remove(id);
+            run.pinCorrectedAt.remove(id);
+            run.engine.playerLeft(id);
+        }
+    }
 
-        pinUntilMs = -1;
-        deathWorldKey = null;
-        deathX = deathY = deathZ = 0;
+    private static RunContext newRun(MinecraftServer server, String team) {
+        // timing and tenths stay as the server started; the rest follows the live config
+        RunEngine engine = new RunEngine(team, Milestone.labels(), STARTUP_CONFIG,
+                new RunClock(), System::currentTimeMillis, DamageLoggerMod::entityTypeName);
+        engine.setConfig(config);
+        engine.setDamageTypes(damageTypes);
+        engine.setEntityTypes(entityTypes);
+        engine.setTimeline(timeline);
+        engine.setCheckpoint(checkpoints);
+        if (savedBest != null) engine.mergeBest(savedBest);
+
+        RunContext run = new RunContext(team, engine, team.isEmpty() ? OBJ_NAME : OBJ_NAME + "_" + team);
+        engine.setOutput(serverOutput(server, run));
+        return run;
+    }
 
-        SPLITS.clear();
-        SIDEBAR_LINES.clear();
+    // Someone joined or left a team: follow them to the team's run
+    private static void reassignRuns(MinecraftServer server) {
+        for (ServerPlayerEntity p : server.getPlayerManager().getPlayerList()) {
+            RunContext run = RUN_OF.get(p.getUuid());
+            if (run != null && run.team.equals(runNameOf(p))) continue;
+
+            RunContext moved = joinRun(server, p);
+            GameMessageS2CPacket bar = moved.actionbarPacket;
+            if (bar != null) {
+                p.networkHandler.sendPacket(bar);
+                STATS.count(HandlerStats.Counter.PACKETS, 1);
+            }
+            chat(server, moved, Text.literal("[Splits] " + p.getName().getString() + " joined run " + moved.displayName()).formatted(Formatting.DARK_GRAY));
+        }
+    }
 
-        DAMAGE_TAKEN.clear();
+    private static void startNewRunNow(RunContext run) {
+        run.engine.startRun();
+        run.reset();
+    }
+
+    // ------------------------------------------------------------
+    // ENGINE OUTPUT (Text, packets, scoreboard)
+    // ------------------------------------------------------------
+
+    // Chat, actionbar and sidebar of one run; only its own players get them
+    private static RunEngine.Output serverOutput(MinecraftServer server, RunContext run) {
+        return new RunEngine.Output() {
+            @Override
+            public void damageSummary(UUID player, String name, String cause, float amount, int hits, long spanMs) {
+                logDamageSummary(server, run, player, name, cause, amount, hits, spanMs);
+            }
+
+            @Override
+            public void split(String label, long timeMs, Long best, long segmentMs, Long bestSegment, long predictedMs,
+                              String playerName) {
+                broadcastSplit(server, run, label, timeMs, best, segmentMs, bestSegment, predictedMs, playerName);
+            }
+
+            @Override
+            public void personalBest(String label, long timeMs, Long old, String playerName) {
+                broadcastPB(server, run, label, timeMs, old, playerName);
+            }
+
+            @Override
+            public void completed(long elapsedMs, String winnerName) {
+                broadcastCompleted(server, run, elapsedMs, winnerName);
+            }
+
+            @Override
+            public void leaderboard(RunStats stats) {
+                broadcastDamageLeaderboard(server, run, stats);
+                broadcastDamageDealtLeaderboard(server, run, stats);
+            }
+
+            @Override
+            public void save(RunSnapshot snapshot) {
+                saveRunToStorage(server, run, snapshot);
+            }
+
+            @Override
+            public void sidebarLine(int score, String text, boolean added) {
+                setSidebarLine(server.getScoreboard(), run, score, text, added);
+                // every score change goes to everyone (a new line is two: score + text)
+                STATS.count(HandlerStats.Counter.PACKETS,
+                        (long) (added && text != null ? 2 : 1) * server.getPlayerManager().getCurrentPlayerCount());
+            }
+
+            @Override
+            public void actionbar(int state, String time) {
+                updateActionbar(server, run, state, time);
+            }
+        };
     }
 
     // ------------------------------------------------------------
     // CHAT HELPERS
     // ------------------------------------------------------------
 
+    // Server-wide (config, storage)
     private static void chat(MinecraftServer server, Text msg) {
         server.getPlayerManager().broadcast(msg, false);
+        STATS.count(HandlerStats.Counter.CHAT_LINES, 1);
+        STATS.count(HandlerStats.Counter.PACKETS, server.getPlayerManager().getCurrentPlayerCount());
+    }
+
+    // One run: its players, plus the console (like a broadcast) tagged with the team
+    private static void chat(MinecraftServer server, RunContext run, Text msg) {
+        server.sendMessage(run.isDefault() ? msg : Text.literal("[" + run.team + "] ").append(msg));
+        STATS.count(HandlerStats.Counter.CHAT_LINES, 1);
+        STATS.count(HandlerStats.Counter.PACKETS, sendToRun(server, run, new GameMessageS2CPacket(msg, false)));
+    }
+
+    // Same packet instance to every online player of the run; returns how many got it
+    private static int sendToRun(MinecraftServer server, RunContext run, Packet<?> packet) {
+        int sent = 0;
+        for (UUID id : run.members) {
+            ServerPlayerEntity p = server.getPlayerManager().getPlayer(id);
+            if (p != null) {
+                p.networkHandler.sendPacket(packet);
+                sent++;
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * [Damage] lines only go to players of the victim's run whose /damagelog setting matches.
+     * The packet is built once and the same instance is sent to every recipient.
+     */
+    private static void damageChat(MinecraftServer server, RunContext run, UUID victimId, float amount, Text msg) {
+        GameMessageS2CPacket packet = new GameMessageS2CPacket(msg, false);
+        STATS.count(HandlerStats.Counter.CHAT_LINES, 1);
+
+        if (SUBSCRIPTIONS.allDefault()) {
+            STATS.count(HandlerStats.Counter.PACKETS, sendToRun(server, run, packet));
+            return;
+        }
+
+        ServerPlayerEntity victim = server.getPlayerManager().getPlayer(victimId);
+        int sent = 0;
+        for (UUID id : run.members) {
+            ServerPlayerEntity p = server.getPlayerManager().getPlayer(id);
+            if (p == null) continue;
+            DamageLogSubscriptions.Subscription sub = SUBSCRIPTIONS.get(p.getUuid());
+            boolean own = victimId.equals(p.getUuid());
+            boolean sameTeam = sub.level == DamageLogSubscriptions.Level.TEAM && victim != null && victim.isTeammate(p);
+            if (DamageLogSubscriptions.wants(sub, own, sameTeam, amount)) {
+                p.networkHandler.sendPacket(packet);
+                sent++;
+            }
+        }
+        STATS.count(HandlerStats.Counter.PACKETS, sent);
     }
 
     // ------------------------------------------------------------
-    // STORAGE (runs.json)
+    // COMMANDS (/damagelog)
     // ------------------------------------------------------------
 
-    private static void loadStorage(MinecraftServer server) {
-        storageLoaded = true;
-        BEST_SPLIT_MS.clear();
-        BEST_SPLIT_RUN_ID.clear();
+    private static void registerCommands(CommandDispatcher<ServerCommandSource> dispatcher) {
+        LiteralArgumentBuilder<ServerCommandSource> root = CommandManager.literal("damagelog")
+                .executes(timed(ctx -> showDamageLogLevel(ctx.getSource())));
 
-        try {
-            Files.createDirectories(SPLITS_DIR);
-
-            if (!Files.exists(RUNS_FILE)) {
-                JsonObject root = new JsonObject();
-                root.addProperty("version", 1);
-                root.add("runs", new JsonArray());
-                root.add("bestSplits", new JsonObject());
-                writeJson(root);
-                return;
-            }
+        for (DamageLogSubscriptions.Level level : DamageLogSubscriptions.Level.values()) {
+            if (level == DamageLogSubscriptions.Level.BIG) continue;
+            root.then(CommandManager.literal(level.name().toLowerCase(Locale.ROOT))
+                    .executes(timed(ctx -> setDamageLogLevel(ctx.getSource(), level, 0f))));
+        }
 
-            try (BufferedReader br = Files.newBufferedReader(RUNS_FILE, StandardCharsets.UTF_8)) {
-                JsonElement el = JsonParser.parseReader(br);
-                if (el == null || !el.isJsonObject()) return;
-                JsonObject root = el.getAsJsonObject();
-
-                JsonObject best = root.has("bestSplits") && root.get("bestSplits").isJsonObject()
-                        ? root.getAsJsonObject("bestSplits")
-                        : new JsonObject();
-
-                for (String k : best.keySet()) {
-                    JsonObject b = best.getAsJsonObject(k);
-                    if (b != null && b.has("timeMs")) {
-                        BEST_SPLIT_MS.put(k, b.get("timeMs").getAsLong());
-                        if (b.has("runId")) {
-                            BEST_SPLIT_RUN_ID.put(k, b.get("runId").getAsString());
-                        }
-                    }
-                }
+        root.then(CommandManager.literal("top")
+                .executes(timed(ctx -> showDamageTop(ctx.getSource()))));
+
+        root.then(CommandManager.literal("big")
+                .executes(timed(ctx -> setDamageLogLevel(ctx.getSource(), DamageLogSubscriptions.Level.BIG, DEFAULT_BIG_HIT)))
+                .then(CommandManager.argument("threshold", FloatArgumentType.floatArg(0f))
+                        .executes(timed(ctx -> setDamageLogLevel(ctx.getSource(), DamageLogSubscriptions.Level.BIG,
+                                FloatArgumentType.getFloat(ctx, "threshold"))))));
+
+        dispatcher.register(root);
+
+        dispatcher.register(CommandManager.literal("splits")
+                .then(CommandManager.literal("history")
+                        .executes(timed(ctx -> querySplits(ctx.getSource(), h -> historyLines(h, HISTORY_DEFAULT_COUNT))))
+                        .then(CommandManager.argument("count", IntegerArgumentType.integer(1, 50))
+                                .executes(timed(ctx -> {
+                                    int count = IntegerArgumentType.getInteger(ctx, "count");
+                                    return querySplits(ctx.getSource(), h -> historyLines(h, count));
+                                }))))
+                .then(CommandManager.literal("run")
+                        .then(CommandManager.argument("id", StringArgumentType.word())
+                                .executes(timed(ctx -> {
+                                    String id = StringArgumentType.getString(ctx, "id");
+                                    return querySplits(ctx.getSource(), h -> runLines(h, id));
+                                }))))
+                .then(CommandManager.literal("stats")
+                        .executes(timed(ctx -> querySplits(ctx.getSource(), DamageLoggerMod::statsLines)))));
+
+        // mod cost (admins)
+        dispatcher.register(CommandManager.literal("damagelogger")
+                .requires(src -> src.hasPermissionLevel(2))
+                .then(CommandManager.literal("stats")
+                        .executes(timed(ctx -> showHandlerStats(ctx.getSource())))
+                        .then(CommandManager.literal("reset")
+                                .executes(timed(ctx -> resetHandlerStats(ctx.getSource()))))));
+    }
+
+    // Counts and times every command the mod answers
+    private static Command<ServerCommandSource> timed(Command<ServerCommandSource> command) {
+        return ctx -> {
+            long t0 = HandlerStats.start();
+            STATS.count(HandlerStats.Counter.COMMANDS, 1);
+            try {
+                return command.run(ctx);
+            } finally {
+                STATS.stop(HandlerStats.Handler.COMMAND, t0);
             }
-        } catch (Throwable t) {
-            chat(server, Text.literal("[Splits] Failed to load runs.json: " + t.getMessage()).formatted(Formatting.RED));
+        };
+    }
+
+    private static int showDamageLogLevel(ServerCommandSource src) {
+        ServerPlayerEntity p = src.getPlayer();
+        if (p == null) {
+            src.sendError(Text.literal("Only players have a damage log setting."));
+            return 0;
         }
+        src.sendFeedback(() -> describeDamageLogLevel(SUBSCRIPTIONS.get(p.getUuid())), false);
+        return Command.SINGLE_SUCCESS;
     }
 
-    private static void saveRunToStorage(MinecraftServer server, String endReason, String endPlayerName) {
-        try {
-            Files.createDirectories(SPLITS_DIR);
-
-            JsonObject root = readJsonOrCreate();
-            JsonArray runs = root.has("runs") && root.get("runs").isJsonArray()
-                    ? root.getAsJsonArray("runs")
-                    : new JsonArray();
-
-            String runId = makeRunId(runStartMs, runEndMs);
-
-            JsonObject run = new JsonObject();
-            run.addProperty("runId", runId);
-            run.addProperty("startMs", runStartMs);
-            run.addProperty("endMs", runEndMs);
-            run.addProperty("durationMs", Math.max(0, runEndMs - runStartMs));
-            run.addProperty("failed", runFailed);
-            run.addProperty("completed", runCompleted);
-            run.addProperty("endReason", endReason);
-            if (endPlayerName != null) run.addProperty("endPlayer", endPlayerName);
-
-            JsonObject splitsObj = new JsonObject();
-            for (Milestone m : Milestone.values()) {
-                SplitRecord r = SPLITS.get(m);
-                if (r == null) continue;
-                JsonObject s = new JsonObject();
-                s.addProperty("timeMs", r.timeMs);
-                s.addProperty("player", r.playerName);
-                s.addProperty("playerUuid", r.playerId.toString());
-                splitsObj.add(m.shortLabel, s);
-            }
-            run.add("splits", splitsObj);
+    private static int setDamageLogLevel(ServerCommandSource src, DamageLogSubscriptions.Level level, float threshold) {
+        ServerPlayerEntity p = src.getPlayer();
+        if (p == null) {
+            src.sendError(Text.literal("Only players have a damage log setting."));
+            return 0;
+        }
+        SUBSCRIPTIONS.set(p.getUuid(), level, threshold);
+        src.sendFeedback(() -> describeDamageLogLevel(SUBSCRIPTIONS.get(p.getUuid())), false);
+        return Command.SINGLE_SUCCESS;
+    }
 
-            runs.add(run);
-            root.add("runs", runs);
+    // Live leaderboard + your own stats, straight from the run stats (nothing is sorted here)
+    private static int showDamageTop(ServerCommandSource src) {
+        ServerPlayerEntity caller = src.getPlayer();
+        RunContext run = caller != null ? RUN_OF.get(caller.getUuid()) : (RUNS.size() == 1 ? RUNS.values().iterator().next() : null);
+        if (run == null) {
+            src.sendError(Text.literal("[Damage] Not in a run."));
+            return 0;
+        }
 
-            // Fix BEST_SPLIT_RUN_ID == "current"
-            for (Map.Entry<String, String> e : new HashMap<>(BEST_SPLIT_RUN_ID).entrySet()) {
-                if ("current".equals(e.getValue())) {
-                    BEST_SPLIT_RUN_ID.put(e.getKey(), runId);
-                }
+        RunStats stats = run.engine.stats();
+        if (stats.topSize() == 0) {
+            src.sendFeedback(() -> Text.literal("[Damage] No damage taken yet this run.").formatted(Formatting.GRAY), false);
+            return Command.SINGLE_SUCCESS;
+        }
+
+        src.sendFeedback(() -> Text.literal("═══ Most damage taken (live) ═══").formatted(Formatting.DARK_AQUA, Formatting.BOLD), false);
+        for (int i = 0; i < stats.topSize(); i++) {
+            Text line = buildDamageTopLine(stats, i);
+            src.sendFeedback(() -> line, false);
+        }
+
+        ServerPlayerEntity p = src.getPlayer();
+        int slot = p != null ? stats.slot(p.getUuid()) : -1;
+        if (slot >= 0) {
+            MutableText own = Text.empty()
+                    .append(Text.literal("You: ").formatted(Formatting.GRAY))
+                    .append(Text.literal(String.format(Locale.ROOT, "%.1f", stats.taken(slot))).formatted(Formatting.RED, Formatting.BOLD))
+                    .append(Text.literal(" ♥").formatted(Formatting.RED))
+                    .append(Text.literal(String.format(Locale.ROOT, " (DoT %.1f) | %d hits | max %.1f | low HP %s",
+                            stats.taken(slot, DamageTypeTable.DOT), stats.hits(slot), stats.biggestHit(slot),
+                            SplitFormat.formatDuration(stats.lowHealthTicks(slot) * RunClock.TICK_MS))).formatted(Formatting.GRAY));
+            src.sendFeedback(() -> own, false);
+            if (stats.dealtHits(slot) > 0) {
+                MutableText dealt = Text.empty()
+                        .append(Text.literal("Dealt: ").formatted(Formatting.GRAY))
+                        .append(Text.literal(String.format(Locale.ROOT, "%.1f", stats.dealt(slot))).formatted(Formatting.GOLD, Formatting.BOLD))
+                        .append(Text.literal(" ⚔").formatted(Formatting.GOLD))
+                        .append(Text.literal(String.format(Locale.ROOT, " | %d hits", stats.dealtHits(slot))).formatted(Formatting.GRAY));
+                src.sendFeedback(() -> dealt, false);
             }
+        }
+        return Command.SINGLE_SUCCESS;
+    }
+
+    private static Text describeDamageLogLevel(DamageLogSubscriptions.Subscription sub) {
+        String level = sub.level.name().toLowerCase(Locale.ROOT);
+        if (sub.level == DamageLogSubscriptions.Level.BIG) {
+            level += String.format(Locale.ROOT, " (>= %.1f)", sub.threshold);
+        }
+        return Text.empty()
+                .append(Text.literal("[Damage] ").formatted(Formatting.DARK_GRAY))
+                .append(Text.literal("log: ").formatted(Formatting.GRAY))
+                .append(Text.literal(level).formatted(Formatting.WHITE));
+    }
+
+    // ------------------------------------------------------------
+    // INSTRUMENTATION (/damagelogger stats + Prometheus file)
+    // ------------------------------------------------------------
+
+    private static int showHandlerStats(ServerCommandSource src) {
+        Throwable storageError = storageOpenError();
+        if (storageError != null) {
+            src.sendFeedback(() -> Text.literal("[DamageLogger] Storage (" + STARTUP_CONFIG.storage.name().toLowerCase(Locale.ROOT)
+                    + ") could not be opened: " + storageError.getMessage()).formatted(Formatting.RED), false);
+        }
+        if (!HandlerStats.ENABLED) {
+            src.sendFeedback(() -> Text.literal("[DamageLogger] Instrumentation is off (-Ddamagelogger.instrumentation=false).").formatted(Formatting.GRAY), false);
+            return Command.SINGLE_SUCCESS;
+        }
+
+        HandlerStats.Snapshot snap = STATS.snapshot();
+        double perTick = snap.nanosPerTick();
+        src.sendFeedback(() -> Text.literal("═══ DamageLogger cost (since " + HISTORY_DATE.format(Instant.ofEpochMilli(snap.sinceMs)) + ") ═══")
+                .formatted(Formatting.DARK_AQUA, Formatting.BOLD), false);
+        src.sendFeedback(() -> Text.empty()
+                .append(Text.literal("Per tick: ").formatted(Formatting.GRAY))
+                .append(Text.literal(HandlerStats.formatNanos(perTick)).formatted(Formatting.GOLD, Formatting.BOLD))
+                .append(Text.literal(String.format(Locale.ROOT, " (%.3f%% of 50ms)", perTick / (RunClock.TICK_MS * 1e6) * 100)).formatted(Formatting.DARK_GRAY)), false);
+
+        for (HandlerStats.Handler h : HandlerStats.Handler.values()) {
+            long n = snap.calls(h);
+            if (n == 0) continue;
+            MutableText line = Text.empty()
+                    .append(Text.literal((h.nested ? "  " : "") + h.metricName + " ").formatted(h.nested ? Formatting.GRAY : Formatting.WHITE))
+                    .append(Text.literal("n=" + n).formatted(Formatting.DARK_GRAY))
+                    .append(Text.literal(" mean " + HandlerStats.formatNanos(snap.meanNanos(h))).formatted(Formatting.GRAY))
+                    .append(Text.literal(" p50 " + HandlerStats.formatNanos(snap.percentileNanos(h, 50))).formatted(Formatting.GRAY))
+                    .append(Text.literal(" p99 " + HandlerStats.formatNanos(snap.percentileNanos(h, 99))).formatted(Formatting.GOLD))
+                    .append(Text.literal(" max " + HandlerStats.formatNanos(snap.maxNanos(h))).formatted(Formatting.RED));
+            src.sendFeedback(() -> line, false);
+        }
 
-            JsonObject best = new JsonObject();
-            for (Map.Entry<String, Long> e : BEST_SPLIT_MS.entrySet()) {
-                JsonObject b = new JsonObject();
-                b.addProperty("timeMs", e.getValue());
-                String rid = BEST_SPLIT_RUN_ID.get(e.getKey());
-                if (rid != null) b.addProperty("runId", rid);
-                best.add(e.getKey(), b);
+        src.sendFeedback(() -> Text.literal(String.format(Locale.ROOT, "Chat lines %d | packets %d | commands %d",
+                snap.counter(HandlerStats.Counter.CHAT_LINES), snap.counter(HandlerStats.Counter.PACKETS),
+                snap.counter(HandlerStats.Counter.COMMANDS))).formatted(Formatting.GRAY), false);
+        return Command.SINGLE_SUCCESS;
+    }
+
+    private static int resetHandlerStats(ServerCommandSource src) {
+        STATS.reset();
+        src.sendFeedback(() -> Text.literal("[DamageLogger] Stats reset.").formatted(Formatting.GRAY), true);
+        return Command.SINGLE_SUCCESS;
+    }
+
+    // Snapshot on the server thread, format + write on the metrics thread
+    private static void writeMetrics() {
+        HandlerStats.Snapshot snap = STATS.snapshot();
+        METRICS_EXECUTOR.execute(() -> {
+            try {
+                HandlerStats.writeAtomically(METRICS_FILE, snap.toPrometheus());
+            } catch (IOException ignored) {
+                // the next interval tries again
             }
-            root.add("bestSplits", best);
-            root.addProperty("version", 1);
+        });
+    }
 
-            writeJson(root);
+    // ------------------------------------------------------------
+    // SPLITS HISTORY (/splits, answered on HISTORY_EXECUTOR)
+    // ------------------------------------------------------------
 
-            // subtle confirmation
-            chat(server, Text.literal("[Splits] Saved run " + runId).formatted(Formatting.DARK_GRAY));
-        } catch (Throwable t) {
-            chat(server, Text.literal("[Splits] Failed to save run: " + t.getMessage()).formatted(Formatting.RED));
+    private static RunHistory historyIndex() {
+        if (history == null) {
+            history = new RunHistory(Milestone.labels());
         }
+        return history;
     }
 
-    private static JsonObject readJsonOrCreate() throws IOException {
-        if (!Files.exists(RUNS_FILE)) {
-            JsonObject root = new JsonObject();
-            root.addProperty("version", 1);
-            root.add("runs", new JsonArray());
-            root.add("bestSplits", new JsonObject());
-            return root;
+    private static void loadHistory() {
+        RunHistory h = historyIndex();
+        try {
+            STORE.readRuns(h::add);
+        } catch (IOException ignored) {
+            // the index just starts with whatever gets saved from now on
         }
-        try (BufferedReader br = Files.newBufferedReader(RUNS_FILE, StandardCharsets.UTF_8)) {
-            JsonElement el = JsonParser.parseReader(br);
-            if (el != null && el.isJsonObject()) return el.getAsJsonObject();
-        } catch (Throwable ignored) {}
-        JsonObject root = new JsonObject();
-        root.addProperty("version", 1);
-        root.add("runs", new JsonArray());
-        root.add("bestSplits", new JsonObject());
-        return root;
+        // sort once now, so the first /splits stats doesn't pay for it
+        h.stats(RunHistory.RTA);
+        h.stats(RunHistory.IGT);
+        historyLoaded = true;
     }
 
-    private static void writeJson(JsonObject root) throws IOException {
-        Path tmp = RUNS_FILE.resolveSibling("runs.json.tmp");
-        try (BufferedWriter bw = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-            bw.write(GSON.toJson(root));
-            bw.flush();
+    /** Runs the query off the tick thread and sends the lines back from the server thread. */
+    private static int querySplits(ServerCommandSource src, Function<RunHistory, List<Text>> query) {
+        MinecraftServer server = src.getServer();
+        CompletableFuture.supplyAsync(() -> query.apply(historyIndex()), HISTORY_EXECUTOR)
+                .whenComplete((lines, error) -> server.execute(() -> {
+                    if (error != null) {
+                        src.sendError(Text.literal("[Splits] Query failed: " + error.getMessage()));
+                        return;
+                    }
+                    Throwable storageError = storageOpenError();
+                    if (storageError != null) {
+                        src.sendError(Text.literal("[Splits] Run storage could not be opened, history is unavailable: " + storageError.getMessage()));
+                    } else if (!historyLoaded) {
+                        src.sendFeedback(() -> Text.literal("[Splits] History is still loading, results may be incomplete.").formatted(Formatting.DARK_GRAY), false);
+                    }
+                    for (Text line : lines) {
+                        src.sendFeedback(() -> line, false);
+                    }
+                }));
+        return Command.SINGLE_SUCCESS;
+    }
+
+    private static int historyMode() {
+        return STARTUP_CONFIG.timing == RunClock.Mode.IGT ? RunHistory.IGT : RunHistory.RTA;
+    }
+
+    private static List<Text> historyLines(RunHistory h, int count) {
+        List<Text> out = new ArrayList<>();
+        if (h.size() == 0) {
+            out.add(Text.literal("[Splits] No runs stored yet.").formatted(Formatting.GRAY));
+            return out;
         }
-        try {
-            Files.move(tmp, RUNS_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
-        } catch (AtomicMoveNotSupportedException e) {
-            Files.move(tmp, RUNS_FILE, StandardCopyOption.REPLACE_EXISTING);
+
+        int mode = historyMode();
+        out.add(Text.literal("═══ Last runs (" + h.size() + " total) ═══").formatted(Formatting.DARK_AQUA, Formatting.BOLD));
+        for (RunHistory.Run r : h.recent(count)) {
+            out.add(Text.empty()
+                    .append(Text.literal(r.startMs >= 0 ? HISTORY_DATE.format(Instant.ofEpochMilli(r.startMs)) + " " : "").formatted(Formatting.DARK_GRAY))
+                    .append(runStatus(r))
+                    .append(Text.literal(" " + SplitFormat.formatTime(r.total(mode))).formatted(Formatting.GOLD))
+                    .append(Text.literal(" " + r.reached() + "/" + h.labels().size()).formatted(Formatting.GRAY))
+                    .append(Text.literal(" " + r.runId).formatted(Formatting.DARK_GRAY)));
+        }
+        return out;
+    }
+
+    private static List<Text> runLines(RunHistory h, String runId) {
+        List<Text> out = new ArrayList<>();
+        RunHistory.Run r = h.run(runId);
+        if (r == null) {
+            out.add(Text.literal("[Splits] Unknown run: " + runId).formatted(Formatting.RED));
+            return out;
+        }
+
+        int mode = historyMode();
+        out.add(Text.literal("═══ " + r.runId + " ═══").formatted(Formatting.DARK_AQUA, Formatting.BOLD));
+        out.add(Text.empty()
+                .append(runStatus(r))
+                .append(Text.literal(" " + SplitFormat.formatTime(r.total(mode))).formatted(Formatting.GOLD))
+                .append(Text.literal(r.endPlayer != null ? " — " + r.endPlayer : "").formatted(Formatting.GRAY)));
+
+        List<String> labels = h.labels();
+        for (int m = 0; m < labels.size(); m++) {
+            long t = r.split(mode, m);
+            MutableText line = Text.empty()
+                    .append(Text.literal(labels.get(m) + " ").formatted(Formatting.WHITE))
+                    .append(Text.literal(SplitFormat.formatTime(t)).formatted(t >= 0 ? Formatting.GOLD : Formatting.DARK_GRAY));
+            if (r.splitPlayer[m] != null) {
+                line.append(Text.literal(" — " + r.splitPlayer[m]).formatted(Formatting.GRAY));
+            }
+            out.add(line);
         }
+        return out;
+    }
+
+    private static List<Text> statsLines(RunHistory h) {
+        List<Text> out = new ArrayList<>();
+        RunHistory.Stats st = h.stats(historyMode());
+
+        out.add(Text.literal("═══ Run stats (" + STARTUP_CONFIG.timing.name() + ") ═══").formatted(Formatting.DARK_AQUA, Formatting.BOLD));
+        out.add(Text.empty()
+                .append(Text.literal("Runs: ").formatted(Formatting.GRAY))
+                .append(Text.literal(String.valueOf(st.runs)).formatted(Formatting.WHITE))
+                .append(Text.literal(" | completed: ").formatted(Formatting.GRAY))
+                .append(Text.literal(st.completed + String.format(Locale.ROOT, " (%.0f%%)", st.completionRate() * 100)).formatted(Formatting.GREEN)));
+
+        List<String> labels = h.labels();
+        for (int m = 0; m < labels.size(); m++) {
+            out.add(Text.empty()
+                    .append(Text.literal(labels.get(m) + " ").formatted(Formatting.WHITE))
+                    .append(Text.literal("med ").formatted(Formatting.DARK_GRAY))
+                    .append(Text.literal(SplitFormat.formatTime(st.median[m])).formatted(Formatting.GOLD))
+                    .append(Text.literal(" p90 ").formatted(Formatting.DARK_GRAY))
+                    .append(Text.literal(SplitFormat.formatTime(st.p90[m])).formatted(Formatting.GOLD))
+                    .append(Text.literal(" seg ").formatted(Formatting.DARK_GRAY))
+                    .append(Text.literal(SplitFormat.formatTime(st.bestSegment[m])).formatted(Formatting.AQUA))
+                    .append(Text.literal(" n=" + st.samples[m]).formatted(Formatting.DARK_GRAY)));
+        }
+
+        out.add(Text.empty()
+                .append(Text.literal("Sum of best: ").formatted(Formatting.GRAY))
+                .append(Text.literal(SplitFormat.formatTime(st.sumOfBest)).formatted(Formatting.AQUA, Formatting.BOLD)));
+        return out;
+    }
+
+    private static Text runStatus(RunHistory.Run r) {
+        if (r.completed) return Text.literal("COMPLETED").formatted(Formatting.GREEN);
+        if (r.failed) return Text.literal("FAILED").formatted(Formatting.DARK_RED);
+        return Text.literal(r.endReason != null ? r.endReason : "?").formatted(Formatting.GRAY);
     }
 
-    private static String makeRunId(long startMs, long endMs) {
-        return "run-" + startMs + "-" + endMs;
+    // ------------------------------------------------------------
+    // ACTIONBAR TIMER
+    // ------------------------------------------------------------
+
+    /**
+     * One overlay packet per visible change, shared by the run's players. The engine only calls
+     * this when the text changed, so nothing is sent once the run failed or completed.
+     */
+    private static void updateActionbar(MinecraftServer server, RunContext run, int state, String time) {
+        MutableText bar;
+        if (state == RunEngine.COMPLETED) {
+            bar = Text.empty()
+                    .append(Text.literal("RUN COMPLETED ").formatted(Formatting.GREEN, Formatting.BOLD))
+                    .append(Text.literal("— ").formatted(Formatting.DARK_GRAY))
+                    .append(Text.literal(time).formatted(Formatting.GOLD));
+        } else if (state == RunEngine.FAILED) {
+            bar = Text.empty()
+                    .append(Text.literal("RUN FAILED ").formatted(Formatting.DARK_RED, Formatting.BOLD))
+                    .append(Text.literal("— ").formatted(Formatting.DARK_GRAY))
+                    .append(Text.literal(time).formatted(Formatting.GOLD));
+        } else {
+            bar = Text.literal(time).formatted(Formatting.GOLD);
+        }
+
+        GameMessageS2CPacket packet = new GameMessageS2CPacket(bar, true);
+        run.actionbarPacket = packet;
+        STATS.count(HandlerStats.Counter.PACKETS, sendToRun(server, run, packet));
     }
 
-    private static void tryForceRespawn(MinecraftServer server, ServerPlayerEntity player) {
+    // ------------------------------------------------------------
+    // CONFIG (config/damage_logger.json)
+    // ------------------------------------------------------------
+
+    // A broken file at startup leaves the defaults in place; the watcher picks up the fix
+    private static DamageLoggerConfig loadConfig() {
         try {
-            Object pm = server.getPlayerManager();
-
-            // Find a respawnPlayer(...) method that matches our mappings/runtime
-            for (Method m : pm.getClass().getMethods()) {
-                if (!m.getName().equals("respawnPlayer")) continue;
-                Class<?>[] p = m.getParameterTypes();
-                if (p.length < 2) continue;
-                if (!ServerPlayerEntity.class.isAssignableFrom(p[0])) continue;
-
-                // Common Yarn signatures look like:
-                // respawnPlayer(ServerPlayerEntity, boolean)
-                // respawnPlayer(ServerPlayerEntity, boolean, RemovalReason)
-                // respawnPlayer(ServerPlayerEntity, boolean, Entity.RemovalReason, ...)
-                if (p[1] == boolean.class || p[1] == Boolean.class) {
-                    Object[] args = new Object[p.length];
-                    args[0] = player;
-                    args[1] = Boolean.TRUE; // keep inventory / or "alive-ish" depending on version; true is safest here
-
-                    // fill remaining params with null/false defaults
-                    for (int i = 2; i < p.length; i++) {
-                        if (p[i] == boolean.class) args[i] = Boolean.FALSE;
-                        else args[i] = null;
-                    }
+            return DamageLoggerConfig.loadOrCreate(CONFIG_FILE);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Could not read {}, using defaults: {}", CONFIG_FILE, e.getMessage());
+            return DamageLoggerConfig.DEFAULTS;
+        }
+    }
 
-                    m.invoke(pm, args);
-                    return;
+    private static ConfigWatcher startConfigWatcher(MinecraftServer server) {
+        try {
+            return new ConfigWatcher("DamageLogger-Config", CONFIG_FILE, config, new ConfigWatcher.Listener() {
+                @Override
+                public void reloaded(DamageLoggerConfig cfg) {
+                    // visible to the next tick / event; the run list itself is server thread only
+                    config = cfg;
+                    server.execute(() -> {
+                        for (RunContext run : RUNS.values()) {
+                            run.engine.setConfig(cfg);
+                        }
+                    });
+
+                    boolean restart = !cfg.splitsDir.equals(STARTUP_CONFIG.splitsDir)
+                            || cfg.storage != STARTUP_CONFIG.storage
+                            || cfg.timing != STARTUP_CONFIG.timing
+                            || cfg.actionbarTenths != STARTUP_CONFIG.actionbarTenths
+                            || cfg.runsPerTeam != STARTUP_CONFIG.runsPerTeam;
+                    server.execute(() -> chat(server, Text.literal("[DamageLogger] Config reloaded"
+                            + (restart ? " (splitsDir / storage / timing / actionbarTenths / runsPerTeam apply after a restart)" : "")).formatted(Formatting.DARK_GRAY)));
                 }
-            }
-        } catch (Throwable ignored) {
-            // If reflection fails, we just fall back to manual "Spectate World" click.
+
+                @Override
+                public void failed(Exception error) {
+                    server.execute(() -> chat(server, Text.literal("[DamageLogger] Config not reloaded: " + error.getMessage()).formatted(Formatting.RED)));
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.warn("Config reload disabled: {}", e.getMessage());
+            return null;
         }
     }
 
     // ------------------------------------------------------------
-    // DAMAGE LOGGING (with colors)
+    // STORAGE (RunStore: runs.jsonl + best.json, or the H2 database)
     // ------------------------------------------------------------
 
-    private static void logDamageIfNeeded(MinecraftServer server, ServerPlayerEntity player, DamageSource source, float amount) {
-        String key = player.getUuidAsString() + "|" + source.getName();
-        long now = System.currentTimeMillis();
+    private static void pollStorage(MinecraftServer server) {
+        if (storageLoaded) return;
+
+        CompletableFuture<RunJournal.BestIndex> load = storageLoad;
+        if (load == null || !load.isDone()) return;
+        storageLoaded = true;
+
+        try {
+            RunJournal.BestIndex loaded = load.join();
+            savedBest = savedBest != null ? loaded.merged(savedBest) : loaded;
+            for (RunContext run : RUNS.values()) {
+                run.engine.mergeBest(loaded);
+            }
+        } catch (Throwable t) {
+            Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+            chat(server, Text.literal("[Splits] Failed to load best splits: " + cause.getMessage()).formatted(Formatting.RED));
+        }
+    }
+
+    // The engine built the snapshot on the server thread; written on the storage thread
+    private static void saveRunToStorage(MinecraftServer server, RunContext run, RunSnapshot snapshot) {
+        long t0 = HandlerStats.start();
+        try {
+            HISTORY_EXECUTOR.execute(() -> historyIndex().add(snapshot));
 
-        long cooldown = DEFAULT_COOLDOWN_MS;
+            // its golds count for every run from now on (and for runs that start later)
+            RunJournal.BestIndex best = RunJournal.BestIndex.of(snapshot);
+            savedBest = savedBest != null ? savedBest.merged(best) : best;
+            for (RunContext other : RUNS.values()) {
+                if (other != run) other.engine.mergeBest(best);
+            }
 
-        String srcName = safeLower(source.getName());
-        if (srcName.contains("fire") || srcName.contains("lava") || srcName.contains("wither")
-                || srcName.contains("poison") || srcName.contains("starve") || srcName.contains("cactus")) {
-            cooldown = DOT_COOLDOWN_MS;
+            RunStorageWriter writer = storageWriter;
+            if (writer == null) {
+                chat(server, run, Text.literal("[Splits] Failed to save run: storage not started").formatted(Formatting.RED));
+                return;
+            }
+            writer.submit(snapshot);
+        } finally {
+            STATS.stop(HandlerStats.Handler.SAVE, t0);
         }
+    }
+
+    // Storage replies go to the run they are about (if it is still there)
+    private static void runChat(MinecraftServer server, RunSnapshot snapshot, Text msg) {
+        RunContext run = RUNS.get(snapshot.team != null ? snapshot.team : RunContext.DEFAULT);
+        if (run != null) chat(server, run, msg);
+        else chat(server, msg);
+    }
+
+    // Timeline name table for attacker entity types
+    private static String entityTypeName(int rawId) {
+        EntityTypeTable types = entityTypes;
+        if (types.contains(rawId)) return types.id(rawId);
+        EntityType<?> type = Registries.ENTITY_TYPE.get(rawId);
+        return type != null ? String.valueOf(Registries.ENTITY_TYPE.getId(type)) : "unknown";
+    }
+
+    // null while the storage is fine (or not started)
+    private static Throwable storageOpenError() {
+        RunStorageWriter writer = storageWriter;
+        return writer != null ? writer.openError() : null;
+    }
+
+    private static RunStorageWriter startStorageWriter(MinecraftServer server) {
+        return new RunStorageWriter("DamageLogger-Storage", STORE, new RunStorageWriter.Listener() {
+            @Override
+            public void saved(RunSnapshot run) {
+                // subtle confirmation
+                server.execute(() -> runChat(server, run, Text.literal("[Splits] Saved run " + run.runId).formatted(Formatting.DARK_GRAY)));
+            }
+
+            @Override
+            public void failed(RunSnapshot run, Throwable error) {
+                server.execute(() -> runChat(server, run, Text.literal("[Splits] Failed to save run: " + error.getMessage()).formatted(Formatting.RED)));
+            }
+
+            @Override
+            public void openFailed(Throwable error) {
+                LOGGER.error("Could not open the run storage ({} in {}); runs may not be saved", STARTUP_CONFIG.storage, STARTUP_CONFIG.splitsDir, error);
+                server.execute(() -> chat(server, Text.literal("[Splits] Could not open the run storage: " + error.getMessage()).formatted(Formatting.RED)));
+            }
+        });
+    }
 
-        Long last = LAST_LOG_TIME.get(key);
-        if (last != null && (now - last) < cooldown) return;
-        LAST_LOG_TIME.put(key, now);
+    // ------------------------------------------------------------
+    // DAMAGE LOGGING (with colors)
+    // ------------------------------------------------------------
 
+    // Only called for hits that opened a chat window (RunEngine.damage)
+    private static void logDamage(MinecraftServer server, RunContext run, ServerPlayerEntity player, DamageSource source, float amount) {
         String attacker = resolveAttacker(source);
         String cause = describeCause(source);
 
@@ -524,7 +1208,36 @@ public class DamageLoggerMod implements ModInitializer {
                 .append(Text.literal(" | HP: ").formatted(Formatting.GRAY))
                 .append(Text.literal(String.format(Locale.ROOT, "%.1f/%.1f", hp, max)).formatted(Formatting.GRAY));
 
-        chat(server, msg);
+        damageChat(server, run, player.getUuid(), amount, msg);
+    }
+
+    private static void logDamageSummary(MinecraftServer server, RunContext run, UUID id, String name, String cause, float amount, int hits, long spanMs) {
+        // [Damage] <NAME> took <DMG> from <cause> over <N> hits[ in <T>s] | HP: <hp>/<max>
+        // The summary carries hits no line showed yet, so a single one is still reported;
+        // only the span is left out when it would read 0.0s.
+        MutableText msg = Text.empty()
+                .append(Text.literal("[Damage] ").formatted(Formatting.DARK_GRAY))
+                .append(Text.literal(name).formatted(Formatting.WHITE))
+                .append(Text.literal(" took ").formatted(Formatting.GRAY))
+                .append(Text.literal(String.format(Locale.ROOT, "%.1f", amount)).formatted(Formatting.RED, Formatting.BOLD))
+                .append(Text.literal(" ").formatted(Formatting.GRAY))
+                .append(Text.literal("♥").formatted(Formatting.RED, Formatting.BOLD))
+                .append(Text.literal(" from ").formatted(Formatting.GRAY))
+                .append(Text.literal(cause).formatted(Formatting.GRAY))
+                .append(Text.literal(" over ").formatted(Formatting.DARK_GRAY))
+                .append(Text.literal(hits + (hits == 1 ? " hit" : " hits")).formatted(Formatting.GRAY));
+        if (spanMs >= 50) {
+            msg.append(Text.literal(" in ").formatted(Formatting.DARK_GRAY))
+                    .append(Text.literal(String.format(Locale.ROOT, "%.1fs", spanMs / 1000.0)).formatted(Formatting.GRAY));
+        }
+
+        ServerPlayerEntity p = server.getPlayerManager().getPlayer(id);
+        if (p != null) {
+            msg.append(Text.literal(" | HP: ").formatted(Formatting.GRAY))
+                    .append(Text.literal(String.format(Locale.ROOT, "%.1f/%.1f", p.getHealth(), p.getMaxHealth())).formatted(Formatting.GRAY));
+        }
+
+        damageChat(server, run, id, amount, msg);
     }
 
     private static String resolveAttacker(DamageSource source) {
@@ -535,68 +1248,143 @@ public class DamageLoggerMod implements ModInitializer {
             return "player:" + p.getName().getString();
         }
 
-        return attacker.getType().toString();
+        return entityTypes.chatName(Registries.ENTITY_TYPE.getRawId(attacker.getType()));
     }
 
     // ------------------------------------------------------------
     // DAMAGE LEADERBOARD (most damage taken this run)
     // ------------------------------------------------------------
 
-    private static void broadcastDamageLeaderboard(MinecraftServer server) {
-        if (DAMAGE_TAKEN.isEmpty()) return;
+    private static int statsSlot(RunContext run, ServerPlayerEntity p) {
+        RunStats stats = run.engine.stats();
+        int slot = stats.slot(p.getUuid());
+        return slot >= 0 ? slot : stats.slot(p.getUuid(), p.getName().getString());
+    }
+
+    private static void broadcastDamageDealtLeaderboard(MinecraftServer server, RunContext run, RunStats stats) {
+        if (stats.topDealtSize() == 0) return;
+
+        if (stats.topSize() == 0) chat(server, run, Text.literal(" ").formatted(Formatting.DARK_GRAY));
+        chat(server, run, Text.literal("═══ Most damage dealt (this run) ═══").formatted(Formatting.DARK_AQUA, Formatting.BOLD));
 
-        List<Map.Entry<UUID, Float>> list = new ArrayList<>(DAMAGE_TAKEN.entrySet());
-        list.sort((a, b) -> Float.compare(b.getValue(), a.getValue()));
+        for (int i = 0; i < stats.topDealtSize(); i++) {
+            chat(server, run, buildDamageDealtLine(stats, i));
+        }
 
-        chat(server, Text.literal(" ").formatted(Formatting.DARK_GRAY));
-        chat(server, Text.literal("═══ Most damage taken (this run) ═══").formatted(Formatting.DARK_AQUA, Formatting.BOLD));
+        chat(server, run, Text.literal("══════════════════════════════════").formatted(Formatting.DARK_AQUA));
+        chat(server, run, Text.literal(" ").formatted(Formatting.DARK_GRAY));
+    }
 
-        int n = Math.min(5, list.size());
-        for (int i = 0; i < n; i++) {
-            UUID id = list.get(i).getKey();
-            float dmg = list.get(i).getValue();
-            String name = LAST_NAME.getOrDefault(id, id.toString().substring(0, 8));
+    // #1 Name — 312.5 ⚔ (84 hits, mostly zombie, iron_sword)
+    private static MutableText buildDamageDealtLine(RunStats stats, int rank) {
+        int slot = stats.topDealt(rank);
+        int target = stats.topTarget(slot);
+        int weapon = stats.topWeapon(slot);
+        String detail = String.format(Locale.ROOT, " (%d hits", stats.dealtHits(slot));
+        if (target >= 0) detail += ", mostly " + entityTypes.shortName(target);
+        if (weapon >= 0) detail += ", " + stats.weaponName(weapon);
+        return Text.empty()
+                .append(Text.literal("#" + (rank + 1) + " ").formatted(Formatting.DARK_GRAY))
+                .append(Text.literal(stats.name(slot)).formatted(Formatting.WHITE))
+                .append(Text.literal(" — ").formatted(Formatting.DARK_GRAY))
+                .append(Text.literal(String.format(Locale.ROOT, "%.1f", stats.dealt(slot))).formatted(Formatting.GOLD, Formatting.BOLD))
+                .append(Text.literal(" ⚔").formatted(Formatting.GOLD, Formatting.BOLD))
+                .append(Text.literal(detail + ")").formatted(Formatting.DARK_GRAY));
+    }
 
-            MutableText line = Text.empty()
-                    .append(Text.literal("#" + (i + 1) + " ").formatted(Formatting.DARK_GRAY))
-                    .append(Text.literal(name).formatted(Formatting.WHITE))
-                    .append(Text.literal(" — ").formatted(Formatting.DARK_GRAY))
-                    .append(Text.literal(String.format(Locale.ROOT, "%.1f", dmg)).formatted(Formatting.RED, Formatting.BOLD))
-                    .append(Text.literal(" ♥").formatted(Formatting.RED, Formatting.BOLD));
+    private static void broadcastDamageLeaderboard(MinecraftServer server, RunContext run, RunStats stats) {
+        if (stats.topSize() == 0) return;
 
-            chat(server, line);
+        chat(server, run, Text.literal(" ").formatted(Formatting.DARK_GRAY));
+        chat(server, run, Text.literal("═══ Most damage taken (this run) ═══").formatted(Formatting.DARK_AQUA, Formatting.BOLD));
+
+        for (int i = 0; i < stats.topSize(); i++) {
+            chat(server, run, buildDamageTopLine(stats, i));
         }
 
-        chat(server, Text.literal("══════════════════════════════════").formatted(Formatting.DARK_AQUA));
-        chat(server, Text.literal(" ").formatted(Formatting.DARK_GRAY));
+        chat(server, run, Text.literal("══════════════════════════════════").formatted(Formatting.DARK_AQUA));
+        chat(server, run, Text.literal(" ").formatted(Formatting.DARK_GRAY));
+    }
+
+    private static MutableText buildDamageTopLine(RunStats stats, int rank) {
+        int slot = stats.top(rank);
+        return Text.empty()
+                .append(Text.literal("#" + (rank + 1) + " ").formatted(Formatting.DARK_GRAY))
+                .append(Text.literal(stats.name(slot)).formatted(Formatting.WHITE))
+                .append(Text.literal(" — ").formatted(Formatting.DARK_GRAY))
+                .append(Text.literal(String.format(Locale.ROOT, "%.1f", stats.taken(slot))).formatted(Formatting.RED, Formatting.BOLD))
+                .append(Text.literal(" ♥").formatted(Formatting.RED, Formatting.BOLD))
+                .append(Text.literal(String.format(Locale.ROOT, " (%d hits, max %.1f)",
+                        stats.hits(slot), stats.biggestHit(slot))).formatted(Formatting.DARK_GRAY));
     }
 
     // ------------------------------------------------------------
     // PINNING (only for failed runs)
     // ------------------------------------------------------------
 
-    private static void enforcePin(MinecraftServer server) {
-        if (deathWorldKey == null) return;
+    /**
+     * Called from {@code ServerPlayNetworkHandlerMixin} for every movement packet (PACKET pin
+     * mode). Returns true when the move leaves the pin radius of the player's failed run and
+     * must be dropped; the player then gets one teleport back to the death spot. Players in
+     * other worlds are not pinned.
+     */
+    public static boolean rejectPinnedMove(ServerPlayerEntity player, double x, double y, double z) {
+        if (!pinning) return false; // no failed run: one volatile read per packet
+
+        DamageLoggerConfig cfg = config;
+        if (cfg.pinMode != DamageLoggerConfig.PinMode.PACKET) return false;
+
+        // the handler runs again on the server thread; decide there
+        ServerWorld world = player.getEntityWorld();
+        if (!world.getServer().isOnThread()) return false;
+
+        RunContext run = RUN_OF.get(player.getUuid());
+        if (run == null || world.getRegistryKey() != run.deathWorldKey || !run.pinActive()) return false;
+
+        double dx = x - run.deathX;
+        double dy = y - run.deathY;
+        double dz = z - run.deathZ;
+        if ((dx * dx + dy * dy + dz * dz) <= cfg.pinRadius * cfg.pinRadius) return false;
+
+        // one correction; until the client has caught up, further moves are only dropped
+        long now = run.engine.clock().nowMs();
+        Long last = run.pinCorrectedAt.get(player.getUuid());
+        if (last == null || now - last >= PIN_CORRECTION_RESEND_MS) {
+            run.pinCorrectedAt.put(player.getUuid(), now);
+            tryTeleport(player, world, run.deathX, run.deathY, run.deathZ);
+            STATS.count(HandlerStats.Counter.PACKETS, 1);
+        }
+        return true;
+    }
+
+    // TELEPORT pin mode: every player of the run, every pinTeleportIntervalTicks
+    private static void enforcePin(MinecraftServer server, RunContext run) {
+        if (run.deathWorldKey == null) return;
 
-        pinTickCounter++;
-        if (pinTickCounter < PIN_TELEPORT_INTERVAL_TICKS) return;
-        pinTickCounter = 0;
+        DamageLoggerConfig cfg = config;
+        run.pinTickCounter++;
+        if (run.pinTickCounter < cfg.pinTeleportIntervalTicks) return;
+        run.pinTickCounter = 0;
+        double maxDistSq = cfg.pinRadius * cfg.pinRadius;
 
-        ServerWorld targetWorld = server.getWorld(deathWorldKey);
+        ServerWorld targetWorld = server.getWorld(run.deathWorldKey);
         if (targetWorld == null) return;
 
-        for (ServerPlayerEntity p : server.getPlayerManager().getPlayerList()) {
+        for (UUID id : run.members) {
+            ServerPlayerEntity p = server.getPlayerManager().getPlayer(id);
+            if (p == null) continue;
+
             if (p.getEntityWorld() != targetWorld) {
-                tryTeleport(p, targetWorld, deathX, deathY, deathZ);
+                tryTeleport(p, targetWorld, run.deathX, run.deathY, run.deathZ);
                 continue;
             }
 
-            double dx = p.getX() - deathX;
-            double dy = p.getY() - deathY;
-            double dz = p.getZ() - deathZ;
+            double dx = p.getX() - run.deathX;
+            double dy = p.getY() - run.deathY;
+            double dz = p.getZ() - run.deathZ;
 
-            if ((dx * dx + dy * dy + dz * dz) > (PIN_RADIUS * PIN_RADIUS)) {
-                tryTeleport(p, targetWorld, deathX, deathY, deathZ);
+            if ((dx * dx + dy * dy + dz * dz) > maxDistSq) {
+                tryTeleport(p, targetWorld, run.deathX, run.deathY, run.deathZ);
             } else {
                 try {
                     p.setVelocity(0, 0, 0);
@@ -608,9 +1396,7 @@ public class DamageLoggerMod implements ModInitializer {
 
     private static void tryTeleport(ServerPlayerEntity p, ServerWorld world, double x, double y, double z) {
         try {
-            p.teleport(world, x, y, z,
-                    EnumSet.noneOf(net.minecraft.network.packet.s2c.play.PositionFlag.class),
-                    p.getYaw(), p.getPitch(), true);
+            p.teleport(world, x, y, z, NO_POSITION_FLAGS, p.getYaw(), p.getPitch(), true);
             p.setVelocity(0, 0, 0);
             p.velocityModified = true;
         } catch (Throwable ignored) {
@@ -624,53 +1410,57 @@ public class DamageLoggerMod implements ModInitializer {
     // SPLITS (+ always announce split + PB compare from JSON + end on DRAGON)
     // ------------------------------------------------------------
 
-    private static void checkSplits(MinecraftServer server) {
-        if (!storageLoaded) loadStorage(server);
+    /**
+     * Called from {@code PlayerAdvancementTrackerMixin} on the server thread, in the same tick
+     * the advancement completes.
+     */
+    public static void onAdvancementCompleted(ServerPlayerEntity player, AdvancementEntry advancement) {
+        Milestone m = Milestone.byAdvancement(advancement.id());
+        if (m == null) return;
+        RunContext run = RUN_OF.get(player.getUuid());
+        if (run == null || !run.engine.active()) return;
+
+        // only milestones are timed; every other advancement returns above
+        long t0 = HandlerStats.start();
+        try {
+            MinecraftServer server = player.getEntityWorld().getServer();
+            pollStorage(server);
+            run.engine.split(m.ordinal(), player.getUuid(), player.getName().getString());
+        } finally {
+            STATS.stop(HandlerStats.Handler.ADVANCEMENT, t0);
+        }
+    }
+
+    // Fallback only (splitPolling): scans milestones x the run's players every refreshIntervalTicks
+    private static void checkSplits(MinecraftServer server, RunContext run) {
+        pollStorage(server);
 
         for (Milestone m : Milestone.values()) {
-            if (SPLITS.containsKey(m)) continue;
+            if (run.engine.hasSplit(m.ordinal())) continue;
 
             AdvancementEntry adv = server.getAdvancementLoader().get(m.advancementId);
             if (adv == null) continue;
 
-            for (ServerPlayerEntity p : server.getPlayerManager().getPlayerList()) {
+            for (UUID id : run.members) {
+                ServerPlayerEntity p = server.getPlayerManager().getPlayer(id);
+                if (p == null) continue;
                 AdvancementProgress prog = p.getAdvancementTracker().getProgress(adv);
                 if (prog != null && prog.isDone()) {
-
-                    long t = System.currentTimeMillis() - runStartMs;
-                    if (t < 0) t = 0;
-
-                    SplitRecord rec = new SplitRecord(p.getUuid(), p.getName().getString(), t);
-                    SplitRecord prev = SPLITS.putIfAbsent(m, rec);
-
-                    if (prev == null) {
-                        // ALWAYS announce the split (now includes +/- vs best)
-                        broadcastSplit(server, m.shortLabel, rec.timeMs, rec.playerName);
-
-                        // AND maybe PB
-                        maybeAnnouncePB(server, m.shortLabel, rec.timeMs, rec.playerName);
-
-                        // End run on DRAGON
-                        if (m == Milestone.DRAGON && !runFailed && !runCompleted) {
-                            completeRun(server, rec.playerName);
-                        }
-                    }
+                    run.engine.split(m.ordinal(), p.getUuid(), p.getName().getString());
                     break;
                 }
             }
         }
     }
 
-    private static void broadcastSplit(MinecraftServer server, String milestoneKey, long timeMs, String playerName) {
-        if (!storageLoaded) loadStorage(server);
-
-        Long best = BEST_SPLIT_MS.get(milestoneKey);
-
+    // ALWAYS announced, with +/- vs best
+    private static void broadcastSplit(MinecraftServer server, RunContext run, String milestoneKey, long timeMs, Long best,
+                                       long segmentMs, Long bestSegment, long predictedMs, String playerName) {
         MutableText msg = Text.empty()
                 .append(Text.literal("⏱ SPLIT ").formatted(Formatting.AQUA, Formatting.BOLD))
                 .append(Text.literal(milestoneKey).formatted(Formatting.WHITE, Formatting.BOLD))
                 .append(Text.literal(": ").formatted(Formatting.GRAY))
-                .append(Text.literal(formatDuration(timeMs)).formatted(Formatting.GOLD, Formatting.BOLD));
+                .append(Text.literal(SplitFormat.formatDuration(timeMs)).formatted(Formatting.GOLD, Formatting.BOLD));
 
         // delta vs best (show slower too)
         if (best == null) {
@@ -683,258 +1473,232 @@ public class DamageLoggerMod implements ModInitializer {
             Formatting col = diffMs <= 0 ? Formatting.GREEN : Formatting.RED;
 
             msg.append(Text.literal(" (").formatted(Formatting.DARK_GRAY))
-                    .append(Text.literal(sign + formatDuration(abs)).formatted(col, Formatting.BOLD))
+                    .append(Text.literal(sign + SplitFormat.formatDuration(abs)).formatted(col, Formatting.BOLD))
                     .append(Text.literal(")").formatted(Formatting.DARK_GRAY));
         }
 
+        // segment since the previous milestone: gold when it beats the best one
+        if (segmentMs >= 0) {
+            msg.append(Text.literal(" | seg ").formatted(Formatting.DARK_GRAY))
+                    .append(Text.literal(SplitFormat.formatDuration(segmentMs)).formatted(Formatting.WHITE));
+            if (bestSegment == null || segmentMs < bestSegment) {
+                msg.append(Text.literal(" ★ GOLD").formatted(Formatting.GOLD, Formatting.BOLD));
+            } else {
+                long diffMs = segmentMs - bestSegment;
+                msg.append(Text.literal(" (+" + SplitFormat.formatDuration(diffMs) + ")").formatted(Formatting.RED));
+            }
+        }
+
+        if (predictedMs >= 0 && predictedMs != timeMs) { // last split: the prediction is the time itself
+            msg.append(Text.literal(" | pace ").formatted(Formatting.DARK_GRAY))
+                    .append(Text.literal(SplitFormat.formatDuration(predictedMs)).formatted(Formatting.GOLD));
+        }
+
         msg.append(Text.literal(" — ").formatted(Formatting.DARK_GRAY))
                 .append(Text.literal(playerName).formatted(Formatting.WHITE));
 
-        chat(server, msg);
+        chat(server, run, msg);
     }
 
+    private static void broadcastPB(MinecraftServer server, RunContext run, String milestoneKey, long newTimeMs, Long old, String playerName) {
+        MutableText msg = Text.empty()
+                .append(Text.literal("🏁 NEW PB ").formatted(Formatting.GOLD, Formatting.BOLD))
+                .append(Text.literal(milestoneKey).formatted(Formatting.WHITE, Formatting.BOLD))
+                .append(Text.literal(": ").formatted(Formatting.GRAY))
+                .append(Text.literal(SplitFormat.formatDuration(newTimeMs)).formatted(Formatting.AQUA, Formatting.BOLD));
 
-    private static void maybeAnnouncePB(MinecraftServer server, String milestoneKey, long newTimeMs, String playerName) {
-        Long old = BEST_SPLIT_MS.get(milestoneKey);
-
-        if (old == null || newTimeMs < old) {
-            long diff = (old == null) ? 0 : (old - newTimeMs);
-
-            BEST_SPLIT_MS.put(milestoneKey, newTimeMs);
-            BEST_SPLIT_RUN_ID.put(milestoneKey, "current");
-
-            MutableText msg = Text.empty()
-                    .append(Text.literal("🏁 NEW PB ").formatted(Formatting.GOLD, Formatting.BOLD))
-                    .append(Text.literal(milestoneKey).formatted(Formatting.WHITE, Formatting.BOLD))
-                    .append(Text.literal(": ").formatted(Formatting.GRAY))
-                    .append(Text.literal(formatDuration(newTimeMs)).formatted(Formatting.AQUA, Formatting.BOLD));
-
-            if (old != null) {
-                msg.append(Text.literal(" (").formatted(Formatting.DARK_GRAY))
-                        .append(Text.literal("-" + formatDuration(diff)).formatted(Formatting.GREEN, Formatting.BOLD))
-                        .append(Text.literal(")").formatted(Formatting.DARK_GRAY));
-            } else {
-                msg.append(Text.literal(" (first record)").formatted(Formatting.DARK_GRAY));
-            }
-
-            msg.append(Text.literal(" — ").formatted(Formatting.DARK_GRAY))
-                    .append(Text.literal(playerName).formatted(Formatting.WHITE));
-
-            chat(server, msg);
+        if (old != null) {
+            msg.append(Text.literal(" (").formatted(Formatting.DARK_GRAY))
+                    .append(Text.literal("-" + SplitFormat.formatDuration(old - newTimeMs)).formatted(Formatting.GREEN, Formatting.BOLD))
+                    .append(Text.literal(")").formatted(Formatting.DARK_GRAY));
+        } else {
+            msg.append(Text.literal(" (first record)").formatted(Formatting.DARK_GRAY));
         }
-    }
 
-    private static void completeRun(MinecraftServer server, String winnerName) {
-        runCompleted = true;
-        runFailed = false;
-        runEndMs = System.currentTimeMillis();
-        pinUntilMs = -1;
+        msg.append(Text.literal(" — ").formatted(Formatting.DARK_GRAY))
+                .append(Text.literal(playerName).formatted(Formatting.WHITE));
 
-        long elapsed = Math.max(0, runEndMs - runStartMs);
+        chat(server, run, msg);
+    }
 
-        chat(server, Text.literal(" ").formatted(Formatting.DARK_GRAY));
-        chat(server, Text.literal("══════════════════════════════").formatted(Formatting.GREEN));
-        chat(server, Text.empty()
+    private static void broadcastCompleted(MinecraftServer server, RunContext run, long elapsed, String winnerName) {
+        chat(server, run, Text.literal(" ").formatted(Formatting.DARK_GRAY));
+        chat(server, run, Text.literal("══════════════════════════════").formatted(Formatting.GREEN));
+        chat(server, run, Text.empty()
                 .append(Text.literal("🏆 RUN COMPLETED! ").formatted(Formatting.GREEN, Formatting.BOLD))
                 .append(Text.literal("Time: ").formatted(Formatting.GRAY))
-                .append(Text.literal(formatDuration(elapsed)).formatted(Formatting.GOLD, Formatting.BOLD))
+                .append(Text.literal(SplitFormat.formatDuration(elapsed)).formatted(Formatting.GOLD, Formatting.BOLD))
                 .append(Text.literal(" — by ").formatted(Formatting.GRAY))
                 .append(Text.literal(winnerName != null ? winnerName : "unknown").formatted(Formatting.WHITE, Formatting.BOLD)));
-        chat(server, Text.literal("══════════════════════════════").formatted(Formatting.GREEN));
-        chat(server, Text.literal(" ").formatted(Formatting.DARK_GRAY));
-
-        broadcastDamageLeaderboard(server);
-        saveRunToStorage(server, "COMPLETED", winnerName);
-
-        // block death-end afterwards
-        FIRST_REAL_DEATH_HANDLED.set(true);
-
-        ensureSidebar(server);
-        renderSidebar(server);
+        chat(server, run, Text.literal("══════════════════════════════").formatted(Formatting.GREEN));
+        chat(server, run, Text.literal(" ").formatted(Formatting.DARK_GRAY));
     }
 
     // ------------------------------------------------------------
-    // SIDEBAR (diff-based, shows ALL milestones with +/- vs best)
+    // SIDEBAR (lines + diffing in RunEngine; only changed scores get here)
     // ------------------------------------------------------------
 
-    private static void ensureSidebar(MinecraftServer server) {
-        if (sidebarInitialized) return;
-
-        runCommand(server, "scoreboard objectives add " + OBJ_NAME + " dummy \"SPLITS\"");
-        runCommand(server, "scoreboard objectives setdisplay sidebar " + OBJ_NAME);
-
-        sidebarInitialized = true;
+    /**
+     * The default run uses the normal sidebar slot. A team run uses the sidebar slot of its
+     * team color, so each team only sees its own splits; teams without a color (or with the
+     * same color) fall back to / share a slot, the last one rendered wins.
+     */
+    private static ScoreboardDisplaySlot sidebarSlot(ServerScoreboard scoreboard, RunContext run) {
+        if (run.isDefault()) return ScoreboardDisplaySlot.SIDEBAR;
+        Team team = scoreboard.getTeam(run.team);
+        ScoreboardDisplaySlot slot = team != null ? ScoreboardDisplaySlot.fromFormatting(team.getColor()) : null;
+        return slot != null ? slot : ScoreboardDisplaySlot.SIDEBAR;
     }
 
-    private static void renderSidebar(MinecraftServer server) {
-        if (!storageLoaded) loadStorage(server);
+    private static void ensureSidebar(MinecraftServer server, RunContext run) {
+        ServerScoreboard scoreboard = server.getScoreboard();
 
-        Map<Integer, String> desired = new HashMap<>();
-        int score = 15;
+        if (run.sidebarObjective == null) {
+            // Start clean: also drops lines left behind by older (command-based) versions
+            ScoreboardObjective old = scoreboard.getNullableObjective(run.objectiveName);
+            if (old != null) scoreboard.removeObjective(old);
 
-        // Status line
-        if (runCompleted) {
-            desired.put(score, uniqueLine(score, Formatting.GREEN.toString() + "COMPLETED"));
-            score--;
-        } else if (runFailed) {
-            desired.put(score, uniqueLine(score, Formatting.DARK_RED.toString() + "FAILED"));
-            score--;
+            Text title = Text.literal(run.isDefault() ? "SPLITS" : "SPLITS · " + run.team);
+            run.sidebarObjective = scoreboard.addObjective(run.objectiveName, ScoreboardCriterion.DUMMY, title,
+                    ScoreboardCriterion.RenderType.INTEGER, false, null);
+            run.sidebarSlot = null;
+            run.engine.resetSidebar();
         }
 
-        // Show ALL milestones always (baseline = best split; if achieved show actual + delta)
-        for (Milestone m : Milestone.values()) {
-            if (score <= 0) break;
-
-            String line = buildMilestoneSidebarLine(m);
-            desired.put(score, uniqueLine(score, line));
-            score--;
-        }
-
-        // Remove scores we no longer use
-        for (Map.Entry<Integer, String> e : new ArrayList<>(SIDEBAR_LINES.entrySet())) {
-            int s = e.getKey();
-            String oldEntry = e.getValue();
-            if (!desired.containsKey(s)) {
-                if (oldEntry != null && !oldEntry.isEmpty()) {
-                    runCommand(server, "scoreboard players reset " + scoreHolder(oldEntry) + " " + OBJ_NAME);
-                }
-                SIDEBAR_LINES.remove(s);
+        // (re)place when the team color changed; one map lookup per refresh otherwise
+        ScoreboardDisplaySlot slot = sidebarSlot(scoreboard, run);
+        if (slot != run.sidebarSlot) {
+            ScoreboardDisplaySlot old = run.sidebarSlot;
+            if (old != null && scoreboard.getObjectiveForSlot(old) == run.sidebarObjective) {
+                scoreboard.setObjectiveSlot(old, null);
             }
+            scoreboard.setObjectiveSlot(slot, run.sidebarObjective);
+            run.sidebarSlot = slot;
         }
+    }
 
-        // Apply diffs
-        for (Map.Entry<Integer, String> e : desired.entrySet()) {
-            int s = e.getKey();
-            String entry = e.getValue();
-            setSidebarLine(server, s, entry);
+    private static void renderSidebar(MinecraftServer server, RunContext run) {
+        long t0 = HandlerStats.start();
+        try {
+            ensureSidebar(server, run);
+            pollStorage(server);
+            run.engine.renderSidebar();
+        } finally {
+            STATS.stop(HandlerStats.Handler.SIDEBAR, t0);
         }
     }
 
-    private static String buildMilestoneSidebarLine(Milestone m) {
-        // best split from JSON
-        Long best = BEST_SPLIT_MS.get(m.shortLabel);
-
-        // achieved this run?
-        SplitRecord r = SPLITS.get(m);
-
-        // label part
-        String label = Formatting.WHITE.toString() + m.shortLabel + " ";
+    private static void setSidebarLine(ServerScoreboard scoreboard, RunContext run, int scoreValue, String text, boolean added) {
+        ScoreboardObjective obj = run.sidebarObjective;
+        if (obj == null) return;
 
-        if (r == null) {
-            // Not achieved: show best time if known, else "--:--:--"
-            String baseTime = (best != null) ? formatDuration(best) : "--:--:--";
-            // Baseline line is gray-ish to indicate "target"
-            String line = Formatting.DARK_GRAY.toString() + m.shortLabel + " "
-                    + Formatting.GRAY.toString() + baseTime;
-            return trimToSafeLength(line, 38);
+        if (text == null) {
+            scoreboard.removeScore(SIDEBAR_HOLDERS[scoreValue], obj);
+        } else {
+            // same holder keeps its score; only the display text changes
+            ScoreAccess access = scoreboard.getOrCreateScore(SIDEBAR_HOLDERS[scoreValue], obj);
+            if (added) access.setScore(scoreValue);
+            access.setDisplayText(Text.literal(text));
         }
+    }
 
-        // Achieved: show current time
-        String current = formatDuration(r.timeMs);
+    // ------------------------------------------------------------
+    // GAMERULES (direct API, no commands)
+    // ------------------------------------------------------------
 
-        // If no best known yet: just show current
-        if (best == null) {
-            String line = label + Formatting.GOLD.toString() + current;
-            return trimToSafeLength(line, 38);
+    private static void ensureImmediateRespawn(MinecraftServer server) {
+        GameRules.BooleanRule rule = server.getGameRules().get(GameRules.DO_IMMEDIATE_RESPAWN);
+        if (!rule.get()) {
+            rule.set(true, server);
         }
+    }
 
-        // Delta vs best: + slower (red), - faster (green)
-        long diffMs = r.timeMs - best; // + slower, - faster
-        String sign = diffMs >= 0 ? "+" : "-";
-        long abs = Math.abs(diffMs);
+    // ------------------------------------------------------------
+    // DAMAGE TYPE / CAUSE
+    // ------------------------------------------------------------
 
-        Formatting deltaCol = (diffMs <= 0) ? Formatting.GREEN : Formatting.RED;
-        String delta = deltaCol.toString() + sign + formatDuration(abs);
+    private static void loadDamageTypes(MinecraftServer server) {
+        Registry<DamageType> registry = server.getRegistryManager().getOrThrow(RegistryKeys.DAMAGE_TYPE);
 
-        // Example: "IRON 00:02:10 (+00:00:07)"
-        String line = label
-                + Formatting.GOLD.toString() + current
-                + Formatting.DARK_GRAY.toString() + " ("
-                + delta
-                + Formatting.DARK_GRAY.toString() + ")";
+        String[] names = new String[registry.size()];
+        for (DamageType type : registry) {
+            int id = registry.getRawId(type);
+            if (id >= 0 && id < names.length) names[id] = type.msgId();
+        }
 
-        return trimToSafeLength(line, 38);
+        damageTypeRegistry = registry;
+        damageTypes = new DamageTypeTable(names);
+        for (RunContext run : RUNS.values()) {
+            run.engine.setDamageTypes(damageTypes);
+        }
     }
 
-    private static void setSidebarLine(MinecraftServer server, int scoreValue, String entry) {
-        String oldEntry = SIDEBAR_LINES.get(scoreValue);
-        if (oldEntry != null && oldEntry.equals(entry)) return;
-
-        if (oldEntry != null && !oldEntry.isEmpty()) {
-            runCommand(server, "scoreboard players reset " + scoreHolder(oldEntry) + " " + OBJ_NAME);
+    // Entity types are a static registry: one table per start, for chat names and damage dealt
+    private static void loadEntityTypes() {
+        Registry<EntityType<?>> registry = Registries.ENTITY_TYPE;
+
+        String[] ids = new String[registry.size()];
+        String[] chatNames = new String[registry.size()];
+        for (EntityType<?> type : registry) {
+            int id = registry.getRawId(type);
+            if (id < 0 || id >= ids.length) continue;
+            ids[id] = String.valueOf(registry.getId(type));
+            chatNames[id] = type.toString();
         }
 
-        if (entry != null && !entry.isEmpty()) {
-            runCommand(server, "scoreboard players set " + scoreHolder(entry) + " " + OBJ_NAME + " " + scoreValue);
-            SIDEBAR_LINES.put(scoreValue, entry);
-        } else {
-            SIDEBAR_LINES.remove(scoreValue);
+        entityTypes = new EntityTypeTable(ids, chatNames);
+        for (RunContext run : RUNS.values()) {
+            run.engine.setEntityTypes(entityTypes);
         }
     }
 
-    /**
-     * Ensure each line is unique even if visible text is identical,
-     * otherwise Minecraft merges scoreboard entries.
-     */
-    private static String uniqueLine(int score, String visible) {
-        // Append an invisible uniqueness suffix using formatting codes.
-        // Different scores get different suffixes.
-        return visible + uniqueSuffix(score);
-    }
-
-    private static String uniqueSuffix(int score) {
-        // Use a selection of formatting codes. They render nothing extra but make the string unique.
-        Formatting[] pool = new Formatting[] {
-                Formatting.BLACK, Formatting.DARK_BLUE, Formatting.DARK_GREEN, Formatting.DARK_AQUA,
-                Formatting.DARK_RED, Formatting.DARK_PURPLE, Formatting.GOLD, Formatting.GRAY,
-                Formatting.DARK_GRAY, Formatting.BLUE, Formatting.GREEN, Formatting.AQUA,
-                Formatting.RED, Formatting.LIGHT_PURPLE, Formatting.YELLOW, Formatting.WHITE
-        };
-        Formatting f = pool[Math.floorMod(score, pool.length)];
-        // RESET + chosen color makes a unique-but-invisible suffix (no extra characters shown)
-        return Formatting.RESET.toString() + f.toString();
-    }
+    private static void loadItemNames() {
+        Registry<Item> registry = Registries.ITEM;
 
-    private static String trimToSafeLength(String s, int max) {
-        if (s == null) return "";
-        if (s.length() <= max) return s;
-        return s.substring(0, max);
+        String[] names = new String[registry.size()];
+        for (Item item : registry) {
+            int id = registry.getRawId(item);
+            if (id >= 0 && id < names.length) names[id] = EntityTypeTable.shortName(String.valueOf(registry.getId(item)));
+        }
+        itemNames = names;
     }
 
-    private static String scoreHolder(String s) {
-        // Non-breaking space zodat Brigadier het als één argument ziet
-        return s.replace(' ', '\u00A0');
-    }
+    // weapon key kinds, in the low two bits (the raw id is above them)
+    private static final int WEAPON_ITEM = 0;
+    private static final int WEAPON_ENTITY = 1;
+    private static final int WEAPON_DAMAGE_TYPE = 2;
+    private static final int WEAPON_HAND = 3;
 
-    private static String formatDuration(long ms) {
-        long t = ms / 1000;
-        long h = t / 3600;
-        long m = (t % 3600) / 60;
-        long s = t % 60;
-        return String.format("%02d:%02d:%02d", h, m, s);
+    /**
+     * Weapon of a player's hit, as a RunStats weapon key: the projectile (or other entity)
+     * that hit, else the item in hand, else the damage type (thorns and the like). Raw id * 4
+     * plus the kind; -1 only when even the damage type is unknown.
+     */
+    private static int weaponKey(Entity attacker, DamageSource source) {
+        Entity direct = source.getSource();
+        if (direct != null && direct != attacker) return Registries.ENTITY_TYPE.getRawId(direct.getType()) * 4 + WEAPON_ENTITY;
+        ItemStack stack = source.getWeaponStack();
+        if (stack != null) return stack.isEmpty() ? WEAPON_HAND : Registries.ITEM.getRawId(stack.getItem()) * 4 + WEAPON_ITEM;
+        int type = damageTypeId(source, damageTypes);
+        return type >= 0 ? type * 4 + WEAPON_DAMAGE_TYPE : -1;
     }
 
-    // ------------------------------------------------------------
-    // COMMAND HELPER (withSilent if available)
-    // ------------------------------------------------------------
-
-    private static void runCommand(MinecraftServer server, String command) {
-        try {
-            net.minecraft.server.command.ServerCommandSource src = server.getCommandSource();
-            try {
-                Object silent = src.getClass().getMethod("withSilent").invoke(src);
-                if (silent instanceof net.minecraft.server.command.ServerCommandSource) {
-                    src = (net.minecraft.server.command.ServerCommandSource) silent;
-                }
-            } catch (Throwable ignored) {}
-
-            server.getCommandManager().executeWithPrefix(src, command);
-        } catch (Throwable ignored) {}
+    // Only for a weapon's first hit in a run (RunStats keeps the name by key); table reads only
+    private static String weaponName(int key) {
+        int id = key >> 2;
+        return switch (key & 3) {
+            case WEAPON_ENTITY -> entityTypes.shortName(id);
+            case WEAPON_DAMAGE_TYPE -> damageTypes.contains(id) ? damageTypes.name(id) : "unknown";
+            case WEAPON_HAND -> "hand";
+            default -> id < itemNames.length && itemNames[id] != null ? itemNames[id] : "unknown";
+        };
     }
 
-    // ------------------------------------------------------------
-    // DAMAGE TYPE / CAUSE
-    // ------------------------------------------------------------
+    private static int damageTypeId(DamageSource source, DamageTypeTable types) {
+        Registry<DamageType> registry = damageTypeRegistry;
+        if (registry == null || types.size() == 0) return -1;
+        return registry.getRawId(source.getType());
+    }
 
     private static String describeDamageType(DamageSource source) {
         try {
@@ -950,7 +1714,7 @@ public class DamageLoggerMod implements ModInitializer {
             if (src == null) return source.getName();
 
             if (src instanceof ProjectileEntity proj) {
-                return "projectile:" + proj.getType().toString();
+                return "projectile:" + entityTypes.chatName(Registries.ENTITY_TYPE.getRawId(proj.getType()));
             }
             return source.getName();
         } catch (Throwable ignored) {
@@ -958,55 +1722,47 @@ public class DamageLoggerMod implements ModInitializer {
         }
     }
 
-    private static String safeLower(String s) {
-        return s == null ? "" : s.toLowerCase(Locale.ROOT);
-    }
-
     // ------------------------------------------------------------
-    // FORCE SPECTATOR AND TELEPORT ALL
+    // FORCE SPECTATOR AND TELEPORT ALL (direct API, one batched pass)
     // ------------------------------------------------------------
 
-    private static void forceSpectatorAndTeleportAll(MinecraftServer server) {
-        if (deathWorldKey == null) return;
+    private static void forceSpectatorAndTeleportAll(MinecraftServer server, RunContext run) {
+        if (run.deathWorldKey == null) return;
 
-        String dim = deathWorldKey.getValue().toString(); // e.g. "minecraft:overworld"
-        int x = (int) Math.floor(deathX);
-        int y = (int) Math.floor(deathY + 0.2);
-        int z = (int) Math.floor(deathZ);
-
-        // Force spectator (reliable)
-        runCommand(server, "gamemode spectator @a");
+        ServerWorld targetWorld = server.getWorld(run.deathWorldKey);
+        if (targetWorld == null) return;
 
-        // Teleport everyone in the correct dimension context (reliable cross-dimension)
-        runCommand(server, "execute in " + dim + " run tp @a " + x + " " + y + " " + z);
+        // One pass over the run's players: game mode + (cross-dimension) teleport
+        for (UUID id : run.members) {
+            ServerPlayerEntity p = server.getPlayerManager().getPlayer(id);
+            if (p == null) continue;
+            p.changeGameMode(GameMode.SPECTATOR);
+            tryTeleport(p, targetWorld, run.deathX, run.deathY, run.deathZ);
+        }
     }
 
-    private static void forceSpectatorAndTeleportPlayer(MinecraftServer server, ServerPlayerEntity p) {
-        if (deathWorldKey == null || p == null) return;
+    private static void forceSpectatorAndTeleportPlayer(MinecraftServer server, RunContext run, ServerPlayerEntity p) {
+        if (run.deathWorldKey == null || p == null) return;
 
-        String dim = deathWorldKey.getValue().toString();
-        int x = (int) Math.floor(deathX);
-        int y = (int) Math.floor(deathY + 0.2);
-        int z = (int) Math.floor(deathZ);
-
-        String name = p.getName().getString(); // no spaces in MC names
+        ServerWorld targetWorld = server.getWorld(run.deathWorldKey);
+        if (targetWorld == null) return;
 
-        runCommand(server, "gamemode spectator " + name);
-        runCommand(server, "execute in " + dim + " run tp " + name + " " + x + " " + y + " " + z);
+        p.changeGameMode(GameMode.SPECTATOR);
+        tryTeleport(p, targetWorld, run.deathX, run.deathY, run.deathZ);
     }
 
     // ------------------------------------------------------------
     // END RUN MESSAGE (FAILED) + death info
     // ------------------------------------------------------------
 
-    private static void broadcastEndRunFailed(MinecraftServer server, ServerPlayerEntity dead, ServerWorld world, DamageSource source, String type) {
+    private static void broadcastEndRunFailed(MinecraftServer server, RunContext run, ServerPlayerEntity dead, ServerWorld world, DamageSource source, String type) {
         String dim = world.getRegistryKey().getValue().toString();
 
-        chat(server, Text.literal(" ").formatted(Formatting.DARK_GRAY));
-        chat(server, Text.literal("══════════════════════════════").formatted(Formatting.DARK_RED));
-        chat(server, Text.literal("☠☠☠  END RUN  ☠☠☠").formatted(Formatting.RED, Formatting.BOLD));
-        chat(server, Text.literal("RUN FAILED").formatted(Formatting.DARK_RED, Formatting.BOLD));
-        chat(server, Text.literal("══════════════════════════════").formatted(Formatting.DARK_RED));
+        chat(server, run, Text.literal(" ").formatted(Formatting.DARK_GRAY));
+        chat(server, run, Text.literal("══════════════════════════════").formatted(Formatting.DARK_RED));
+        chat(server, run, Text.literal("☠☠☠  END RUN  ☠☠☠").formatted(Formatting.RED, Formatting.BOLD));
+        chat(server, run, Text.literal("RUN FAILED").formatted(Formatting.DARK_RED, Formatting.BOLD));
+        chat(server, run, Text.literal("══════════════════════════════").formatted(Formatting.DARK_RED));
 
         MutableText deathLine = Text.empty()
                 .append(Text.literal("💀 DEATH: ").formatted(Formatting.DARK_RED))
@@ -1021,12 +1777,12 @@ public class DamageLoggerMod implements ModInitializer {
                 .append(Text.literal(type).formatted(Formatting.DARK_GRAY))
                 .append(Text.literal(")").formatted(Formatting.DARK_GRAY));
 
-        chat(server, deathLine);
+        chat(server, run, deathLine);
 
-        chat(server, Text.literal("Everyone has been forced into SPECTATOR.").formatted(Formatting.GRAY));
-        chat(server, Text.literal("Better luck next time.").formatted(Formatting.GRAY, Formatting.ITALIC));
-        chat(server, Text.literal("══════════════════════════════").formatted(Formatting.DARK_RED));
-        chat(server, Text.literal(" ").formatted(Formatting.DARK_GRAY));
+        chat(server, run, Text.literal("Everyone has been forced into SPECTATOR.").formatted(Formatting.GRAY));
+        chat(server, run, Text.literal("Better luck next time.").formatted(Formatting.GRAY, Formatting.ITALIC));
+        chat(server, run, Text.literal("══════════════════════════════").formatted(Formatting.DARK_RED));
+        chat(server, run, Text.literal(" ").formatted(Formatting.DARK_GRAY));
     }
 }
 // New build
\ No newline at end of file
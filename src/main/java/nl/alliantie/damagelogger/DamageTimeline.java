@@ -0,0 +1,400 @@
+package nl.alliantie.damagelogger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Binary recording of every damage event of a run.
+ *
+ * The server thread writes fixed-size records into a preallocated off-heap ring (a handful
+ * of absolute puts and one ordered store, no allocation, no lock). A daemon thread drains
+ * the ring to one file per run in the splits directory; concurrent runs each record through
+ * their own {@link Track} and share that thread. When the ring is full, records are
+ * dropped and counted instead of blocking the tick.
+ *
+ * File layout (little endian):
+ *   header  32 bytes: magic "DLTL", u16 version, u16 record size, i64 run start (wall clock ms),
+ *                     i64 record count (filled in when the run ends), 8 bytes reserved
+ *   record  32 bytes each, record i at HEADER_BYTES + i * RECORD_BYTES:
+ *     0  i32  run tick (IGT ticks since run start)
+ *     4  i16  player slot (index into the run entry's timeline.players)
+ *     6  i16  damage type raw id (-1 unknown)
+ *     8  i16  attacker entity type raw id (-1 no attacker)
+ *    10  u8   DamageTypeTable kind
+ *    11  u8   reserved
+ *    12  f32  amount (before armor/effects)
+ *    16  f32  HP after the hit (estimate: HP before minus amount, clamped at 0)
+ *    20  i32  block x, 24 i32 block y, 28 i32 block z
+ *
+ * Raw ids are only meaningful together with the name tables stored in the run entry.
+ * Use {@link #map(Path)} to read a file without loading it into heap.
+ */
+final class DamageTimeline {
+
+    static final int MAGIC = 0x4C544C44; // "DLTL" in little endian
+    static final short VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int RECORD_BYTES = 32;
+    static final String FILE_SUFFIX = ".dtl";
+
+    private static final int DEFAULT_CAPACITY = 1 << 16; // records, 2 MiB off-heap
+    private static final long POLL_MS = 250;
+
+    /** What the run entry links to; fixed when the run ends. */
+    static final class Summary {
+        final String file;
+        final long records;
+        final long dropped;
+        // raw ids that occur in the file, so the run entry only needs names for these
+        final BitSet damageTypeIds;
+        final BitSet attackerTypeIds;
+
+        Summary(String file, long records, long dropped, BitSet damageTypeIds, BitSet attackerTypeIds) {
+            this.file = file;
+            this.records = records;
+            this.dropped = dropped;
+            this.damageTypeIds = damageTypeIds;
+            this.attackerTypeIds = attackerTypeIds;
+        }
+    }
+
+    /** One run's ring + file. Producer: server thread; consumer: drain thread. */
+    private static final class Recording {
+        final String fileName;
+        final long startMs;
+        final long base; // records already in the file (resumed run); appended after them
+        final ByteBuffer ring;
+        final int capacity; // power of two
+        final int mask;
+        final AtomicLong written = new AtomicLong(); // published by the server thread
+        final AtomicLong drained = new AtomicLong(); // advanced by the drain thread
+        // server thread only
+        long dropped = 0;
+        final BitSet damageTypeIds = new BitSet(128);
+        final BitSet attackerTypeIds = new BitSet(256);
+        volatile boolean ended = false;
+
+        // drain thread only
+        FileChannel channel;
+        boolean failed = false;
+
+        Recording(String fileName, long startMs, long base, int capacity) {
+            this.fileName = fileName;
+            this.startMs = startMs;
+            this.base = base;
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            this.ring = ByteBuffer.allocateDirect(capacity * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private final Path dir;
+    private final int capacity;
+    private final List<Recording> active = new CopyOnWriteArrayList<>();
+    private final Thread thread;
+    private volatile boolean closed = false;
+
+    DamageTimeline(Path dir) {
+        this(dir, DEFAULT_CAPACITY);
+    }
+
+    DamageTimeline(Path dir, int capacity) {
+        if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        this.dir = dir;
+        this.capacity = capacity;
+        this.thread = new Thread(this::loop, "DamageLogger-Timeline");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /** A new producer; every run that can be active at the same time records through its own. */
+    Track track() {
+        return new Track();
+    }
+
+    /**
+     * The server-thread side of one run: its current recording and write position. Tracks
+     * share the drain thread (and nothing else), so runs never see each other's records.
+     */
+    final class Track {
+        private Recording current = null;
+        private long writeSeq = 0;
+
+        private Track() {}
+
+        /** Start recording a new run to {@code <fileStem>.dtl} (ends the previous one, if any). */
+        void begin(String fileStem, long runStartMs) {
+            start(fileStem, runStartMs, 0);
+        }
+
+        /**
+         * Continue recording a run that was interrupted (server crash or restart) after the
+         * whole records already in {@code <fileStem>.dtl}; a missing file starts empty.
+         */
+        void resume(String fileStem, long runStartMs) {
+            long base = 0;
+            try {
+                long size = Files.size(dir.resolve(fileStem + FILE_SUFFIX));
+                if (size >= HEADER_BYTES) base = (size - HEADER_BYTES) / RECORD_BYTES;
+            } catch (IOException ignored) {}
+            start(fileStem, runStartMs, base);
+        }
+
+        private void start(String fileStem, long runStartMs, long base) {
+            end();
+            Recording r = new Recording(fileStem + FILE_SUFFIX, runStartMs, base, capacity);
+            current = r;
+            writeSeq = 0;
+            active.add(r);
+        }
+
+        /**
+         * Stop recording. The rest of the ring is written to disk in the background; the
+         * returned summary is final already. Null if nothing was being recorded.
+         */
+        Summary end() {
+            Recording r = current;
+            if (r == null) return null;
+            current = null;
+            r.ended = true;
+            return new Summary(r.fileName, r.base + writeSeq, r.dropped, r.damageTypeIds, r.attackerTypeIds);
+        }
+
+        /** Hot path. */
+        void record(int tick, int playerSlot, int damageTypeId, int attackerTypeId, byte kind,
+                    float amount, float hpAfter, int x, int y, int z) {
+            Recording r = current;
+            if (r == null) return;
+
+            long seq = writeSeq;
+            if (seq - r.drained.get() >= r.capacity) {
+                r.dropped++;
+                return;
+            }
+
+            ByteBuffer b = r.ring;
+            int off = ((int) seq & r.mask) * RECORD_BYTES;
+            b.putInt(off, tick);
+            b.putShort(off + 4, (short) playerSlot);
+            b.putShort(off + 6, (short) damageTypeId);
+            b.putShort(off + 8, (short) attackerTypeId);
+            b.put(off + 10, kind);
+            b.put(off + 11, (byte) 0);
+            b.putFloat(off + 12, amount);
+            b.putFloat(off + 16, hpAfter);
+            b.putInt(off + 20, x);
+            b.putInt(off + 24, y);
+            b.putInt(off + 28, z);
+
+            if (damageTypeId >= 0) r.damageTypeIds.set(damageTypeId);
+            if (attackerTypeId >= 0) r.attackerTypeIds.set(attackerTypeId);
+
+            writeSeq = seq + 1;
+            r.written.lazySet(seq + 1); // ordered store, publishes the record to the drain thread
+        }
+    }
+
+    /** Write out whatever is still buffered and stop the thread (bounded by timeoutMs). */
+    void close(long timeoutMs) {
+        for (Recording r : active) {
+            r.ended = true; // every track's current run; their summaries are not needed any more
+        }
+        closed = true;
+        try {
+            thread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ------------------------------------------------------------
+    // DRAIN (timeline thread)
+    // ------------------------------------------------------------
+
+    private void loop() {
+        while (true) {
+            boolean stopping = closed;
+
+            for (Recording r : active) {
+                boolean ended = r.ended; // read before draining: everything up to here is published
+                drain(r);
+                if (ended) {
+                    finish(r);
+                    active.remove(r);
+                }
+            }
+
+            if (stopping && active.isEmpty()) return;
+
+            try {
+                Thread.sleep(POLL_MS);
+            } catch (InterruptedException ignored) {}
+        }
+    }
+
+    private void drain(Recording r) {
+        long from = r.drained.get();
+        long to = r.written.get();
+        if (from == to) return;
+
+        if (!r.failed) {
+            try {
+                if (r.channel == null) open(r);
+                ByteBuffer view = r.ring.duplicate();
+                long seq = from;
+                while (seq < to) {
+                    int start = (int) seq & r.mask;
+                    int n = (int) Math.min(to - seq, r.capacity - start);
+                    view.limit((start + n) * RECORD_BYTES).position(start * RECORD_BYTES);
+                    while (view.hasRemaining()) {
+                        r.channel.write(view);
+                    }
+                    seq += n;
+                }
+            } catch (IOException e) {
+                // keep the server going; this run just has an incomplete timeline
+                r.failed = true;
+                closeQuietly(r);
+            }
+        }
+        r.drained.set(to); // frees ring space even after a failure
+    }
+
+    private void open(Recording r) throws IOException {
+        Files.createDirectories(dir);
+        if (r.base > 0) {
+            // resumed: cut off a partial record, mark the count unknown again and append
+            r.channel = FileChannel.open(dir.resolve(r.fileName), StandardOpenOption.WRITE);
+            long end = HEADER_BYTES + r.base * RECORD_BYTES;
+            r.channel.truncate(end);
+            r.channel.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(0, -1L), 16);
+            r.channel.position(end);
+            return;
+        }
+        r.channel = FileChannel.open(dir.resolve(r.fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        h.putInt(MAGIC).putShort(VERSION).putShort((short) RECORD_BYTES).putLong(r.startMs).putLong(-1L);
+        h.clear();
+        while (h.hasRemaining()) {
+            r.channel.write(h);
+        }
+    }
+
+    private void finish(Recording r) {
+        try {
+            if (!r.failed) {
+                if (r.channel == null) open(r); // a run without damage still gets an (empty) file
+                ByteBuffer count = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                count.putLong(0, r.base + r.drained.get());
+                r.channel.write(count, 16);
+                r.channel.force(false);
+            }
+        } catch (IOException ignored) {
+        } finally {
+            closeQuietly(r);
+        }
+    }
+
+    private static void closeQuietly(Recording r) {
+        try {
+            if (r.channel != null) r.channel.close();
+        } catch (IOException ignored) {}
+        r.channel = null;
+    }
+
+    // ------------------------------------------------------------
+    // READING (analysis, any thread)
+    // ------------------------------------------------------------
+
+    /** Read-only view of a timeline file, memory-mapped. */
+    static final class View {
+        private final MappedByteBuffer buf;
+        private final long startMs;
+        private final int count;
+
+        private View(MappedByteBuffer buf) {
+            this.buf = buf;
+            this.startMs = buf.getLong(8);
+            // trust the file size over the header: a crashed run has count -1
+            this.count = (buf.capacity() - HEADER_BYTES) / RECORD_BYTES;
+        }
+
+        long startMs() {
+            return startMs;
+        }
+
+        int count() {
+            return count;
+        }
+
+        int tick(int i) {
+            return buf.getInt(at(i));
+        }
+
+        int playerSlot(int i) {
+            return buf.getShort(at(i) + 4);
+        }
+
+        int damageTypeId(int i) {
+            return buf.getShort(at(i) + 6);
+        }
+
+        int attackerTypeId(int i) {
+            return buf.getShort(at(i) + 8);
+        }
+
+        byte kind(int i) {
+            return buf.get(at(i) + 10);
+        }
+
+        float amount(int i) {
+            return buf.getFloat(at(i) + 12);
+        }
+
+        float hpAfter(int i) {
+            return buf.getFloat(at(i) + 16);
+        }
+
+        int x(int i) {
+            return buf.getInt(at(i) + 20);
+        }
+
+        int y(int i) {
+            return buf.getInt(at(i) + 24);
+        }
+
+        int z(int i) {
+            return buf.getInt(at(i) + 28);
+        }
+
+        private static int at(int i) {
+            return HEADER_BYTES + i * RECORD_BYTES;
+        }
+    }
+
+    static View map(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            if (buf.capacity() < HEADER_BYTES || buf.getInt(0) != MAGIC) {
+                throw new IOException("not a damage timeline: " + file);
+            }
+            if (buf.getShort(6) != RECORD_BYTES) {
+                throw new IOException("unsupported record size in " + file);
+            }
+            return new View(buf);
+        }
+    }
+}
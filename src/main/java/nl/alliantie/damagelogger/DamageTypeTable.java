@@ -0,0 +1,62 @@
+package nl.alliantie.damagelogger;
+
+import java.util.Locale;
+
+/**
+ * Damage types classified once per registry load, indexed by raw registry id.
+ *
+ * The damage hot path only does an array read here instead of lowercasing
+ * and substring-matching the damage source name on every hit.
+ */
+final class DamageTypeTable {
+
+    static final byte NORMAL = 0;
+    static final byte DOT = 1;     // fire, lava, wither, poison, starve, cactus: longer cooldown
+    static final byte IGNORE = 2;  // genericKill (/kill noise)
+
+    static final DamageTypeTable EMPTY = new DamageTypeTable(new String[0]);
+
+    private final byte[] kind;
+    private final String[] name;
+
+    /**
+     * @param namesByRawId damage type msgId (what DamageSource.getName() returns) per raw id;
+     *                     null entries are treated as unknown
+     */
+    DamageTypeTable(String[] namesByRawId) {
+        this.kind = new byte[namesByRawId.length];
+        this.name = new String[namesByRawId.length];
+        for (int i = 0; i < namesByRawId.length; i++) {
+            String n = namesByRawId[i] != null ? namesByRawId[i] : "unknown";
+            this.name[i] = n;
+            this.kind[i] = classify(n);
+        }
+    }
+
+    int size() {
+        return kind.length;
+    }
+
+    boolean contains(int rawId) {
+        return rawId >= 0 && rawId < kind.length;
+    }
+
+    byte kind(int rawId) {
+        return kind[rawId];
+    }
+
+    String name(int rawId) {
+        return name[rawId];
+    }
+
+    // Same rules the chat logger always used, now evaluated once per type
+    static byte classify(String msgId) {
+        String n = msgId == null ? "" : msgId.toLowerCase(Locale.ROOT);
+        if (n.contains("generickill")) return IGNORE;
+        if (n.contains("fire") || n.contains("lava") || n.contains("wither")
+                || n.contains("poison") || n.contains("starve") || n.contains("cactus")) {
+            return DOT;
+        }
+        return NORMAL;
+    }
+}
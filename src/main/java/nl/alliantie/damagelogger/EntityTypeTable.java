@@ -0,0 +1,69 @@
+package nl.alliantie.damagelogger;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Entity type names resolved once per server start, indexed by raw registry id.
+ *
+ * The damage hot paths only do an array read here instead of building the type's
+ * name string on every hit.
+ */
+final class EntityTypeTable {
+
+    static final EntityTypeTable EMPTY = new EntityTypeTable(new String[0], new String[0]);
+
+    private final String[] id;       // registry id, "minecraft:zombie"
+    private final String[] chatName; // what EntityType.toString() returns, as the chat log always showed
+    private final String[] shortName;
+    private final Map<String, Integer> rawIdOf = new HashMap<>();
+
+    /**
+     * @param idsByRawId       registry id per raw id; null entries are treated as unknown
+     * @param chatNamesByRawId EntityType.toString() per raw id (same length)
+     */
+    EntityTypeTable(String[] idsByRawId, String[] chatNamesByRawId) {
+        int n = idsByRawId.length;
+        this.id = new String[n];
+        this.chatName = new String[n];
+        this.shortName = new String[n];
+        for (int i = 0; i < n; i++) {
+            String key = idsByRawId[i] != null ? idsByRawId[i] : "unknown";
+            this.id[i] = key;
+            this.chatName[i] = chatNamesByRawId[i] != null ? chatNamesByRawId[i] : key;
+            this.shortName[i] = shortName(key);
+            rawIdOf.putIfAbsent(key, i);
+        }
+    }
+
+    int size() {
+        return id.length;
+    }
+
+    boolean contains(int rawId) {
+        return rawId >= 0 && rawId < id.length;
+    }
+
+    String id(int rawId) {
+        return contains(rawId) ? id[rawId] : "unknown";
+    }
+
+    String chatName(int rawId) {
+        return contains(rawId) ? chatName[rawId] : "unknown";
+    }
+
+    /** Registry id without the "minecraft:" namespace (modded types keep theirs). */
+    String shortName(int rawId) {
+        return contains(rawId) ? shortName[rawId] : "unknown";
+    }
+
+    /** Raw id of a registry id, -1 if this server doesn't have it (checkpoints). */
+    int rawId(String registryId) {
+        Integer i = rawIdOf.get(registryId);
+        return i == null ? -1 : i;
+    }
+
+    static String shortName(String registryId) {
+        return registryId.startsWith("minecraft:") ? registryId.substring("minecraft:".length()) : registryId;
+    }
+}
@@ -0,0 +1,255 @@
+package nl.alliantie.damagelogger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+
+/**
+ * Always-on timing of the mod's event handlers, plus a few message counters.
+ *
+ * A handler is bracketed with {@link #start()} / {@link #stop}: two nanoTime reads and a
+ * few array writes into a log-linear histogram (8 sub-buckets per power of two, so every
+ * percentile is within 12.5%; no allocation, no lock). With
+ * -Ddamagelogger.instrumentation=false {@link #ENABLED} is a constant false and the JIT
+ * removes the calls entirely.
+ *
+ * Recording is server thread only; {@link #snapshot()} copies the counters for anything
+ * that reads them elsewhere (the Prometheus file is written off-thread).
+ */
+final class HandlerStats {
+
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("damagelogger.instrumentation", "true"));
+
+    enum Handler {
+        TICK("end_server_tick", false),
+        DAMAGE("allow_damage", false),
+        DAMAGE_DEALT("damage_dealt", false),
+        DEATH("after_death", false),
+        ADVANCEMENT("advancement", false),
+        COMMAND("command", false),
+        // called from inside the handlers above (already part of their time)
+        SPLIT_POLL("check_splits", true),
+        SIDEBAR("render_sidebar", true),
+        SAVE("save_run", true);
+
+        final String metricName;
+        final boolean nested;
+
+        Handler(String metricName, boolean nested) {
+            this.metricName = metricName;
+            this.nested = nested;
+        }
+    }
+
+    enum Counter {
+        CHAT_LINES("chat_lines"),      // lines the mod wrote to chat (once per line, not per player)
+        PACKETS("packets"),            // chat, actionbar and sidebar packets, per recipient
+        COMMANDS("commands");          // /damagelog, /splits, /damagelogger
+
+        final String metricName;
+
+        Counter(String metricName) {
+            this.metricName = metricName;
+        }
+    }
+
+    // values below 2^SUB_BITS ns get their own bucket, above that 2^SUB_BITS per power of two
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int MAX_EXP = 40; // ~18 minutes; longer is clamped into the last bucket
+    static final int BUCKETS = (MAX_EXP - SUB_BITS + 2) * SUB;
+
+    // Prometheus buckets (seconds); the fine histogram is folded into these
+    private static final double[] EXPORT_BOUNDS = {
+            1e-6, 2.5e-6, 5e-6, 1e-5, 2.5e-5, 5e-5, 1e-4, 2.5e-4, 5e-4, 1e-3, 2.5e-3, 5e-3, 1e-2, 2.5e-2, 5e-2, 1e-1
+    };
+
+    private final int handlers = Handler.values().length;
+    private long[] buckets = new long[handlers * BUCKETS];
+    private long[] calls = new long[handlers];
+    private long[] totalNanos = new long[handlers];
+    private long[] maxNanos = new long[handlers];
+    private long[] counters = new long[Counter.values().length];
+    private long sinceMs = System.currentTimeMillis();
+
+    /** Start of a timed section; 0 when disabled (no clock read). */
+    static long start() {
+        return ENABLED ? System.nanoTime() : 0L;
+    }
+
+    void stop(Handler h, long startNanos) {
+        if (!ENABLED) return;
+        long d = System.nanoTime() - startNanos;
+
+        int i = h.ordinal();
+        buckets[i * BUCKETS + bucket(d)]++;
+        calls[i]++;
+        totalNanos[i] += d;
+        if (d > maxNanos[i]) maxNanos[i] = d;
+    }
+
+    void count(Counter c, long n) {
+        if (!ENABLED) return;
+        counters[c.ordinal()] += n;
+    }
+
+    void reset() {
+        buckets = new long[handlers * BUCKETS];
+        calls = new long[handlers];
+        totalNanos = new long[handlers];
+        maxNanos = new long[handlers];
+        counters = new long[Counter.values().length];
+        sinceMs = System.currentTimeMillis();
+    }
+
+    Snapshot snapshot() {
+        return new Snapshot(sinceMs, buckets.clone(), calls.clone(), totalNanos.clone(), maxNanos.clone(), counters.clone());
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < SUB) return (int) Math.max(0, nanos);
+        int exp = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exp > MAX_EXP) return BUCKETS - 1;
+        int sub = (int) (nanos >>> (exp - SUB_BITS)) & (SUB - 1);
+        return (exp - SUB_BITS + 1) * SUB + sub;
+    }
+
+    // largest value that still falls into this bucket
+    static long bucketUpperNanos(int bucket) {
+        if (bucket < SUB) return bucket;
+        int exp = bucket / SUB + SUB_BITS - 1;
+        int sub = bucket % SUB;
+        return ((long) (SUB + sub + 1) << (exp - SUB_BITS)) - 1;
+    }
+
+    /** Copy of all counters at one moment. Immutable, safe to read on any thread. */
+    static final class Snapshot {
+        final long sinceMs;
+        private final long[] buckets;
+        private final long[] calls;
+        private final long[] totalNanos;
+        private final long[] maxNanos;
+        private final long[] counters;
+
+        private Snapshot(long sinceMs, long[] buckets, long[] calls, long[] totalNanos, long[] maxNanos, long[] counters) {
+            this.sinceMs = sinceMs;
+            this.buckets = buckets;
+            this.calls = calls;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.counters = counters;
+        }
+
+        long calls(Handler h) {
+            return calls[h.ordinal()];
+        }
+
+        long totalNanos(Handler h) {
+            return totalNanos[h.ordinal()];
+        }
+
+        long maxNanos(Handler h) {
+            return maxNanos[h.ordinal()];
+        }
+
+        double meanNanos(Handler h) {
+            long n = calls[h.ordinal()];
+            return n == 0 ? 0 : (double) totalNanos[h.ordinal()] / n;
+        }
+
+        /** Nearest-rank percentile, as the upper bound of its bucket (capped at the max). */
+        long percentileNanos(Handler h, double pct) {
+            int i = h.ordinal();
+            long n = calls[i];
+            if (n == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(pct / 100.0 * n));
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += buckets[i * BUCKETS + b];
+                if (seen >= rank) return Math.min(bucketUpperNanos(b), maxNanos[i]);
+            }
+            return maxNanos[i];
+        }
+
+        long counter(Counter c) {
+            return counters[c.ordinal()];
+        }
+
+        /** Mod time per server tick: top-level handlers only (nested ones are part of them). */
+        double nanosPerTick() {
+            long ticks = calls[Handler.TICK.ordinal()];
+            if (ticks == 0) return 0;
+            long sum = 0;
+            for (Handler h : Handler.values()) {
+                if (!h.nested) sum += totalNanos[h.ordinal()];
+            }
+            return (double) sum / ticks;
+        }
+
+        /** Prometheus text exposition format (histograms are cumulative since start/reset). */
+        String toPrometheus() {
+            StringBuilder sb = new StringBuilder(8192);
+            sb.append("# HELP damagelogger_handler_seconds Time spent in DamageLogger event handlers.\n");
+            sb.append("# TYPE damagelogger_handler_seconds histogram\n");
+            for (Handler h : Handler.values()) {
+                int i = h.ordinal();
+                long cumulative = 0;
+                int b = 0;
+                for (double le : EXPORT_BOUNDS) {
+                    long leNanos = (long) (le * 1e9);
+                    while (b < BUCKETS && bucketUpperNanos(b) <= leNanos) {
+                        cumulative += buckets[i * BUCKETS + b++];
+                    }
+                    sb.append("damagelogger_handler_seconds_bucket{handler=\"").append(h.metricName)
+                            .append("\",le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+                }
+                sb.append("damagelogger_handler_seconds_bucket{handler=\"").append(h.metricName)
+                        .append("\",le=\"+Inf\"} ").append(calls[i]).append('\n');
+                sb.append("damagelogger_handler_seconds_sum{handler=\"").append(h.metricName).append("\"} ")
+                        .append(String.format(Locale.ROOT, "%.9f", totalNanos[i] / 1e9)).append('\n');
+                sb.append("damagelogger_handler_seconds_count{handler=\"").append(h.metricName).append("\"} ")
+                        .append(calls[i]).append('\n');
+            }
+
+            sb.append("# HELP damagelogger_handler_max_seconds Slowest single call since start/reset.\n");
+            sb.append("# TYPE damagelogger_handler_max_seconds gauge\n");
+            for (Handler h : Handler.values()) {
+                sb.append("damagelogger_handler_max_seconds{handler=\"").append(h.metricName).append("\"} ")
+                        .append(String.format(Locale.ROOT, "%.9f", maxNanos[h.ordinal()] / 1e9)).append('\n');
+            }
+
+            for (Counter c : Counter.values()) {
+                String name = "damagelogger_" + c.metricName + "_total";
+                sb.append("# TYPE ").append(name).append(" counter\n");
+                sb.append(name).append(' ').append(counters[c.ordinal()]).append('\n');
+            }
+
+            sb.append("# TYPE damagelogger_stats_since_seconds gauge\n");
+            sb.append("damagelogger_stats_since_seconds ").append(sinceMs / 1000).append('\n');
+            return sb.toString();
+        }
+    }
+
+    // "850ns", "12.3µs", "4.56ms"
+    static String formatNanos(double nanos) {
+        if (nanos < 1_000) return String.format(Locale.ROOT, "%.0fns", nanos);
+        if (nanos < 1_000_000) return String.format(Locale.ROOT, "%.1fµs", nanos / 1e3);
+        return String.format(Locale.ROOT, "%.2fms", nanos / 1e6);
+    }
+
+    // write next to the target and rename, so a scraper never reads a half-written file
+    static void writeAtomically(Path file, String text) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir != null) Files.createDirectories(dir);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, text.getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,610 @@
+package nl.alliantie.damagelogger;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checkpoints of the runs in progress, so a crash or restart mid-run can carry on where it
+ * was instead of starting a fresh run.
+ *
+ * One file per run in the splits directory (checkpoint.jsonl, checkpoint-<team>.jsonl, see
+ * {@link #file}), made of small JSON records:
+ *   start   team, wall clock start, milestone labels (first line; a new run rewrites the file)
+ *   split   one reached milestone, written when it lands
+ *   player  one player's run stats (taken and dealt), only for players that changed since the
+ *           last checkpoint; targets by entity type id, weapons by name
+ *   clock   RTA and IGT as of the checkpoint, with the wall clock time it was taken
+ * Later records win. When a file has collected {@link #COMPACT_RECORDS} records the next
+ * checkpoint rewrites it from scratch; a finished run deletes it.
+ *
+ * The server thread only copies the values into a reused batch; the checkpoint thread turns
+ * them into lines, writes and fsyncs them, in order. Appends go to the file itself, but a
+ * rewrite goes to a .tmp file that replaces the old one once it is on disk, so a crash always
+ * leaves a whole checkpoint. A torn last line (crash mid-append) is skipped on load. After a
+ * failed write the file may miss records, so nothing more is appended until the next rewrite.
+ */
+final class RunCheckpoint {
+
+    static final String FILE_PREFIX = "checkpoint";
+    static final String FILE_SUFFIX = ".jsonl";
+    private static final String TMP_SUFFIX = ".tmp";
+    static final int COMPACT_RECORDS = 2_000;
+    private static final int MAX_TEAM_CHARS = 160; // file names stay well under 255 bytes
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** A run as it was at its last checkpoint. */
+    static final class State {
+        String team = "";
+        long runStartMs = -1;
+        List<String> milestones = List.of();
+        long rtaMs = 0;
+        long ticks = 0;
+        long wallMs = -1; // when the last clock record was taken
+        final Map<Integer, Split> splits = new TreeMap<>();
+        final Map<Integer, Player> players = new TreeMap<>(); // by stats slot
+
+        boolean valid() {
+            return runStartMs >= 0 && !milestones.isEmpty();
+        }
+    }
+
+    static final class Split {
+        final UUID playerId;
+        final String playerName;
+        final long timeMs;
+        final long igtMs;
+        final long segmentMs;
+        final long segmentIgtMs;
+
+        Split(UUID playerId, String playerName, long timeMs, long igtMs, long segmentMs, long segmentIgtMs) {
+            this.playerId = playerId;
+            this.playerName = playerName;
+            this.timeMs = timeMs;
+            this.igtMs = igtMs;
+            this.segmentMs = segmentMs;
+            this.segmentIgtMs = segmentIgtMs;
+        }
+    }
+
+    static final class Player {
+        final UUID id;
+        final String name;
+        final float taken;
+        final float takenNormal;
+        final float takenDot;
+        final int hits;
+        final float biggestHit;
+        final int lowHealthTicks;
+        final Map<String, float[]> dealtTo = new LinkedHashMap<>(); // entity type id -> {amount, hits}
+        final Map<String, Float> dealtWith = new LinkedHashMap<>(); // weapon name -> amount
+
+        Player(UUID id, String name, float taken, float takenNormal, float takenDot, int hits, float biggestHit, int lowHealthTicks) {
+            this.id = id;
+            this.name = name;
+            this.taken = taken;
+            this.takenNormal = takenNormal;
+            this.takenDot = takenDot;
+            this.hits = hits;
+            this.biggestHit = biggestHit;
+            this.lowHealthTicks = lowHealthTicks;
+        }
+    }
+
+    private final Path dir;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "DamageLogger-Checkpoint");
+        t.setDaemon(true);
+        return t;
+    });
+
+    RunCheckpoint(Path dir) {
+        this.dir = dir;
+    }
+
+    /** The log of one run, by team ("" = default run). */
+    Log log(String team) {
+        return new Log(file(dir, team));
+    }
+
+    /**
+     * checkpoint.jsonl for the default run, else checkpoint-<team>.jsonl with the team escaped
+     * so that no two teams share a file, also on case-insensitive file systems: lowercase
+     * letters, digits, '.' and '+' stay, every other UTF-8 byte becomes _xx. Very long names
+     * keep the start of that and a SHA-256 of the whole name instead.
+     */
+    static Path file(Path dir, String team) {
+        if (team.isEmpty()) return dir.resolve(FILE_PREFIX + FILE_SUFFIX);
+
+        byte[] utf8 = team.getBytes(StandardCharsets.UTF_8);
+        StringBuilder sb = new StringBuilder(utf8.length);
+        for (byte b : utf8) {
+            int c = b & 0xFF;
+            boolean ok = (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '.' || c == '+';
+            if (ok) sb.append((char) c);
+            else sb.append('_').append(HEX[c >> 4]).append(HEX[c & 0xF]);
+        }
+        if (sb.length() > MAX_TEAM_CHARS) {
+            sb.setLength(MAX_TEAM_CHARS / 2);
+            sb.append('~');
+            try {
+                for (byte b : MessageDigest.getInstance("SHA-256").digest(utf8)) {
+                    sb.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+                }
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e); // every JDK has SHA-256
+            }
+        }
+        return dir.resolve(FILE_PREFIX + "-" + sb + FILE_SUFFIX);
+    }
+
+    /** Write what is queued and stop the thread (bounded by timeoutMs). */
+    void close(long timeoutMs) {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Server-thread side of one run's file. Records are copied as primitives into a batch
+     * until {@link #flush()}, which hands the batch to the checkpoint thread; that thread turns
+     * it into JSON lines, writes them and hands the batch back for reuse.
+     */
+    final class Log {
+        private final Path file;
+        private final ArrayBlockingQueue<Batch> spare = new ArrayBlockingQueue<>(2);
+        private Batch pending = new Batch();
+        private int records = 0;           // in the file, including pending
+        private boolean exists = false;
+        private volatile boolean failed = false; // a write failed: appends are off until a rewrite
+        private final StringBuilder text = new StringBuilder(4096); // checkpoint thread
+
+        private Log(Path file) {
+            this.file = file;
+        }
+
+        // enough records, or a failed write, that the next checkpoint should rewrite the file
+        boolean needsCompaction() {
+            return records >= COMPACT_RECORDS || failed;
+        }
+
+        boolean exists() {
+            return exists;
+        }
+
+        void start(String team, long runStartMs, List<String> milestones) {
+            pending.clear();
+            pending.fresh = true;
+            records = 0;
+
+            Batch b = record(START);
+            b.ref(team);
+            b.longs(runStartMs);
+            b.ref(milestones);
+        }
+
+        void split(int milestone, Split s) {
+            Batch b = record(SPLIT);
+            b.ints(milestone);
+            b.ref(s);
+        }
+
+        void player(RunStats stats, int slot, EntityTypeTable entityTypes) {
+            Batch b = record(PLAYER);
+            b.ints(slot);
+            b.ints(stats.hits(slot));
+            b.ints(stats.lowHealthTicks(slot));
+            b.ref(stats.id(slot));
+            b.ref(stats.name(slot));
+            b.floats(stats.taken(slot));
+            b.floats(stats.taken(slot, DamageTypeTable.NORMAL));
+            b.floats(stats.taken(slot, DamageTypeTable.DOT));
+            b.floats(stats.biggestHit(slot));
+
+            // dealt: a count, then (type id, amount, hits) per target and (name, amount) per weapon
+            int targets = b.ints(0);
+            int weapons = b.ints(0);
+            if (stats.dealtHits(slot) == 0) return;
+            for (int type = 0; type < stats.dealtTargetTypes(slot); type++) {
+                int hits = stats.dealtHitsTo(slot, type);
+                if (hits == 0) continue;
+                b.ref(entityTypes.id(type));
+                b.floats(stats.dealtTo(slot, type));
+                b.ints(hits);
+                b.ints[targets]++;
+            }
+            for (int w = 0; w < stats.weapons(); w++) {
+                float amount = stats.dealtWith(slot, w);
+                if (amount <= 0f) continue;
+                b.ref(stats.weaponName(w));
+                b.floats(amount);
+                b.ints[weapons]++;
+            }
+        }
+
+        void clock(long rtaMs, long ticks, long wallMs) {
+            Batch b = record(CLOCK);
+            b.longs(rtaMs);
+            b.longs(ticks);
+            b.longs(wallMs);
+        }
+
+        /** Queue the collected records; never blocks. */
+        void flush() {
+            if (pending.records == 0) return;
+            Batch b = pending;
+            Batch next = spare.poll();
+            pending = next != null ? next : new Batch();
+            exists = true;
+            try {
+                writer.execute(() -> {
+                    write(b);
+                    b.clear();
+                    spare.offer(b);
+                });
+            } catch (RuntimeException ignored) {
+                // closed (server stopping)
+            }
+        }
+
+        /** The run ended: nothing to resume any more. */
+        void delete() {
+            pending.clear();
+            records = 0;
+            exists = false;
+            try {
+                writer.execute(() -> {
+                    try {
+                        Files.deleteIfExists(file);
+                        Files.deleteIfExists(tmp());
+                    } catch (IOException ignored) {}
+                });
+            } catch (RuntimeException ignored) {}
+        }
+
+        private Batch record(byte kind) {
+            pending.kind(kind);
+            records++;
+            return pending;
+        }
+
+        private Path tmp() {
+            return file.resolveSibling(file.getFileName() + TMP_SUFFIX);
+        }
+
+        // checkpoint thread
+        private void write(Batch b) {
+            if (!b.fresh && failed) return; // the file is behind: wait for the rewrite
+            try {
+                Files.createDirectories(dir);
+                encode(b, text);
+                ByteBuffer bytes = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+                Path target = b.fresh ? tmp() : file;
+                try (FileChannel ch = b.fresh
+                        ? FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+                        : FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    while (bytes.hasRemaining()) {
+                        ch.write(bytes);
+                    }
+                    ch.force(false);
+                }
+                if (b.fresh) moveAtomic(target, file);
+                failed = false;
+            } catch (IOException e) {
+                // the old file (if any) stays whole; the next checkpoint rewrites it
+                failed = true;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------
+    // BATCH (server thread -> checkpoint thread)
+    // ------------------------------------------------------------
+
+    private static final byte START = 0;
+    private static final byte SPLIT = 1;
+    private static final byte PLAYER = 2;
+    private static final byte CLOCK = 3;
+
+    /**
+     * Records as plain values, in the order {@link Log} added them. The arrays only grow, so
+     * a reused batch costs the server thread array writes and nothing else.
+     */
+    private static final class Batch {
+        boolean fresh = false; // starts with a start record: rewrite the file
+        byte[] kinds = new byte[64];
+        int records = 0;
+        int[] ints = new int[256];
+        int intCount = 0;
+        float[] floats = new float[256];
+        int floatCount = 0;
+        long[] longs = new long[16];
+        int longCount = 0;
+        Object[] refs = new Object[256];
+        int refCount = 0;
+
+        void kind(byte k) {
+            if (records == kinds.length) kinds = Arrays.copyOf(kinds, records * 2);
+            kinds[records++] = k;
+        }
+
+        // returns the index, so a count can be filled in afterwards
+        int ints(int v) {
+            if (intCount == ints.length) ints = Arrays.copyOf(ints, intCount * 2);
+            ints[intCount] = v;
+            return intCount++;
+        }
+
+        void floats(float v) {
+            if (floatCount == floats.length) floats = Arrays.copyOf(floats, floatCount * 2);
+            floats[floatCount++] = v;
+        }
+
+        void longs(long v) {
+            if (longCount == longs.length) longs = Arrays.copyOf(longs, longCount * 2);
+            longs[longCount++] = v;
+        }
+
+        void ref(Object v) {
+            if (refCount == refs.length) refs = Arrays.copyOf(refs, refCount * 2);
+            refs[refCount++] = v;
+        }
+
+        void clear() {
+            Arrays.fill(refs, 0, refCount, null);
+            fresh = false;
+            records = intCount = floatCount = longCount = refCount = 0;
+        }
+    }
+
+    // checkpoint thread: the batch as JSON lines, into sb
+    private static void encode(Batch b, StringBuilder sb) {
+        sb.setLength(0);
+        int in = 0, fl = 0, lo = 0, re = 0;
+        for (int r = 0; r < b.records; r++) {
+            switch (b.kinds[r]) {
+                case START -> {
+                    sb.append("{\"t\":\"start\",\"team\":");
+                    string(sb, (String) b.refs[re++]);
+                    sb.append(",\"runStartMs\":").append(b.longs[lo++]);
+                    sb.append(",\"milestones\":[");
+                    List<?> milestones = (List<?>) b.refs[re++];
+                    for (int i = 0; i < milestones.size(); i++) {
+                        if (i > 0) sb.append(',');
+                        string(sb, (String) milestones.get(i));
+                    }
+                    sb.append(']');
+                }
+                case SPLIT -> {
+                    int milestone = b.ints[in++];
+                    Split s = (Split) b.refs[re++];
+                    sb.append("{\"t\":\"split\",\"milestone\":").append(milestone);
+                    sb.append(",\"playerUuid\":");
+                    string(sb, s.playerId.toString());
+                    if (s.playerName != null) {
+                        sb.append(",\"player\":");
+                        string(sb, s.playerName);
+                    }
+                    sb.append(",\"timeMs\":").append(s.timeMs);
+                    sb.append(",\"igtMs\":").append(s.igtMs);
+                    sb.append(",\"segMs\":").append(s.segmentMs);
+                    sb.append(",\"segIgtMs\":").append(s.segmentIgtMs);
+                }
+                case PLAYER -> {
+                    sb.append("{\"t\":\"player\",\"slot\":").append(b.ints[in++]);
+                    int hits = b.ints[in++];
+                    int lowHealthTicks = b.ints[in++];
+                    sb.append(",\"playerUuid\":");
+                    string(sb, b.refs[re++].toString());
+                    sb.append(",\"player\":");
+                    string(sb, (String) b.refs[re++]);
+                    sb.append(",\"taken\":").append(b.floats[fl++]);
+                    sb.append(",\"takenNormal\":").append(b.floats[fl++]);
+                    sb.append(",\"takenDot\":").append(b.floats[fl++]);
+                    sb.append(",\"hits\":").append(hits);
+                    sb.append(",\"biggestHit\":").append(b.floats[fl++]);
+                    sb.append(",\"lowHealthTicks\":").append(lowHealthTicks);
+                    int targets = b.ints[in++];
+                    int weapons = b.ints[in++];
+                    if (targets > 0 || weapons > 0) {
+                        sb.append(",\"dealtTo\":{");
+                        for (int i = 0; i < targets; i++) {
+                            if (i > 0) sb.append(',');
+                            string(sb, (String) b.refs[re++]);
+                            sb.append(":[").append(b.floats[fl++]).append(',').append(b.ints[in++]).append(']');
+                        }
+                        sb.append("},\"dealtWith\":{");
+                        for (int i = 0; i < weapons; i++) {
+                            if (i > 0) sb.append(',');
+                            string(sb, (String) b.refs[re++]);
+                            sb.append(':').append(b.floats[fl++]);
+                        }
+                        sb.append('}');
+                    }
+                }
+                case CLOCK -> {
+                    sb.append("{\"t\":\"clock\",\"rtaMs\":").append(b.longs[lo++]);
+                    sb.append(",\"ticks\":").append(b.longs[lo++]);
+                    sb.append(",\"wallMs\":").append(b.longs[lo++]);
+                }
+                default -> throw new IllegalStateException("record kind " + b.kinds[r]);
+            }
+            sb.append("}\n");
+        }
+    }
+
+    // JSON string, escaped by hand
+    private static void string(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    private static void moveAtomic(Path tmp, Path target) throws IOException {
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // ------------------------------------------------------------
+    // LOAD (server start)
+    // ------------------------------------------------------------
+
+    /**
+     * Every run that has a checkpoint, by team ("" = default run). Unreadable files are skipped.
+     * A file under an older name (before {@link #file} escaped team names) is moved to its
+     * team's name, or dropped when that team already has a newer file.
+     */
+    static Map<String, State> load(Path dir) {
+        Map<String, State> out = new HashMap<>();
+        if (!Files.isDirectory(dir)) return out;
+
+        List<Path> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path f : files) found.add(f);
+        } catch (IOException ignored) {}
+
+        for (Path f : found) {
+            State s = read(f);
+            if (s == null || !s.valid()) continue;
+            Path own = file(dir, s.team);
+            try {
+                if (!f.equals(own)) {
+                    if (found.contains(own)) {
+                        Files.deleteIfExists(f);
+                        continue;
+                    }
+                    moveAtomic(f, own);
+                }
+            } catch (IOException ignored) {}
+            out.put(s.team, s);
+        }
+        return out;
+    }
+
+    static State read(Path file) {
+        State s = null;
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                JsonObject o = parse(line);
+                if (o == null || !o.has("t")) continue;
+                String type = o.get("t").getAsString();
+                if (type.equals("start")) {
+                    s = new State();
+                    s.team = stringOr(o, "team", "");
+                    s.runStartMs = longOr(o, "runStartMs", -1);
+                    List<String> labels = new ArrayList<>();
+                    if (o.has("milestones") && o.get("milestones").isJsonArray()) {
+                        for (JsonElement e : o.getAsJsonArray("milestones")) labels.add(e.getAsString());
+                    }
+                    s.milestones = List.copyOf(labels);
+                    continue;
+                }
+                if (s == null) continue; // records before the first start belong to nothing
+
+                try {
+                    apply(s, type, o);
+                } catch (RuntimeException ignored) {
+                    // one bad record; the others still count
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        return s;
+    }
+
+    private static void apply(State s, String type, JsonObject o) {
+        switch (type) {
+            case "split" -> s.splits.put(o.get("milestone").getAsInt(), new Split(
+                    UUID.fromString(o.get("playerUuid").getAsString()), stringOr(o, "player", null),
+                    longOr(o, "timeMs", 0), longOr(o, "igtMs", -1), longOr(o, "segMs", -1), longOr(o, "segIgtMs", -1)));
+            case "player" -> {
+                Player p = new Player(
+                        UUID.fromString(o.get("playerUuid").getAsString()), stringOr(o, "player", "?"),
+                        o.get("taken").getAsFloat(), o.get("takenNormal").getAsFloat(), o.get("takenDot").getAsFloat(),
+                        o.get("hits").getAsInt(), o.get("biggestHit").getAsFloat(), o.get("lowHealthTicks").getAsInt());
+                if (o.has("dealtTo")) {
+                    for (Map.Entry<String, JsonElement> e : o.getAsJsonObject("dealtTo").entrySet()) {
+                        JsonArray v = e.getValue().getAsJsonArray();
+                        p.dealtTo.put(e.getKey(), new float[]{v.get(0).getAsFloat(), v.get(1).getAsInt()});
+                    }
+                }
+                if (o.has("dealtWith")) {
+                    for (Map.Entry<String, JsonElement> e : o.getAsJsonObject("dealtWith").entrySet()) {
+                        p.dealtWith.put(e.getKey(), e.getValue().getAsFloat());
+                    }
+                }
+                s.players.put(o.get("slot").getAsInt(), p);
+            }
+            case "clock" -> {
+                s.rtaMs = longOr(o, "rtaMs", 0);
+                s.ticks = longOr(o, "ticks", 0);
+                s.wallMs = longOr(o, "wallMs", -1);
+            }
+            default -> {}
+        }
+    }
+
+    private static JsonObject parse(String line) {
+        if (line.isBlank()) return null;
+        try {
+            JsonElement el = JsonParser.parseString(line);
+            return el != null && el.isJsonObject() ? el.getAsJsonObject() : null;
+        } catch (RuntimeException ignored) {
+            return null; // torn last line
+        }
+    }
+
+    private static long longOr(JsonObject o, String key, long fallback) {
+        JsonElement el = o.get(key);
+        return el != null && el.isJsonPrimitive() ? el.getAsLong() : fallback;
+    }
+
+    private static String stringOr(JsonObject o, String key, String fallback) {
+        JsonElement el = o.get(key);
+        return el != null && el.isJsonPrimitive() ? el.getAsString() : fallback;
+    }
+}
@@ -0,0 +1,102 @@
+package nl.alliantie.damagelogger;
+
+import java.util.Locale;
+import java.util.function.LongSupplier;
+
+/**
+ * Run timer with two time bases:
+ *   RTA  real time, from System.nanoTime() (monotonic, immune to NTP/wall-clock jumps)
+ *   IGT  in-game time, server ticks while the run is active x 50 ms (lag does not count)
+ *
+ * {@link #tick()} samples nanoTime once at the start of every server tick; everything else
+ * only reads fields, so asking for the time on a hot path costs no system call.
+ * The time source can be swapped (the load simulator runs ticks faster than real time).
+ * Server thread only.
+ */
+final class RunClock {
+
+    enum Mode {
+        RTA, IGT;
+
+        static Mode parse(String s, Mode fallback) {
+            if (s == null) return fallback;
+            try {
+                return valueOf(s.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return fallback;
+            }
+        }
+    }
+
+    static final long TICK_MS = 50;
+
+    private final LongSupplier nanoTime;
+    private long nowNanos;
+    private boolean started = false;
+    private long startNanos = 0;
+    private long endNanos = 0;
+    private long ticks = 0;
+    private boolean running = false;
+
+    RunClock() {
+        this(System::nanoTime);
+    }
+
+    RunClock(LongSupplier nanoTime) {
+        this.nanoTime = nanoTime;
+        this.nowNanos = nanoTime.getAsLong();
+    }
+
+    // START_SERVER_TICK
+    void tick() {
+        nowNanos = nanoTime.getAsLong();
+        if (running) ticks++;
+    }
+
+    void start() {
+        resume(0, 0);
+    }
+
+    /** Continue a checkpointed run: as if it started rtaMs ago and has run this many ticks. */
+    void resume(long rtaMs, long ticks) {
+        nowNanos = nanoTime.getAsLong();
+        startNanos = nowNanos - rtaMs * 1_000_000L;
+        endNanos = 0;
+        this.ticks = ticks;
+        running = true;
+        started = true;
+    }
+
+    void stop() {
+        if (!running) return;
+        endNanos = nowNanos;
+        running = false;
+    }
+
+    boolean started() {
+        return started;
+    }
+
+    // Monotonic "now" in ms as of this tick (not related to wall-clock time)
+    long nowMs() {
+        return nowNanos / 1_000_000L;
+    }
+
+    long rtaMs() {
+        if (!started) return 0;
+        long end = running ? nowNanos : endNanos;
+        return Math.max(0, (end - startNanos) / 1_000_000L);
+    }
+
+    long ticks() {
+        return ticks;
+    }
+
+    long igtMs() {
+        return ticks * TICK_MS;
+    }
+
+    long elapsedMs(Mode mode) {
+        return mode == Mode.IGT ? igtMs() : rtaMs();
+    }
+}
@@ -0,0 +1,79 @@
+package nl.alliantie.damagelogger;
+
+import net.minecraft.network.packet.s2c.play.GameMessageS2CPacket;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.scoreboard.ScoreboardDisplaySlot;
+import net.minecraft.scoreboard.ScoreboardObjective;
+import net.minecraft.world.World;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * One run on the server: its {@link RunEngine} plus the Minecraft side that belongs to it
+ * (who plays in it, the pin after a failure, the actionbar packet, the sidebar objective).
+ *
+ * With runsPerTeam every scoreboard team gets its own; otherwise (and for players without a
+ * team) there is just the default run. A context is created when its first player joins and
+ * stays for the rest of the server run. {@link DamageLoggerMod} keeps a player -> run index,
+ * so an event only ever touches the run of the player it is about.
+ *
+ * Server thread only.
+ */
+final class RunContext {
+
+    static final String DEFAULT = "";
+
+    final String team; // DEFAULT for the default run
+    final RunEngine engine;
+    // online players routed to this run; looked up in the player manager by UUID (respawn replaces the entity)
+    final Set<UUID> members = new LinkedHashSet<>();
+
+    // ---- Actionbar: what is on screen now, resent to late joiners ----
+    GameMessageS2CPacket actionbarPacket = null;
+
+    // ---- Pin after failure (RunClock.nowMs() based) ----
+    long pinUntilMs = -1;
+    RegistryKey<World> deathWorldKey = null;
+    double deathX = 0, deathY = 0, deathZ = 0;
+    int pinTickCounter = 0;
+    // PACKET mode: time of the last correction per player; refused moves in between are just dropped
+    final Map<UUID, Long> pinCorrectedAt = new HashMap<>();
+
+    // ---- Sidebar: default run in the sidebar slot, a team run in its team color's slot ----
+    final String objectiveName;
+    ScoreboardObjective sidebarObjective = null;
+    ScoreboardDisplaySlot sidebarSlot = null;
+
+    RunContext(String team, RunEngine engine, String objectiveName) {
+        this.team = team;
+        this.engine = engine;
+        this.objectiveName = objectiveName;
+    }
+
+    boolean isDefault() {
+        return team.isEmpty();
+    }
+
+    // for chat and the console
+    String displayName() {
+        return isDefault() ? "default" : team;
+    }
+
+    boolean pinActive() {
+        return engine.failed() && pinUntilMs > 0 && engine.clock().nowMs() <= pinUntilMs;
+    }
+
+    // new run: forget the previous run's pin and actionbar
+    void reset() {
+        pinUntilMs = -1;
+        deathWorldKey = null;
+        deathX = deathY = deathZ = 0;
+        pinTickCounter = 0;
+        pinCorrectedAt.clear();
+        actionbarPacket = null;
+    }
+}
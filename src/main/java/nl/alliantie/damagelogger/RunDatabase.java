@@ -0,0 +1,434 @@
+package nl.alliantie.damagelogger;
+
+import com.google.gson.Gson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Run history in an embedded H2 database (splits/runs.mv.db), for {@code "storage": "h2"}.
+ *
+ * Tables:
+ *   runs    one row per finished run, indexed on start time and team
+ *   splits  one row per reached milestone, indexed on (milestone, time) and on player UUID
+ *   best    best split and best segment per milestone and timing mode (what the game reads on load)
+ *   meta    schema version, import marker
+ * and next to it runs.best.idx, the best table as a memory-mapped file (see {@link BestIndexFile})
+ * that server start reads instead of querying.
+ *
+ * A batch from the {@link RunStorageWriter} is one transaction: runs, splits and the changed
+ * best rows commit together or not at all. The writer thread keeps its connection for the
+ * lifetime of the server; reads open their own. On the first start an existing runs.jsonl
+ * (or legacy runs.json, read through {@link RunJournal}) is imported once; the journal files
+ * are only read, left as they are and no longer written.
+ */
+final class RunDatabase implements RunStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("damage_logger");
+
+    static final String DB_NAME = "runs"; // H2 adds .mv.db
+    private static final String DRIVER = "org.h2.Driver";
+    private static final int SCHEMA_VERSION = 1;
+    private static final int IMPORT_BATCH = 1000;
+
+    // best.kind values
+    private static final String BEST_RTA = "rta";
+    private static final String BEST_IGT = "igt";
+    private static final String BEST_SEGMENT_RTA = "segment_rta";
+    private static final String BEST_SEGMENT_IGT = "segment_igt";
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS meta ("
+                    + " meta_key VARCHAR(64) PRIMARY KEY,"
+                    + " meta_value VARCHAR(1024))",
+            "CREATE TABLE IF NOT EXISTS runs ("
+                    + " run_id VARCHAR(128) PRIMARY KEY,"
+                    + " team VARCHAR(64),"
+                    + " start_ms BIGINT NOT NULL,"
+                    + " end_ms BIGINT NOT NULL,"
+                    + " duration_ms BIGINT,"
+                    + " igt_ms BIGINT,"
+                    + " failed BOOLEAN NOT NULL,"
+                    + " completed BOOLEAN NOT NULL,"
+                    + " end_reason VARCHAR(64),"
+                    + " end_player VARCHAR(64),"
+                    + " timeline CLOB)", // same JSON as "timeline" in runs.jsonl
+            "CREATE INDEX IF NOT EXISTS runs_start ON runs (start_ms)",
+            "CREATE INDEX IF NOT EXISTS runs_team ON runs (team, start_ms)",
+            "CREATE TABLE IF NOT EXISTS splits ("
+                    + " run_id VARCHAR(128) NOT NULL,"
+                    + " milestone VARCHAR(32) NOT NULL,"
+                    + " seq INT NOT NULL," // order within the run
+                    + " time_ms BIGINT NOT NULL,"
+                    + " igt_ms BIGINT,"
+                    + " seg_ms BIGINT,"
+                    + " seg_igt_ms BIGINT,"
+                    + " player_name VARCHAR(64),"
+                    + " player_uuid VARCHAR(36),"
+                    + " PRIMARY KEY (run_id, milestone))",
+            "CREATE INDEX IF NOT EXISTS splits_milestone ON splits (milestone, time_ms)",
+            "CREATE INDEX IF NOT EXISTS splits_player ON splits (player_uuid)",
+            "CREATE TABLE IF NOT EXISTS best ("
+                    + " kind VARCHAR(16) NOT NULL,"
+                    + " milestone VARCHAR(32) NOT NULL,"
+                    + " time_ms BIGINT NOT NULL,"
+                    + " run_id VARCHAR(128),"
+                    + " PRIMARY KEY (kind, milestone))"
+    };
+
+    private static final String MERGE_RUN = "MERGE INTO runs (run_id, team, start_ms, end_ms, duration_ms, igt_ms,"
+            + " failed, completed, end_reason, end_player, timeline) KEY (run_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String MERGE_SPLIT = "MERGE INTO splits (run_id, milestone, seq, time_ms, igt_ms, seg_ms, seg_igt_ms,"
+            + " player_name, player_uuid) KEY (run_id, milestone) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String MERGE_BEST = "MERGE INTO best (kind, milestone, time_ms, run_id) KEY (kind, milestone) VALUES (?, ?, ?, ?)";
+    private static final String MERGE_META = "MERGE INTO meta (meta_key, meta_value) KEY (meta_key) VALUES (?, ?)";
+
+    private static final String SELECT_RUNS = "SELECT r.run_id, r.team, r.start_ms, r.end_ms, r.duration_ms, r.igt_ms,"
+            + " r.failed, r.completed, r.end_reason, r.end_player,"
+            + " s.milestone, s.time_ms, s.igt_ms, s.seg_ms, s.seg_igt_ms, s.player_name, s.player_uuid"
+            + " FROM runs r LEFT JOIN splits s ON s.run_id = r.run_id"
+            + " ORDER BY r.start_ms, r.run_id, s.seq";
+
+    private static final Gson COMPACT = new Gson();
+
+    private final Path dir;
+    private final String url;
+    private final BestIndexFile indexFile;
+    // writer thread only
+    private Connection writeConnection = null;
+    // the committed best table; set by the writer thread, read by readBest
+    private volatile RunJournal.BestIndex written = null;
+
+    RunDatabase(Path dir) {
+        this.dir = dir;
+        // the writer closes the database itself, after the last batch; not H2's shutdown hook
+        this.url = "jdbc:h2:file:" + dir.resolve(DB_NAME).toAbsolutePath() + ";DB_CLOSE_ON_EXIT=FALSE";
+        this.indexFile = new BestIndexFile(dir.resolve(DB_NAME + "." + BestIndexFile.FILE_NAME)); // not the journal's
+    }
+
+    // ------------------------------------------------------------
+    // STARTUP (storage thread): schema + one-shot import
+    // ------------------------------------------------------------
+
+    @Override
+    public void open() throws IOException, SQLException {
+        Files.createDirectories(dir);
+        Connection c = writeConnection();
+
+        try (Statement st = c.createStatement()) {
+            for (String ddl : SCHEMA) st.execute(ddl);
+        }
+        c.commit();
+
+        if (meta(c, "schema") == null) putMeta(c, "schema", String.valueOf(SCHEMA_VERSION));
+        if (meta(c, "imported") == null) importJournal(c);
+        c.commit();
+
+        RunJournal.BestIndex best = readBest(c);
+        written = best;
+        // before the first write can dirty it: a missing or dirty index is rebuilt here, and only here
+        if (indexFile.read() == null) indexFile.update(best);
+    }
+
+    /**
+     * Copy the journal (archives and runs.jsonl, or a legacy runs.json) into the tables, in
+     * transactions of {@link #IMPORT_BATCH} runs. The files are only read, never migrated or
+     * repaired: switching back to the journal finds them as they were. Re-running after a
+     * crash halfway is harmless: rows are merged on their keys.
+     */
+    private void importJournal(Connection c) throws IOException, SQLException {
+        RunJournal journal = new RunJournal(dir);
+
+        List<RunSnapshot> chunk = new ArrayList<>(IMPORT_BATCH);
+        long[] count = {0};
+        SQLException[] error = {null};
+        RunJournal.BestIndex best = journal.readForImport(run -> {
+            if (error[0] != null) return;
+            chunk.add(run);
+            if (chunk.size() < IMPORT_BATCH) return;
+            try {
+                insertRuns(c, chunk);
+                c.commit();
+                count[0] += chunk.size();
+            } catch (SQLException e) {
+                error[0] = e;
+            }
+            chunk.clear();
+        });
+        if (error[0] != null) {
+            c.rollback();
+            throw error[0];
+        }
+        insertRuns(c, chunk);
+        count[0] += chunk.size();
+
+        // best.json keeps the run ids of bests the imported runs may not reproduce (legacy entries)
+        writeBest(c, emptyIndex(), best);
+        putMeta(c, "imported", count[0] + " runs from " + RunJournal.JOURNAL_FILE);
+        c.commit();
+
+        if (count[0] > 0) {
+            LOGGER.info("Imported {} runs from {} into {}.mv.db", count[0], RunJournal.JOURNAL_FILE, DB_NAME);
+        }
+    }
+
+    // ------------------------------------------------------------
+    // WRITE (storage thread): one transaction per batch
+    // ------------------------------------------------------------
+
+    @Override
+    public void write(List<RunSnapshot> batch) throws IOException, SQLException {
+        Connection c = writeConnection();
+        if (written == null) written = readBest(c); // open() failed earlier
+
+        // merge, don't replace: with concurrent runs a snapshot may not know another run's golds yet
+        RunJournal.BestIndex best = written;
+        for (RunSnapshot r : batch) {
+            best = best.merged(RunJournal.BestIndex.of(r));
+        }
+
+        // dirty until the commit is through; a crash in between rebuilds the index from the best table
+        indexFile.invalidate();
+        try {
+            insertRuns(c, batch);
+            writeBest(c, written, best);
+            c.commit();
+        } catch (SQLException e) {
+            c.rollback();
+            throw e;
+        }
+        written = best;
+        indexFile.update(best);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        Connection c = writeConnection;
+        writeConnection = null;
+        if (c != null) c.close();
+    }
+
+    private Connection writeConnection() throws IOException, SQLException {
+        if (writeConnection == null || writeConnection.isClosed()) {
+            writeConnection = connect();
+            writeConnection.setAutoCommit(false);
+        }
+        return writeConnection;
+    }
+
+    private static void insertRuns(Connection c, List<RunSnapshot> runs) throws SQLException {
+        if (runs.isEmpty()) return;
+
+        try (PreparedStatement pr = c.prepareStatement(MERGE_RUN);
+             PreparedStatement ps = c.prepareStatement(MERGE_SPLIT)) {
+            for (RunSnapshot r : runs) {
+                pr.setString(1, r.runId);
+                pr.setString(2, r.team);
+                pr.setLong(3, r.startMs);
+                pr.setLong(4, r.endMs);
+                setTime(pr, 5, r.durationMs);
+                setTime(pr, 6, r.igtMs);
+                pr.setBoolean(7, r.failed);
+                pr.setBoolean(8, r.completed);
+                pr.setString(9, r.endReason);
+                pr.setString(10, r.endPlayer);
+                pr.setString(11, r.timeline != null ? COMPACT.toJson(RunJournal.timelineToJson(r.timeline)) : null);
+                pr.addBatch();
+
+                int seq = 0;
+                for (RunSnapshot.Split sp : r.splits) {
+                    ps.setString(1, r.runId);
+                    ps.setString(2, sp.label);
+                    ps.setInt(3, seq++);
+                    ps.setLong(4, sp.timeMs);
+                    setTime(ps, 5, sp.igtMs);
+                    setTime(ps, 6, sp.segmentMs);
+                    setTime(ps, 7, sp.segmentIgtMs);
+                    ps.setString(8, sp.playerName);
+                    ps.setString(9, sp.playerUuid);
+                    ps.addBatch();
+                }
+            }
+            pr.executeBatch();
+            ps.executeBatch();
+        }
+    }
+
+    // only the rows that changed between what the table holds and the new index
+    private static void writeBest(Connection c, RunJournal.BestIndex old, RunJournal.BestIndex now) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement(MERGE_BEST)) {
+            addBest(ps, BEST_RTA, old.rta, now.rta);
+            addBest(ps, BEST_IGT, old.igt, now.igt);
+            addBest(ps, BEST_SEGMENT_RTA, old.segmentsRta, now.segmentsRta);
+            addBest(ps, BEST_SEGMENT_IGT, old.segmentsIgt, now.segmentsIgt);
+            ps.executeBatch();
+        }
+    }
+
+    private static void addBest(PreparedStatement ps, String kind, Map<String, RunSnapshot.Best> old,
+                                Map<String, RunSnapshot.Best> now) throws SQLException {
+        for (Map.Entry<String, RunSnapshot.Best> e : now.entrySet()) {
+            if (old.get(e.getKey()) == e.getValue()) continue;
+            ps.setString(1, kind);
+            ps.setString(2, e.getKey());
+            ps.setLong(3, e.getValue().timeMs);
+            ps.setString(4, e.getValue().runId);
+            ps.addBatch();
+        }
+    }
+
+    // ------------------------------------------------------------
+    // READ (any thread, own connection)
+    // ------------------------------------------------------------
+
+    /**
+     * What open() or the last commit stored, else the mapped runs.best.idx, else the best
+     * table. Never touches the index file: only the writer thread marks it clean, after a commit.
+     */
+    @Override
+    public RunJournal.BestIndex readBest() throws IOException {
+        RunJournal.BestIndex w = written;
+        if (w != null) return w;
+        RunJournal.BestIndex mapped = indexFile.read();
+        if (mapped != null) return mapped;
+
+        try (Connection c = connect()) {
+            return readBest(c);
+        } catch (SQLException e) {
+            throw new IOException("reading best splits: " + e.getMessage(), e);
+        }
+    }
+
+    private static RunJournal.BestIndex readBest(Connection c) throws SQLException {
+        RunJournal.BestIndex index = emptyIndex();
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT kind, milestone, time_ms, run_id FROM best")) {
+            while (rs.next()) {
+                Map<String, RunSnapshot.Best> target = switch (rs.getString(1)) {
+                    case BEST_RTA -> index.rta;
+                    case BEST_IGT -> index.igt;
+                    case BEST_SEGMENT_RTA -> index.segmentsRta;
+                    case BEST_SEGMENT_IGT -> index.segmentsIgt;
+                    default -> null;
+                };
+                if (target != null) target.put(rs.getString(2), new RunSnapshot.Best(rs.getLong(3), rs.getString(4)));
+            }
+        }
+        return index;
+    }
+
+    /** Every run with its splits, oldest first; one run is built at a time. */
+    @Override
+    public void readRuns(Consumer<RunSnapshot> out) throws IOException {
+        try (Connection c = connect();
+             Statement st = c.createStatement()) {
+            st.setFetchSize(IMPORT_BATCH);
+            try (ResultSet rs = st.executeQuery(SELECT_RUNS)) {
+                String runId = null;
+                String team = null, endReason = null, endPlayer = null;
+                long startMs = 0, endMs = 0, durationMs = -1, igtMs = -1;
+                boolean failed = false, completed = false;
+                List<RunSnapshot.Split> splits = new ArrayList<>();
+
+                while (rs.next()) {
+                    String id = rs.getString(1);
+                    if (!id.equals(runId)) {
+                        if (runId != null) {
+                            out.accept(snapshot(runId, team, startMs, endMs, durationMs, igtMs, failed, completed, endReason, endPlayer, splits));
+                            splits.clear();
+                        }
+                        runId = id;
+                        team = rs.getString(2);
+                        startMs = rs.getLong(3);
+                        endMs = rs.getLong(4);
+                        durationMs = getTime(rs, 5);
+                        igtMs = getTime(rs, 6);
+                        failed = rs.getBoolean(7);
+                        completed = rs.getBoolean(8);
+                        endReason = rs.getString(9);
+                        endPlayer = rs.getString(10);
+                    }
+                    String label = rs.getString(11);
+                    if (label != null) {
+                        splits.add(new RunSnapshot.Split(label, rs.getLong(12), getTime(rs, 13), getTime(rs, 14), getTime(rs, 15),
+                                rs.getString(16), rs.getString(17)));
+                    }
+                }
+                if (runId != null) {
+                    out.accept(snapshot(runId, team, startMs, endMs, durationMs, igtMs, failed, completed, endReason, endPlayer, splits));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException("reading runs: " + e.getMessage(), e);
+        }
+    }
+
+    // same shape as RunJournal.fromJson: no bests, no timeline
+    private static RunSnapshot snapshot(String runId, String team, long startMs, long endMs, long durationMs, long igtMs,
+                                        boolean failed, boolean completed, String endReason, String endPlayer,
+                                        List<RunSnapshot.Split> splits) {
+        return new RunSnapshot(runId, team, startMs, endMs, durationMs, igtMs, failed, completed, endReason, endPlayer, splits,
+                Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(), null);
+    }
+
+    // ------------------------------------------------------------
+    // HELPERS
+    // ------------------------------------------------------------
+
+    private Connection connect() throws IOException, SQLException {
+        try {
+            Class.forName(DRIVER); // registers with DriverManager; ServiceLoader doesn't see nested jars
+        } catch (ClassNotFoundException e) {
+            throw new IOException("H2 driver not on the classpath (storage \"h2\")", e);
+        }
+        return DriverManager.getConnection(url);
+    }
+
+    private static String meta(Connection c, String key) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("SELECT meta_value FROM meta WHERE meta_key = ?")) {
+            ps.setString(1, key);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    private static void putMeta(Connection c, String key, String value) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement(MERGE_META)) {
+            ps.setString(1, key);
+            ps.setString(2, value);
+            ps.executeUpdate();
+        }
+    }
+
+    private static RunJournal.BestIndex emptyIndex() {
+        return new RunJournal.BestIndex(new LinkedHashMap<>(), new LinkedHashMap<>(), new LinkedHashMap<>(), new LinkedHashMap<>());
+    }
+
+    // -1 (not known / not reached) is stored as NULL
+    private static void setTime(PreparedStatement ps, int index, long ms) throws SQLException {
+        if (ms < 0) ps.setNull(index, Types.BIGINT);
+        else ps.setLong(index, ms);
+    }
+
+    private static long getTime(ResultSet rs, int index) throws SQLException {
+        long v = rs.getLong(index);
+        return rs.wasNull() ? -1 : v;
+    }
+}
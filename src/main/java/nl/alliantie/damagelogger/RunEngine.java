@@ -0,0 +1,781 @@
+package nl.alliantie.damagelogger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+import java.util.function.LongSupplier;
+
+/**
+ * The run itself, without Minecraft: run state and clock, damage windows and totals, the
+ * timeline, splits and best splits, the run end, the sidebar lines and the actionbar text.
+ *
+ * {@link DamageLoggerMod} feeds events in as plain ids and numbers and turns whatever comes
+ * out of {@link Output} into chat components, packets and scoreboard updates. Everything
+ * that needs the server itself (players, teleports, damage sources, advancements) stays
+ * there. The load simulator drives this class with synthetic players.
+ *
+ * One engine per run: concurrent runs on one server each get their own (see RunContext),
+ * and only share the best times that were saved. With a {@link RunCheckpoint} the run in
+ * progress is checkpointed every checkpointIntervalTicks and can be resumed after a restart.
+ *
+ * Server thread only.
+ */
+final class RunEngine {
+
+    // actionbar states
+    static final int RUNNING = 0;
+    static final int FAILED = 1;
+    static final int COMPLETED = 2;
+
+    static final int SIDEBAR_TOP_SCORE = 15;
+
+    /** What the engine wants shown or stored. Defaults do nothing. */
+    interface Output {
+        // a damage window closed with hits that were not logged yet
+        default void damageSummary(UUID player, String name, String cause, float amount, int hits, long spanMs) {}
+
+        /**
+         * @param best          best split in the shown time base before this one, null if none
+         * @param segmentMs     time since the previous milestone, -1 if that one was not reached
+         * @param bestSegment   best segment before this one, null if none (segmentMs below it = gold)
+         * @param predictedMs   this split plus the best segments still to go, -1 if not known
+         */
+        default void split(String label, long timeMs, Long best, long segmentMs, Long bestSegment, long predictedMs,
+                           String playerName) {}
+
+        default void personalBest(String label, long timeMs, Long old, String playerName) {}
+
+        default void completed(long elapsedMs, String winnerName) {}
+
+        // final leaderboard, once per run end
+        default void leaderboard(RunStats stats) {}
+
+        default void save(RunSnapshot run) {}
+
+        // one sidebar score changed; text null = remove the line, added = it was not shown before
+        default void sidebarLine(int score, String text, boolean added) {}
+
+        default void actionbar(int state, String time) {}
+    }
+
+    static final Output NONE = new Output() {};
+
+    private static final class SplitRecord {
+        final UUID playerId;
+        final String playerName;
+        final long timeMs; // RTA
+        final long igtMs;
+        final long segmentMs; // -1 = previous milestone not reached
+        final long segmentIgtMs;
+
+        SplitRecord(UUID playerId, String playerName, long timeMs, long igtMs, long segmentMs, long segmentIgtMs) {
+            this.playerId = playerId;
+            this.playerName = playerName;
+            this.timeMs = timeMs;
+            this.igtMs = igtMs;
+            this.segmentMs = segmentMs;
+            this.segmentIgtMs = segmentIgtMs;
+        }
+
+        long time(RunClock.Mode mode) {
+            return mode == RunClock.Mode.IGT ? igtMs : timeMs;
+        }
+
+        long segment(RunClock.Mode mode) {
+            return mode == RunClock.Mode.IGT ? segmentIgtMs : segmentMs;
+        }
+    }
+
+    /** Best time per milestone label, with the run it came from ("current" until this run is saved). */
+    private static final class BestTimes {
+        final Map<String, Long> ms = new ConcurrentHashMap<>();
+        final Map<String, String> runId = new ConcurrentHashMap<>();
+
+        Long get(String label) {
+            return ms.get(label);
+        }
+
+        // true if this is a new best
+        boolean improve(String label, long timeMs) {
+            Long old = ms.get(label);
+            if (old != null && timeMs >= old) return false;
+            ms.put(label, timeMs);
+            runId.put(label, "current");
+            return true;
+        }
+
+        // merge, don't replace: a split may already have set a "current" best
+        void merge(Map<String, RunSnapshot.Best> loaded) {
+            for (Map.Entry<String, RunSnapshot.Best> e : loaded.entrySet()) {
+                Long cur = ms.get(e.getKey());
+                if (cur != null && cur <= e.getValue().timeMs) continue;
+
+                ms.put(e.getKey(), e.getValue().timeMs);
+                if (e.getValue().runId != null) {
+                    runId.put(e.getKey(), e.getValue().runId);
+                } else {
+                    runId.remove(e.getKey());
+                }
+            }
+        }
+
+        void resolveCurrent(String id) {
+            for (Map.Entry<String, String> e : new HashMap<>(runId).entrySet()) {
+                if ("current".equals(e.getValue())) {
+                    runId.put(e.getKey(), id);
+                }
+            }
+        }
+
+        Map<String, RunSnapshot.Best> snapshot() {
+            Map<String, RunSnapshot.Best> out = new LinkedHashMap<>();
+            for (Map.Entry<String, Long> e : ms.entrySet()) {
+                out.put(e.getKey(), new RunSnapshot.Best(e.getValue(), runId.get(e.getKey())));
+            }
+            return out;
+        }
+    }
+
+    private final String team; // "" = the server's default run
+    private final String idPrefix; // "run-" or "run-<team>-"; run ids and timeline file names
+    private final List<String> milestones;
+    private final RunClock.Mode timing;
+    private final boolean actionbarTenths;
+    private final int actionbarIntervalTicks;
+    private final RunClock clock;
+    private final LongSupplier wallClock;
+    private final IntFunction<String> attackerTypeNames;
+
+    // cooldowns, low health, sidebar width: one read per event, swapped whole on reload
+    private volatile DamageLoggerConfig config;
+    private Output out = NONE;
+    private DamageTimeline.Track timeline = null;
+    private DamageTypeTable damageTypes = DamageTypeTable.EMPTY;
+    private EntityTypeTable entityTypes = EntityTypeTable.EMPTY;
+    private RunCheckpoint.Log checkpoint = null;
+    private int checkpointTickCounter = 0;
+
+    // ---- Run state ----
+    private long runStartMs = -1; // wall clock, only for run ids / storage
+    private long runEndMs = -1;
+    private boolean failed = false;
+    private boolean completed = false;
+    private boolean deathHandled = false;
+
+    private final DamageAggregator windows = new DamageAggregator();
+    private final DamageAggregator.SummarySink summarySink = this::damageSummary;
+    private final RunStats stats = new RunStats();
+    private final SplitRecord[] splits;
+
+    // ---- Best splits and best segments, per time base ----
+    private final BestTimes bestSplits = new BestTimes();
+    private final BestTimes bestSplitsIgt = new BestTimes();
+    private final BestTimes bestSegments = new BestTimes();
+    private final BestTimes bestSegmentsIgt = new BestTimes();
+    // derived from the above in the shown time base; recomputed when a split lands or bests are loaded
+    private long sumOfBest = -1;
+    private long predictedMs = -1;
+
+    // ---- What is on screen now ----
+    private final String[] sidebarLines = new String[SIDEBAR_TOP_SCORE + 1];
+    private final StringBuilder actionbarBuf = new StringBuilder(16);
+    private int actionbarTickCounter = 0;
+    private int actionbarState = -1;
+    private String actionbarTime = null;
+
+    /**
+     * @param team              scoreboard team this run belongs to, "" for the default run
+     * @param milestones        split labels in run order; the last one completes the run
+     * @param config            timing and actionbar tenths are fixed from this one; the rest follows {@link #setConfig}
+     * @param wallClock         epoch ms, only used for run ids and storage
+     * @param attackerTypeNames name for an attacker entity type raw id (timeline name table)
+     */
+    RunEngine(String team, List<String> milestones, DamageLoggerConfig config,
+              RunClock clock, LongSupplier wallClock, IntFunction<String> attackerTypeNames) {
+        this.team = team;
+        this.idPrefix = team.isEmpty() ? "run-" : "run-" + idTag(team) + "-";
+        this.milestones = List.copyOf(milestones);
+        this.config = config;
+        this.timing = config.timing;
+        this.actionbarTenths = config.actionbarTenths;
+        this.actionbarIntervalTicks = actionbarTenths ? 2 : 20;
+        this.clock = clock;
+        this.wallClock = wallClock;
+        this.attackerTypeNames = attackerTypeNames;
+        this.splits = new SplitRecord[this.milestones.size()];
+    }
+
+    void setOutput(Output out) {
+        this.out = out != null ? out : NONE;
+    }
+
+    // any thread (the config watcher); takes effect with the next event
+    void setConfig(DamageLoggerConfig config) {
+        this.config = config;
+    }
+
+    DamageLoggerConfig config() {
+        return config;
+    }
+
+    // the engine records through its own track, so several engines can share one timeline
+    void setTimeline(DamageTimeline timeline) {
+        this.timeline = timeline != null ? timeline.track() : null;
+    }
+
+    void setCheckpoint(RunCheckpoint checkpoints) {
+        this.checkpoint = checkpoints != null
+                ? checkpoints.log(team)
+                : null;
+    }
+
+    void setDamageTypes(DamageTypeTable types) {
+        this.damageTypes = types;
+    }
+
+    DamageTypeTable damageTypes() {
+        return damageTypes;
+    }
+
+    void setEntityTypes(EntityTypeTable types) {
+        this.entityTypes = types;
+    }
+
+    EntityTypeTable entityTypes() {
+        return entityTypes;
+    }
+
+    String team() {
+        return team;
+    }
+
+    RunClock clock() {
+        return clock;
+    }
+
+    RunClock.Mode timing() {
+        return timing;
+    }
+
+    RunStats stats() {
+        return stats;
+    }
+
+    List<String> milestones() {
+        return milestones;
+    }
+
+    boolean started() {
+        return runStartMs >= 0;
+    }
+
+    boolean ended() {
+        return failed || completed;
+    }
+
+    boolean active() {
+        return started() && !ended();
+    }
+
+    boolean failed() {
+        return failed;
+    }
+
+    boolean completed() {
+        return completed;
+    }
+
+    boolean hasSplit(int milestone) {
+        return splits[milestone] != null;
+    }
+
+    boolean lowHealth(float hp) {
+        return hp <= config.lowHealthHp;
+    }
+
+    // ------------------------------------------------------------
+    // RUN START / END
+    // ------------------------------------------------------------
+
+    void startRun() {
+        runStartMs = wallClock.getAsLong();
+        clock.start();
+        failed = false;
+        completed = false;
+        runEndMs = -1;
+        deathHandled = false;
+
+        Arrays.fill(splits, null);
+        recomputePace();
+
+        stats.clear();
+        DamageTimeline.Track tl = timeline;
+        if (tl != null) tl.begin(idPrefix + runStartMs, runStartMs);
+        windows.clear();
+
+        actionbarTickCounter = 0;
+        actionbarState = -1;
+        actionbarTime = null;
+
+        checkpoint(true);
+    }
+
+    /**
+     * Carry on with a checkpointed run instead of starting a new one. RTA continues from the
+     * checkpoint, plus the time the server was down when downtime counts; IGT always
+     * continues from the ticks. Returns false (and changes nothing) when the checkpoint is
+     * for other milestones.
+     */
+    boolean resume(RunCheckpoint.State saved, boolean countDowntime) {
+        if (!saved.milestones.equals(milestones)) return false;
+
+        long now = wallClock.getAsLong();
+        long downtime = countDowntime && saved.wallMs > 0 ? Math.max(0, now - saved.wallMs) : 0;
+        runStartMs = saved.runStartMs;
+        clock.resume(saved.rtaMs + downtime, saved.ticks);
+        failed = false;
+        completed = false;
+        runEndMs = -1;
+        deathHandled = false;
+
+        // the interrupted run's golds were never saved: count them again, silently
+        Arrays.fill(splits, null);
+        for (Map.Entry<Integer, RunCheckpoint.Split> e : saved.splits.entrySet()) {
+            int m = e.getKey();
+            if (m < 0 || m >= splits.length) continue;
+            RunCheckpoint.Split sp = e.getValue();
+            SplitRecord rec = new SplitRecord(sp.playerId, sp.playerName, sp.timeMs, sp.igtMs, sp.segmentMs, sp.segmentIgtMs);
+            splits[m] = rec;
+            String label = milestones.get(m);
+            bestSplits.improve(label, rec.timeMs);
+            if (rec.igtMs >= 0) bestSplitsIgt.improve(label, rec.igtMs);
+            if (rec.segmentMs >= 0) bestSegments.improve(label, rec.segmentMs);
+            if (rec.segmentIgtMs >= 0) bestSegmentsIgt.improve(label, rec.segmentIgtMs);
+        }
+        recomputePace();
+
+        stats.clear();
+        for (RunCheckpoint.Player p : saved.players.values()) {
+            int slot = stats.restore(p.id, p.name, p.taken, p.takenNormal, p.takenDot, p.hits, p.biggestHit, p.lowHealthTicks);
+            for (Map.Entry<String, float[]> t : p.dealtTo.entrySet()) {
+                stats.restoreDealt(slot, entityTypes.rawId(t.getKey()), t.getValue()[0], (int) t.getValue()[1]);
+            }
+            for (Map.Entry<String, Float> w : p.dealtWith.entrySet()) {
+                stats.restoreDealtWith(slot, w.getKey(), w.getValue());
+            }
+        }
+        DamageTimeline.Track tl = timeline;
+        if (tl != null) tl.resume(idPrefix + runStartMs, runStartMs);
+        windows.clear();
+
+        actionbarTickCounter = 0;
+        actionbarState = -1;
+        actionbarTime = null;
+
+        checkpoint(true); // a fresh file with the resumed state
+        return true;
+    }
+
+    /**
+     * First real death. Stops the run and returns true; false if the run already ended.
+     * The caller reports the death and then calls {@link #endRun}.
+     */
+    boolean fail() {
+        if (completed || deathHandled) return false;
+        deathHandled = true;
+
+        failed = true;
+        completed = false;
+        runEndMs = wallClock.getAsLong();
+        clock.stop();
+        return true;
+    }
+
+    /** Leaderboard, save and final sidebar; after {@link #fail()} or the last split. */
+    void endRun(String endReason, String endPlayerName) {
+        out.leaderboard(stats);
+        save(endReason, endPlayerName);
+        renderSidebar();
+
+        RunCheckpoint.Log log = checkpoint;
+        if (log != null) log.delete();
+    }
+
+    private void complete(String winnerName) {
+        completed = true;
+        failed = false;
+        runEndMs = wallClock.getAsLong();
+        clock.stop();
+
+        flushDamage(true);
+        out.completed(clock.elapsedMs(timing), winnerName);
+
+        // block death-end afterwards
+        deathHandled = true;
+        endRun("COMPLETED", winnerName);
+    }
+
+    // END_SERVER_TICK: damage summaries + actionbar + checkpoint
+    void tick() {
+        if (active()) {
+            flushDamage(false);
+
+            int interval = config.checkpointIntervalTicks;
+            if (interval > 0 && ++checkpointTickCounter >= interval) checkpoint(false);
+        }
+
+        if (started() && ++actionbarTickCounter >= actionbarIntervalTicks) {
+            actionbarTickCounter = 0;
+            updateActionbar();
+        }
+    }
+
+    // ------------------------------------------------------------
+    // DAMAGE
+    // ------------------------------------------------------------
+
+    /**
+     * One hit (ALLOW_DAMAGE). Every hit goes to the timeline; counted hits go to the run
+     * stats and the chat window.
+     *
+     * @param slot player slot in {@link #stats()}
+     * @param hp   health before the hit
+     * @return true if the hit opened a chat window and should be logged as its own line
+     */
+    boolean damage(int slot, UUID player, int typeId, byte kind, int attackerTypeId, float amount, float hp,
+                   int x, int y, int z) {
+        if (ended()) return false;
+
+        DamageTimeline.Track tl = timeline;
+        if (tl != null) {
+            tl.record((int) clock.ticks(), slot, typeId, attackerTypeId, kind,
+                    amount, Math.max(0f, hp - amount), x, y, z);
+        }
+        if (kind == DamageTypeTable.IGNORE) return false; // ignore /kill noise
+
+        stats.hit(slot, kind, amount);
+
+        DamageLoggerConfig cfg = config;
+        long cooldown = kind == DamageTypeTable.DOT ? cfg.dotCooldownMs : cfg.damageCooldownMs;
+        // unknown types share the last window slot
+        DamageTypeTable types = damageTypes;
+        int slots = types.size() + 1;
+        int window = types.contains(typeId) ? typeId : types.size();
+        return windows.hit(slot, player, window, slots, clock.nowMs(), cooldown, amount);
+    }
+
+    /** A player left the run or the server: their pending damage summary goes out now. */
+    void playerLeft(UUID player) {
+        int slot = stats.slot(player);
+        if (slot >= 0) windows.remove(slot, summarySink);
+    }
+
+    /**
+     * Damage a player of this run dealt (AFTER_DAMAGE with a player attacker, not blocked):
+     * what the target actually took. Only counted while the run is on; the timeline only
+     * records damage taken.
+     *
+     * @param slot       attacker's slot in {@link #stats()}
+     * @param targetType entity type raw id of what was hit
+     * @param weapon     weapon column in {@link #stats()}, -1 if unknown
+     */
+    void dealt(int slot, int targetType, int weapon, float amount) {
+        if (!active()) return;
+        stats.dealt(slot, targetType, weapon, amount);
+    }
+
+    void flushDamage(boolean all) {
+        if (all) windows.flushAll(summarySink);
+        else windows.flush(clock.nowMs(), summarySink);
+    }
+
+    private void damageSummary(UUID id, int window, float amount, int hits, long spanMs) {
+        DamageTypeTable types = damageTypes;
+        String cause = types.contains(window) ? types.name(window) : "unknown";
+        int slot = stats.slot(id);
+        String name = slot >= 0 ? stats.name(slot) : id.toString().substring(0, 8);
+        out.damageSummary(id, name, cause, amount, hits, spanMs);
+    }
+
+    // ------------------------------------------------------------
+    // SPLITS
+    // ------------------------------------------------------------
+
+    /** A player reached a milestone; only the first one counts. */
+    void split(int milestone, UUID player, String playerName) {
+        if (!active() || splits[milestone] != null) return;
+
+        // both time bases as of this tick; a segment needs the previous milestone
+        long rta = clock.rtaMs();
+        long igt = clock.igtMs();
+        SplitRecord prev = milestone == 0 ? null : splits[milestone - 1];
+        long segRta = milestone == 0 ? rta : segment(prev != null ? prev.timeMs : -1, rta);
+        long segIgt = milestone == 0 ? igt : segment(prev != null ? prev.igtMs : -1, igt);
+        SplitRecord rec = new SplitRecord(player, playerName, rta, igt, segRta, segIgt);
+        splits[milestone] = rec;
+        RunCheckpoint.Log log = checkpoint;
+        if (log != null && log.exists() && config.checkpointIntervalTicks > 0) {
+            log.split(milestone, checkpointSplit(rec));
+            log.flush();
+        }
+
+        String label = milestones.get(milestone);
+        Long bestSegment = bestSegments(timing).get(label);
+
+        // golds in both time bases (silently), then the cached sum of best / prediction
+        if (segRta >= 0) bestSegments.improve(label, segRta);
+        if (segIgt >= 0) bestSegmentsIgt.improve(label, segIgt);
+        recomputePace();
+
+        out.split(label, rec.time(timing), bestSplits(timing).get(label), rec.segment(timing), bestSegment, predictedMs, playerName);
+        maybePersonalBest(label, rec);
+
+        if (milestone == milestones.size() - 1) {
+            complete(playerName);
+        }
+    }
+
+    private static long segment(long prevMs, long timeMs) {
+        return prevMs < 0 || timeMs < prevMs ? -1 : timeMs - prevMs;
+    }
+
+    private void maybePersonalBest(String label, SplitRecord rec) {
+        // keep the other time base's best up to date silently
+        RunClock.Mode other = timing == RunClock.Mode.IGT ? RunClock.Mode.RTA : RunClock.Mode.IGT;
+        bestSplits(other).improve(label, rec.time(other));
+
+        long timeMs = rec.time(timing);
+        Long old = bestSplits(timing).get(label);
+        if (bestSplits(timing).improve(label, timeMs)) {
+            out.personalBest(label, timeMs, old, rec.playerName);
+        }
+    }
+
+    private BestTimes bestSplits(RunClock.Mode mode) {
+        return mode == RunClock.Mode.IGT ? bestSplitsIgt : bestSplits;
+    }
+
+    private BestTimes bestSegments(RunClock.Mode mode) {
+        return mode == RunClock.Mode.IGT ? bestSegmentsIgt : bestSegments;
+    }
+
+    /**
+     * Sum of best segments, and the predicted finish: the furthest split reached plus the best
+     * segments after it. Only called when a split lands or bests are loaded, never per tick.
+     */
+    private void recomputePace() {
+        BestTimes segs = bestSegments(timing);
+        int n = milestones.size();
+
+        int last = -1;
+        for (int m = n - 1; m >= 0; m--) {
+            if (splits[m] != null) {
+                last = m;
+                break;
+            }
+        }
+
+        long sum = 0;
+        long rest = 0;
+        for (int m = 0; m < n; m++) {
+            Long seg = segs.get(milestones.get(m));
+            if (sum >= 0) sum = seg == null ? -1 : sum + seg;
+            if (m > last && rest >= 0) rest = seg == null ? -1 : rest + seg;
+        }
+
+        sumOfBest = sum;
+        if (last < 0) predictedMs = sum;
+        else predictedMs = rest < 0 ? -1 : splits[last].time(timing) + rest;
+    }
+
+    long sumOfBest() {
+        return sumOfBest;
+    }
+
+    long predictedMs() {
+        return predictedMs;
+    }
+
+    void mergeBest(RunJournal.BestIndex loaded) {
+        bestSplits.merge(loaded.rta);
+        bestSplitsIgt.merge(loaded.igt);
+        bestSegments.merge(loaded.segmentsRta);
+        bestSegmentsIgt.merge(loaded.segmentsIgt);
+        recomputePace();
+    }
+
+    // ------------------------------------------------------------
+    // CHECKPOINT (crash-safe resume)
+    // ------------------------------------------------------------
+
+    /**
+     * Hand the run state to the checkpoint thread: everything when full (run start, resume,
+     * server stop, or when the file has grown enough), else the clock and the players whose
+     * stats changed. Only copies values into the log's reused batch; the JSON and the write
+     * happen on the checkpoint thread.
+     */
+    void checkpoint(boolean full) {
+        RunCheckpoint.Log log = checkpoint;
+        if (log == null || !active()) return;
+        checkpointTickCounter = 0;
+        if (config.checkpointIntervalTicks <= 0) {
+            if (log.exists()) log.delete(); // switched off: don't resume a stale state later
+            return;
+        }
+
+        if (full || !log.exists() || log.needsCompaction()) {
+            log.start(team, runStartMs, milestones);
+            for (int m = 0; m < splits.length; m++) {
+                if (splits[m] != null) log.split(m, checkpointSplit(splits[m]));
+            }
+            for (int slot = 0; slot < stats.size(); slot++) {
+                log.player(stats, slot, entityTypes);
+            }
+        } else {
+            for (int slot = stats.nextChanged(0); slot >= 0; slot = stats.nextChanged(slot + 1)) {
+                log.player(stats, slot, entityTypes);
+            }
+        }
+        stats.clearChanged();
+        log.clock(clock.rtaMs(), clock.ticks(), wallClock.getAsLong());
+        log.flush();
+    }
+
+    private static RunCheckpoint.Split checkpointSplit(SplitRecord r) {
+        return new RunCheckpoint.Split(r.playerId, r.playerName, r.timeMs, r.igtMs, r.segmentMs, r.segmentIgtMs);
+    }
+
+    // ------------------------------------------------------------
+    // STORAGE SNAPSHOT
+    // ------------------------------------------------------------
+
+    // team names end up in run ids (/splits run <id>): keep them to one word
+    private static String idTag(String team) {
+        StringBuilder sb = new StringBuilder(team.length());
+        for (int i = 0; i < team.length(); i++) {
+            char c = team.charAt(i);
+            boolean ok = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '_' || c == '.' || c == '+';
+            sb.append(ok ? c : '_');
+        }
+        return sb.toString();
+    }
+
+    private void save(String endReason, String endPlayerName) {
+        String runId = idPrefix + runStartMs + "-" + runEndMs;
+
+        // best run id "current" -> this run
+        bestSplits.resolveCurrent(runId);
+        bestSplitsIgt.resolveCurrent(runId);
+        bestSegments.resolveCurrent(runId);
+        bestSegmentsIgt.resolveCurrent(runId);
+
+        List<RunSnapshot.Split> list = new ArrayList<>();
+        for (int m = 0; m < splits.length; m++) {
+            SplitRecord r = splits[m];
+            if (r == null) continue;
+            list.add(new RunSnapshot.Split(milestones.get(m), r.timeMs, r.igtMs, r.segmentMs, r.segmentIgtMs,
+                    r.playerName, r.playerId.toString()));
+        }
+
+        out.save(new RunSnapshot(runId, team.isEmpty() ? null : team, runStartMs, runEndMs, clock.rtaMs(), clock.igtMs(),
+                failed, completed, endReason, endPlayerName, list,
+                bestSplits.snapshot(), bestSplitsIgt.snapshot(), bestSegments.snapshot(), bestSegmentsIgt.snapshot(),
+                endTimeline()));
+    }
+
+    // Stops recording; the name tables only cover ids that actually occur in the file
+    private RunSnapshot.Timeline endTimeline() {
+        DamageTimeline.Track tl = timeline;
+        DamageTimeline.Summary sum = tl != null ? tl.end() : null;
+        if (sum == null) return null;
+
+        List<String> players = new ArrayList<>();
+        for (int i = 0; i < stats.size(); i++) {
+            players.add(stats.name(i));
+        }
+
+        DamageTypeTable types = damageTypes;
+        Map<Integer, String> damageTypeNames = new LinkedHashMap<>();
+        for (int id = sum.damageTypeIds.nextSetBit(0); id >= 0; id = sum.damageTypeIds.nextSetBit(id + 1)) {
+            damageTypeNames.put(id, types.contains(id) ? types.name(id) : "unknown");
+        }
+
+        Map<Integer, String> attackerNames = new LinkedHashMap<>();
+        for (int id = sum.attackerTypeIds.nextSetBit(0); id >= 0; id = sum.attackerTypeIds.nextSetBit(id + 1)) {
+            attackerNames.put(id, attackerTypeNames.apply(id));
+        }
+
+        return new RunSnapshot.Timeline(sum.file, sum.records, sum.dropped, players, damageTypeNames, attackerNames);
+    }
+
+    // ------------------------------------------------------------
+    // SIDEBAR + ACTIONBAR (diffed, only changes reach the output)
+    // ------------------------------------------------------------
+
+    /** Forget what is on screen (new objective); the next render sends every line. */
+    void resetSidebar() {
+        Arrays.fill(sidebarLines, null);
+    }
+
+    void renderSidebar() {
+        String[] desired = new String[SIDEBAR_TOP_SCORE + 1];
+        int score = SIDEBAR_TOP_SCORE;
+        int width = config.sidebarMaxLength;
+
+        if (ended()) {
+            desired[score--] = SplitFormat.statusSidebarLine(completed);
+        }
+
+        // ALL milestones always (baseline = best split; if achieved show actual + delta)
+        BestTimes best = bestSplits(timing);
+        for (int m = 0; m < milestones.size() && score > 0; m++) {
+            String label = milestones.get(m);
+            SplitRecord r = splits[m];
+            desired[score--] = SplitFormat.milestoneSidebarLine(label, best.get(label), r != null ? r.time(timing) : -1, width);
+        }
+
+        // cached; only changes when a split lands
+        if (score > 0 && predictedMs >= 0 && !ended()) {
+            desired[score--] = SplitFormat.predictedSidebarLine(predictedMs, width);
+        }
+        if (score > 0 && sumOfBest >= 0) {
+            desired[score--] = SplitFormat.sumOfBestSidebarLine(sumOfBest, width);
+        }
+
+        // live "most damage" (read from the incremental top list)
+        if (score > 0 && stats.topSize() > 0) {
+            int slot = stats.top(0);
+            desired[score--] = SplitFormat.damageSidebarLine(stats.name(slot), stats.taken(slot), width);
+        }
+
+        for (int s = 1; s <= SIDEBAR_TOP_SCORE; s++) {
+            String old = sidebarLines[s];
+            if (Objects.equals(old, desired[s])) continue;
+            sidebarLines[s] = desired[s];
+            out.sidebarLine(s, desired[s], old == null);
+        }
+    }
+
+    // Only reaches the output when the text changes (never once the run is over)
+    private void updateActionbar() {
+        int state = completed ? COMPLETED : (failed ? FAILED : RUNNING);
+
+        StringBuilder sb = actionbarBuf;
+        sb.setLength(0);
+        SplitFormat.appendDuration(sb, clock.elapsedMs(timing), actionbarTenths); // frozen after fail/complete
+
+        if (state == actionbarState && actionbarTime != null && actionbarTime.contentEquals(sb)) return;
+
+        actionbarState = state;
+        actionbarTime = sb.toString();
+        out.actionbar(state, actionbarTime);
+    }
+}
@@ -0,0 +1,256 @@
+package nl.alliantie.damagelogger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory index over all stored runs, for the /splits queries.
+ *
+ * Runs are kept compact (times in long arrays per milestone) and sorted by start time.
+ * Per milestone and time base the split times are kept in a sorted primitive array, so
+ * median/p90 are an array read. Until the first query the arrays are only appended to and
+ * sorted once (loading the journal is one sort, not one insert per run); after that a new
+ * run is a binary search + arraycopy. Best segments are a running minimum, so sum-of-best is
+ * one pass over the milestones. Derived numbers are cached in {@link Stats} until the
+ * next run is added.
+ *
+ * Not thread-safe: the mod confines it to one background thread.
+ */
+final class RunHistory {
+
+    static final int RTA = 0;
+    static final int IGT = 1;
+
+    /** One stored run; times are -1 when unknown / not reached. */
+    static final class Run {
+        final String runId;
+        final long startMs;
+        final long durationMs;
+        final long igtMs;
+        final boolean completed;
+        final boolean failed;
+        final String endReason;
+        final String endPlayer;
+        final long[] splitRta;   // by milestone index
+        final long[] splitIgt;
+        final String[] splitPlayer;
+
+        private Run(String runId, long startMs, long durationMs, long igtMs, boolean completed, boolean failed,
+                    String endReason, String endPlayer, long[] splitRta, long[] splitIgt, String[] splitPlayer) {
+            this.runId = runId;
+            this.startMs = startMs;
+            this.durationMs = durationMs;
+            this.igtMs = igtMs;
+            this.completed = completed;
+            this.failed = failed;
+            this.endReason = endReason;
+            this.endPlayer = endPlayer;
+            this.splitRta = splitRta;
+            this.splitIgt = splitIgt;
+            this.splitPlayer = splitPlayer;
+        }
+
+        long split(int mode, int milestone) {
+            return mode == IGT ? splitIgt[milestone] : splitRta[milestone];
+        }
+
+        long total(int mode) {
+            return mode == IGT ? igtMs : durationMs;
+        }
+
+        int reached() {
+            int n = 0;
+            for (long t : splitRta) {
+                if (t >= 0) n++;
+            }
+            return n;
+        }
+    }
+
+    /** Snapshot of the derived numbers for one time base. Immutable. */
+    static final class Stats {
+        final int runs;
+        final int completed;
+        final long[] median; // by milestone, -1 = no data
+        final long[] p90;
+        final int[] samples;
+        final long[] bestSegment;
+        final long sumOfBest; // -1 until every milestone has a segment
+
+        private Stats(int runs, int completed, long[] median, long[] p90, int[] samples, long[] bestSegment, long sumOfBest) {
+            this.runs = runs;
+            this.completed = completed;
+            this.median = median;
+            this.p90 = p90;
+            this.samples = samples;
+            this.bestSegment = bestSegment;
+            this.sumOfBest = sumOfBest;
+        }
+
+        double completionRate() {
+            return runs == 0 ? 0 : (double) completed / runs;
+        }
+    }
+
+    private final List<String> labels;
+    private final Map<String, Integer> labelIndex = new HashMap<>();
+
+    private final List<Run> runs = new ArrayList<>(); // ascending startMs
+    private final Map<String, Run> byId = new HashMap<>();
+    private int completed = 0;
+
+    // [mode][milestone] -> split times (first sizes[mode][milestone] entries are valid),
+    // sorted unless unsorted[mode] is set (true until the first stats() call)
+    private final long[][][] sorted;
+    private final int[][] sizes;
+    private final boolean[] unsorted = {true, true};
+    // [mode][milestone] -> fastest segment (split minus the previous milestone's split)
+    private final long[][] bestSegment;
+
+    private final Stats[] cache = new Stats[2];
+
+    /** @param labels milestone labels in run order (segment i goes from label i-1 to label i) */
+    RunHistory(List<String> labels) {
+        this.labels = List.copyOf(labels);
+        for (int i = 0; i < this.labels.size(); i++) {
+            labelIndex.put(this.labels.get(i), i);
+        }
+
+        int n = this.labels.size();
+        this.sorted = new long[2][n][16];
+        this.sizes = new int[2][n];
+        this.bestSegment = new long[2][n];
+        for (long[] b : bestSegment) Arrays.fill(b, -1);
+    }
+
+    List<String> labels() {
+        return labels;
+    }
+
+    /** Adds a run; a run id that is already indexed is ignored. */
+    boolean add(RunSnapshot snap) {
+        if (snap.runId == null || byId.containsKey(snap.runId)) return false;
+
+        int n = labels.size();
+        long[] rta = new long[n];
+        long[] igt = new long[n];
+        String[] player = new String[n];
+        Arrays.fill(rta, -1);
+        Arrays.fill(igt, -1);
+        for (RunSnapshot.Split sp : snap.splits) {
+            Integer i = labelIndex.get(sp.label);
+            if (i == null) continue;
+            rta[i] = sp.timeMs;
+            igt[i] = sp.igtMs;
+            player[i] = sp.playerName;
+        }
+
+        Run run = new Run(snap.runId, snap.startMs, snap.durationMs, snap.igtMs, snap.completed, snap.failed,
+                snap.endReason, snap.endPlayer, rta, igt, player);
+
+        // nearly always an append; older runs can arrive while the journal is still being read
+        int pos = runs.size();
+        while (pos > 0 && runs.get(pos - 1).startMs > run.startMs) pos--;
+        runs.add(pos, run);
+        byId.put(run.runId, run);
+        if (run.completed) completed++;
+
+        for (int mode = RTA; mode <= IGT; mode++) {
+            for (int m = 0; m < n; m++) {
+                long t = run.split(mode, m);
+                if (t < 0) continue;
+                addSplitTime(mode, m, t);
+
+                long prev = m == 0 ? 0 : run.split(mode, m - 1);
+                if (prev < 0 || t < prev) continue;
+                long seg = t - prev;
+                if (bestSegment[mode][m] < 0 || seg < bestSegment[mode][m]) bestSegment[mode][m] = seg;
+            }
+        }
+
+        cache[RTA] = null;
+        cache[IGT] = null;
+        return true;
+    }
+
+    int size() {
+        return runs.size();
+    }
+
+    Run run(String runId) {
+        return byId.get(runId);
+    }
+
+    /** The newest runs, newest first. */
+    List<Run> recent(int count) {
+        int from = Math.max(0, runs.size() - count);
+        List<Run> out = new ArrayList<>(runs.subList(from, runs.size()));
+        Collections.reverse(out);
+        return out;
+    }
+
+    long bestSegment(int mode, int milestone) {
+        return bestSegment[mode][milestone];
+    }
+
+    Stats stats(int mode) {
+        Stats s = cache[mode];
+        if (s != null) return s;
+
+        int n = labels.size();
+        if (unsorted[mode]) {
+            for (int m = 0; m < n; m++) {
+                Arrays.sort(sorted[mode][m], 0, sizes[mode][m]);
+            }
+            unsorted[mode] = false;
+        }
+
+        long[] median = new long[n];
+        long[] p90 = new long[n];
+        int[] samples = new int[n];
+        long sum = 0;
+        for (int m = 0; m < n; m++) {
+            int size = sizes[mode][m];
+            samples[m] = size;
+            median[m] = percentile(mode, m, 50);
+            p90[m] = percentile(mode, m, 90);
+
+            long seg = bestSegment[mode][m];
+            if (sum >= 0) sum = seg < 0 ? -1 : sum + seg;
+        }
+
+        s = new Stats(runs.size(), completed, median, p90, samples, bestSegment[mode].clone(), sum);
+        cache[mode] = s;
+        return s;
+    }
+
+    // nearest-rank percentile over the sorted split times
+    private long percentile(int mode, int milestone, int pct) {
+        int size = sizes[mode][milestone];
+        if (size == 0) return -1;
+        int rank = (int) Math.ceil(pct / 100.0 * size);
+        return sorted[mode][milestone][Math.max(0, rank - 1)];
+    }
+
+    private void addSplitTime(int mode, int milestone, long t) {
+        long[] a = sorted[mode][milestone];
+        int size = sizes[mode][milestone];
+        if (size == a.length) {
+            a = Arrays.copyOf(a, size * 2);
+            sorted[mode][milestone] = a;
+        }
+
+        int pos = size;
+        if (!unsorted[mode]) {
+            pos = Arrays.binarySearch(a, 0, size, t);
+            if (pos < 0) pos = -pos - 1;
+            System.arraycopy(a, pos, a, pos + 1, size - pos);
+        }
+        a[pos] = t;
+        sizes[mode][milestone] = size + 1;
+    }
+}
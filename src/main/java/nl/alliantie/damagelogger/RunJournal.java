@@ -0,0 +1,763 @@
+package nl.alliantie.damagelogger;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Append-only run history.
+ *
+ * Layout in the splits directory:
+ *   runs.jsonl  one compact JSON object per finished run, appended + fsync'd
+ *   runs-0001.jsonl.gz, ...  older runs, archived at startup once runs.jsonl reached {@link #ARCHIVE_BYTES}
+ *   best.json   small index with the best time and best segment per milestone over all runs,
+ *               plus the length of runs.jsonl it covers
+ *   best.idx    the same as a memory-mapped binary file (what the game reads on load, see {@link BestIndexFile})
+ *   run-*.dtl   binary damage timeline per run (written by {@link DamageTimeline}, linked as "timeline")
+ *
+ * Saving a run appends one line and rewrites the (tiny) best index, so it costs the same
+ * no matter how many runs are on disk. Archiving keeps runs.jsonl itself bounded, so a
+ * repair or rebuild after a crash only rewrites the runs since the last archive. An old
+ * single-document runs.json is migrated once.
+ */
+final class RunJournal implements RunStore {
+
+    static final String JOURNAL_FILE = "runs.jsonl";
+    static final String BEST_FILE = "best.json";
+    static final String LEGACY_FILE = "runs.json";
+    static final String ARCHIVE_PREFIX = "runs-";
+    static final long ARCHIVE_BYTES = 16L * 1024 * 1024;
+
+    /** Best split and best segment per milestone, for both timing modes. */
+    static final class BestIndex {
+        final Map<String, RunSnapshot.Best> rta;
+        final Map<String, RunSnapshot.Best> igt;
+        final Map<String, RunSnapshot.Best> segmentsRta;
+        final Map<String, RunSnapshot.Best> segmentsIgt;
+
+        BestIndex(Map<String, RunSnapshot.Best> rta, Map<String, RunSnapshot.Best> igt,
+                  Map<String, RunSnapshot.Best> segmentsRta, Map<String, RunSnapshot.Best> segmentsIgt) {
+            this.rta = rta;
+            this.igt = igt;
+            this.segmentsRta = segmentsRta;
+            this.segmentsIgt = segmentsIgt;
+        }
+
+        /** The bests a saved run carries (as known right after it ended). */
+        static BestIndex of(RunSnapshot r) {
+            return new BestIndex(r.bestSplits, r.bestSplitsIgt, r.bestSegments, r.bestSegmentsIgt);
+        }
+
+        /** Lowest time per label from both; on a tie this index keeps its run id. */
+        BestIndex merged(BestIndex other) {
+            return new BestIndex(min(rta, other.rta), min(igt, other.igt),
+                    min(segmentsRta, other.segmentsRta), min(segmentsIgt, other.segmentsIgt));
+        }
+
+        private static Map<String, RunSnapshot.Best> min(Map<String, RunSnapshot.Best> a, Map<String, RunSnapshot.Best> b) {
+            Map<String, RunSnapshot.Best> out = new LinkedHashMap<>(a);
+            for (Map.Entry<String, RunSnapshot.Best> e : b.entrySet()) {
+                RunSnapshot.Best cur = out.get(e.getKey());
+                if (cur == null || e.getValue().timeMs < cur.timeMs) out.put(e.getKey(), e.getValue());
+            }
+            return out;
+        }
+    }
+
+    private static final Gson COMPACT = new Gson();
+    private static final Gson PRETTY = new GsonBuilder().setPrettyPrinting().create();
+
+    private final Path dir;
+    private final Path journal;
+    private final Path bestFile;
+    private final Path legacyFile;
+    private final BestIndexFile indexFile;
+    // what best.json holds now; set by open() and every writeBest (storage thread), read by readBest
+    private volatile BestIndex written = null;
+
+    RunJournal(Path dir) {
+        this.dir = dir;
+        this.journal = dir.resolve(JOURNAL_FILE);
+        this.bestFile = dir.resolve(BEST_FILE);
+        this.legacyFile = dir.resolve(LEGACY_FILE);
+        this.indexFile = new BestIndexFile(dir.resolve(BestIndexFile.FILE_NAME));
+    }
+
+    Path dir() {
+        return dir;
+    }
+
+    // ------------------------------------------------------------
+    // STARTUP (storage thread): migrate + repair + compact
+    // ------------------------------------------------------------
+
+    @Override
+    public void open() throws IOException {
+        Files.createDirectories(dir);
+
+        if (!Files.exists(journal) && Files.exists(legacyFile)) {
+            migrateLegacy();
+            return;
+        }
+
+        finishArchiving();
+
+        // a dirty best.idx, or a best.json that covers another journal length, means a save was
+        // cut off somewhere between the append and the index (a best.json from before the
+        // length was recorded is taken as it is; the next save records it)
+        boolean tornTail = repairTornTail();
+        long covered = storedJournalBytes();
+        if (tornTail || (Files.exists(journal) && !Files.exists(bestFile)) || indexFile.torn()
+                || (covered >= 0 && covered != journalBytes())) {
+            compact();
+        }
+
+        if (written == null) {
+            // before the first write can dirty it: a missing best.idx is written from best.json here, and only here
+            BestIndex best = indexFile.read();
+            if (best == null) {
+                best = loadBest();
+                if (Files.exists(bestFile)) indexFile.update(best);
+            }
+            written = best;
+        }
+
+        if (journalBytes() >= ARCHIVE_BYTES) archive();
+    }
+
+    /**
+     * Rewrite the journal without malformed lines and duplicate run ids, and rebuild the
+     * best index from it and the archives. Only needed after a crash or when best.json went
+     * missing.
+     */
+    void compact() throws IOException {
+        List<Path> archives = archives();
+        if (!Files.exists(journal) && archives.isEmpty()) return;
+        indexFile.invalidate();
+
+        Set<String> seen = new HashSet<>();
+        Map<String, RunSnapshot.Best> best = new LinkedHashMap<>();
+        Map<String, RunSnapshot.Best> bestIgt = new LinkedHashMap<>();
+        Map<String, RunSnapshot.Best> bestSeg = new LinkedHashMap<>();
+        Map<String, RunSnapshot.Best> bestSegIgt = new LinkedHashMap<>();
+
+        // archived runs only count towards the bests; the files are left as they are
+        for (Path archive : archives) {
+            try (BufferedReader br = reader(archive)) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    JsonObject run = parseRunLine(line);
+                    if (run == null) continue;
+                    String runId = run.has("runId") ? run.get("runId").getAsString() : null;
+                    if (runId != null && !seen.add(runId)) continue;
+                    mergeBest(best, run, runId, "timeMs");
+                    mergeBest(bestIgt, run, runId, "igtMs");
+                    mergeBest(bestSeg, run, runId, "segMs");
+                    mergeBest(bestSegIgt, run, runId, "segIgtMs");
+                }
+            }
+        }
+
+        if (Files.exists(journal)) {
+            Path tmp = journal.resolveSibling(JOURNAL_FILE + ".tmp");
+            try (BufferedReader br = Files.newBufferedReader(journal, StandardCharsets.UTF_8);
+                 BufferedWriter bw = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8,
+                         StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    JsonObject run = parseRunLine(line);
+                    if (run == null) continue;
+
+                    String runId = run.has("runId") ? run.get("runId").getAsString() : null;
+                    if (runId != null && !seen.add(runId)) continue;
+
+                    mergeBest(best, run, runId, "timeMs");
+                    mergeBest(bestIgt, run, runId, "igtMs");
+                    mergeBest(bestSeg, run, runId, "segMs");
+                    mergeBest(bestSegIgt, run, runId, "segIgtMs");
+                    bw.write(COMPACT.toJson(run));
+                    bw.write('\n');
+                }
+            }
+            fsync(tmp);
+            moveAtomic(tmp, journal);
+        }
+        writeBest(new BestIndex(best, bestIgt, bestSeg, bestSegIgt));
+    }
+
+    // ------------------------------------------------------------
+    // ARCHIVE (startup, storage thread): keeps runs.jsonl bounded
+    // ------------------------------------------------------------
+
+    /**
+     * Move runs.jsonl to the next runs-NNNN.jsonl and compress it. The rename is the
+     * commit point: from then on the runs are in the archive and the next save starts a
+     * fresh journal. best.json (which covers all runs) only gets the new journal length.
+     */
+    private void archive() throws IOException {
+        List<Path> archives = archives();
+        int n = archives.isEmpty() ? 1 : archiveNumber(archives.get(archives.size() - 1)) + 1;
+        Path plain = dir.resolve(String.format(Locale.ROOT, "%s%04d.jsonl", ARCHIVE_PREFIX, n));
+
+        moveAtomic(journal, plain);
+        writeBest(written); // a crash before this shows up as a length mismatch and rebuilds
+        compressArchive(plain);
+    }
+
+    // A crash while archiving leaves runs-NNNN.jsonl: compress it, or drop it when the .gz made it
+    private void finishArchiving() throws IOException {
+        for (Path archive : archives()) {
+            if (archive.getFileName().toString().endsWith(".jsonl")) compressArchive(archive);
+        }
+    }
+
+    private void compressArchive(Path plain) throws IOException {
+        Path gz = plain.resolveSibling(plain.getFileName() + ".gz");
+        if (!Files.exists(gz)) {
+            Path tmp = gz.resolveSibling(gz.getFileName() + ".tmp");
+            try (GZIPOutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+                Files.copy(plain, out);
+            }
+            fsync(tmp);
+            moveAtomic(tmp, gz);
+        }
+        Files.delete(plain);
+    }
+
+    /** runs-NNNN.jsonl[.gz], oldest first; the plain file wins when both are there (it is complete). */
+    private List<Path> archives() throws IOException {
+        TreeMap<Integer, Path> byNumber = new TreeMap<>();
+        if (!Files.isDirectory(dir)) return new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, ARCHIVE_PREFIX + "*.{jsonl,jsonl.gz}")) {
+            for (Path f : files) {
+                int n = archiveNumber(f);
+                if (n < 0) continue;
+                if (f.getFileName().toString().endsWith(".jsonl") || !byNumber.containsKey(n)) byNumber.put(n, f);
+            }
+        }
+        return new ArrayList<>(byNumber.values());
+    }
+
+    private static int archiveNumber(Path archive) {
+        String name = archive.getFileName().toString();
+        int end = name.indexOf('.');
+        try {
+            return Integer.parseInt(name.substring(ARCHIVE_PREFIX.length(), end));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static BufferedReader reader(Path file) throws IOException {
+        if (!file.getFileName().toString().endsWith(".gz")) return Files.newBufferedReader(file, StandardCharsets.UTF_8);
+        return new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8));
+    }
+
+    private long journalBytes() throws IOException {
+        return Files.exists(journal) ? Files.size(journal) : 0;
+    }
+
+    // "journalBytes" from best.json; -1 when there is none (no file, or written before it was recorded)
+    private long storedJournalBytes() {
+        if (!Files.exists(bestFile)) return -1;
+        try (JsonReader in = new JsonReader(Files.newBufferedReader(bestFile, StandardCharsets.UTF_8))) {
+            if (in.peek() != JsonToken.BEGIN_OBJECT) return -1;
+            in.beginObject();
+            while (in.hasNext()) {
+                if ("journalBytes".equals(in.nextName()) && in.peek() == JsonToken.NUMBER) return in.nextLong();
+                in.skipValue();
+            }
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+        return -1;
+    }
+
+    private void migrateLegacy() throws IOException {
+        JsonObject root;
+        try (BufferedReader br = Files.newBufferedReader(legacyFile, StandardCharsets.UTF_8)) {
+            JsonElement el = JsonParser.parseReader(br);
+            if (el == null || !el.isJsonObject()) return;
+            root = el.getAsJsonObject();
+        } catch (Throwable t) {
+            // unreadable legacy file: leave it alone, start a fresh journal
+            return;
+        }
+
+        indexFile.invalidate();
+        Map<String, RunSnapshot.Best> best = new LinkedHashMap<>();
+        Map<String, RunSnapshot.Best> bestIgt = new LinkedHashMap<>();
+        Path tmp = journal.resolveSibling(JOURNAL_FILE + ".tmp");
+        try (BufferedWriter bw = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (root.has("runs") && root.get("runs").isJsonArray()) {
+                for (JsonElement e : root.getAsJsonArray("runs")) {
+                    if (!e.isJsonObject()) continue;
+                    JsonObject run = e.getAsJsonObject();
+                    String runId = run.has("runId") ? run.get("runId").getAsString() : null;
+                    mergeBest(best, run, runId, "timeMs");
+                    mergeBest(bestIgt, run, runId, "igtMs");
+                    bw.write(COMPACT.toJson(run));
+                    bw.write('\n');
+                }
+            }
+        }
+        fsync(tmp);
+        moveAtomic(tmp, journal);
+
+        // prefer the stored bestSplits (keeps whatever run ids were recorded there)
+        Map<String, RunSnapshot.Best> stored = parseBest(root.has("bestSplits") && root.get("bestSplits").isJsonObject()
+                ? root.getAsJsonObject("bestSplits") : new JsonObject());
+        // legacy runs have no segment times; segment bests start with the next run
+        writeBest(new BestIndex(stored.isEmpty() ? best : stored, bestIgt, new LinkedHashMap<>(), new LinkedHashMap<>()));
+
+        Files.move(legacyFile, legacyFile.resolveSibling(LEGACY_FILE + ".migrated"), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * A crash in the middle of an append leaves a partial last line. Cut it off.
+     * Only looks at the tail of the file.
+     */
+    private boolean repairTornTail() throws IOException {
+        if (!Files.exists(journal)) return false;
+
+        try (FileChannel ch = FileChannel.open(journal, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = ch.size();
+            if (size == 0) return false;
+
+            ByteBuffer one = ByteBuffer.allocate(1);
+            ch.read(one, size - 1);
+            if (one.get(0) == '\n') return false;
+
+            // scan backwards in small blocks for the last newline
+            ByteBuffer buf = ByteBuffer.allocate(4096);
+            long end = size;
+            while (end > 0) {
+                long start = Math.max(0, end - buf.capacity());
+                buf.clear();
+                buf.limit((int) (end - start));
+                ch.read(buf, start);
+                for (int i = buf.limit() - 1; i >= 0; i--) {
+                    if (buf.get(i) == '\n') {
+                        ch.truncate(start + i + 1);
+                        ch.force(true);
+                        return true;
+                    }
+                }
+                end = start;
+            }
+            ch.truncate(0);
+            ch.force(true);
+            return true;
+        }
+    }
+
+    // ------------------------------------------------------------
+    // APPEND (storage thread)
+    // ------------------------------------------------------------
+
+    @Override
+    public void write(List<RunSnapshot> batch) throws IOException {
+        Files.createDirectories(dir);
+        // the bests the batch merges into, read before best.idx goes dirty (open() normally has them)
+        BestIndex best = written != null ? written : loadBest();
+        indexFile.invalidate(); // until writeBest has stored the new bests
+
+        StringBuilder sb = new StringBuilder(512 * batch.size());
+        for (RunSnapshot r : batch) {
+            sb.append(COMPACT.toJson(toJson(r))).append('\n');
+        }
+
+        ByteBuffer bytes = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        try (FileChannel ch = FileChannel.open(journal,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (bytes.hasRemaining()) {
+                ch.write(bytes);
+            }
+            ch.force(false);
+        }
+
+        // merge, don't replace: with concurrent runs a snapshot may not know another run's golds yet
+        for (RunSnapshot r : batch) {
+            best = best.merged(BestIndex.of(r));
+        }
+        writeBest(best);
+    }
+
+    static JsonObject toJson(RunSnapshot r) {
+        JsonObject run = new JsonObject();
+        run.addProperty("runId", r.runId);
+        if (r.team != null) run.addProperty("team", r.team);
+        run.addProperty("startMs", r.startMs);
+        run.addProperty("endMs", r.endMs);
+        run.addProperty("durationMs", r.durationMs);
+        run.addProperty("igtMs", r.igtMs);
+        run.addProperty("failed", r.failed);
+        run.addProperty("completed", r.completed);
+        run.addProperty("endReason", r.endReason);
+        if (r.endPlayer != null) run.addProperty("endPlayer", r.endPlayer);
+
+        JsonObject splitsObj = new JsonObject();
+        for (RunSnapshot.Split sp : r.splits) {
+            JsonObject s = new JsonObject();
+            s.addProperty("timeMs", sp.timeMs);
+            s.addProperty("igtMs", sp.igtMs);
+            if (sp.segmentMs >= 0) s.addProperty("segMs", sp.segmentMs);
+            if (sp.segmentIgtMs >= 0) s.addProperty("segIgtMs", sp.segmentIgtMs);
+            s.addProperty("player", sp.playerName);
+            s.addProperty("playerUuid", sp.playerUuid);
+            splitsObj.add(sp.label, s);
+        }
+        run.add("splits", splitsObj);
+
+        if (r.timeline != null) {
+            run.add("timeline", timelineToJson(r.timeline));
+        }
+        return run;
+    }
+
+    static JsonObject timelineToJson(RunSnapshot.Timeline t) {
+        JsonObject tl = new JsonObject();
+        tl.addProperty("file", t.file);
+        tl.addProperty("records", t.records);
+        tl.addProperty("dropped", t.dropped);
+
+        JsonArray players = new JsonArray();
+        for (String p : t.players) players.add(p);
+        tl.add("players", players);
+
+        tl.add("damageTypes", idNamesToJson(t.damageTypes));
+        tl.add("attackerTypes", idNamesToJson(t.attackerTypes));
+        return tl;
+    }
+
+    private static JsonObject idNamesToJson(Map<Integer, String> names) {
+        JsonObject o = new JsonObject();
+        for (Map.Entry<Integer, String> e : names.entrySet()) {
+            o.addProperty(String.valueOf(e.getKey()), e.getValue());
+        }
+        return o;
+    }
+
+    // ------------------------------------------------------------
+    // HISTORY (read back for the in-game index)
+    // ------------------------------------------------------------
+
+    /**
+     * Stream every stored run to the consumer, oldest first: the archives, then runs.jsonl.
+     * One line is parsed at a time; malformed lines are skipped. Call after {@link #open()}
+     * (migration/repair).
+     */
+    @Override
+    public void readRuns(Consumer<RunSnapshot> out) throws IOException {
+        List<Path> files = archives();
+        if (Files.exists(journal)) files.add(journal);
+
+        for (Path file : files) {
+            try (BufferedReader br = reader(file)) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    JsonObject run = parseRunLine(line);
+                    if (run == null) continue;
+                    RunSnapshot snap = fromJson(run);
+                    if (snap != null) out.accept(snap);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read-only counterpart of {@link #open()} + {@link #readRuns} + {@link #readBest()}, for
+     * importing into another store: streams the archives and runs.jsonl (or the runs of a
+     * legacy runs.json when there is no journal yet), skipping malformed lines and repeated
+     * run ids, and returns the stored bests merged with the bests of those runs (what a
+     * compact would rebuild). Nothing on disk is migrated, repaired, compacted or archived.
+     */
+    BestIndex readForImport(Consumer<RunSnapshot> out) throws IOException {
+        Set<String> seen = new HashSet<>();
+        Map<String, RunSnapshot.Best> best = new LinkedHashMap<>();
+        Map<String, RunSnapshot.Best> bestIgt = new LinkedHashMap<>();
+        Map<String, RunSnapshot.Best> bestSeg = new LinkedHashMap<>();
+        Map<String, RunSnapshot.Best> bestSegIgt = new LinkedHashMap<>();
+        Consumer<JsonObject> accept = run -> {
+            String runId = run.has("runId") ? run.get("runId").getAsString() : null;
+            if (runId != null && !seen.add(runId)) return;
+            mergeBest(best, run, runId, "timeMs");
+            mergeBest(bestIgt, run, runId, "igtMs");
+            mergeBest(bestSeg, run, runId, "segMs");
+            mergeBest(bestSegIgt, run, runId, "segIgtMs");
+            RunSnapshot snap = fromJson(run);
+            if (snap != null) out.accept(snap);
+        };
+
+        List<Path> files = archives();
+        if (Files.exists(journal)) files.add(journal);
+        for (Path file : files) {
+            try (BufferedReader br = reader(file)) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    JsonObject run = parseRunLine(line);
+                    if (run != null) accept.accept(run);
+                }
+            }
+        }
+        if (files.isEmpty() && Files.exists(legacyFile)) readLegacyRuns(accept);
+
+        Path src = Files.exists(bestFile) ? bestFile : (Files.exists(legacyFile) ? legacyFile : null);
+        BestIndex stored = src != null ? readBestStreaming(src)
+                : new BestIndex(new LinkedHashMap<>(), new LinkedHashMap<>(), new LinkedHashMap<>(), new LinkedHashMap<>());
+        return stored.merged(new BestIndex(best, bestIgt, bestSeg, bestSegIgt));
+    }
+
+    // The "runs" array of a legacy runs.json, one run object at a time; an unreadable file yields nothing
+    private void readLegacyRuns(Consumer<JsonObject> out) throws IOException {
+        try (JsonReader in = new JsonReader(Files.newBufferedReader(legacyFile, StandardCharsets.UTF_8))) {
+            if (in.peek() != JsonToken.BEGIN_OBJECT) return;
+            in.beginObject();
+            while (in.hasNext()) {
+                if (!in.nextName().equals("runs") || in.peek() != JsonToken.BEGIN_ARRAY) {
+                    in.skipValue();
+                    continue;
+                }
+                in.beginArray();
+                while (in.hasNext()) {
+                    JsonElement el = JsonParser.parseReader(in);
+                    if (el.isJsonObject()) out.accept(el.getAsJsonObject());
+                }
+                in.endArray();
+            }
+            in.endObject();
+        } catch (IOException | RuntimeException ignored) {
+            // malformed legacy file: keep what was read so far (migrateLegacy leaves it alone too)
+        }
+    }
+
+    // Inverse of toJson, tolerant of entries written by older versions (no igtMs, no durationMs)
+    static RunSnapshot fromJson(JsonObject run) {
+        try {
+            if (!run.has("runId")) return null;
+            long startMs = longOr(run, "startMs", -1);
+            long endMs = longOr(run, "endMs", -1);
+            long durationMs = longOr(run, "durationMs", startMs >= 0 && endMs >= startMs ? endMs - startMs : -1);
+
+            List<RunSnapshot.Split> splits = new ArrayList<>();
+            if (run.has("splits") && run.get("splits").isJsonObject()) {
+                JsonObject so = run.getAsJsonObject("splits");
+                for (String label : so.keySet()) {
+                    JsonElement el = so.get(label);
+                    if (el == null || !el.isJsonObject()) continue;
+                    JsonObject s = el.getAsJsonObject();
+                    if (!s.has("timeMs")) continue;
+                    splits.add(new RunSnapshot.Split(label, s.get("timeMs").getAsLong(), longOr(s, "igtMs", -1),
+                            longOr(s, "segMs", -1), longOr(s, "segIgtMs", -1), stringOr(s, "player", null), stringOr(s, "playerUuid", null)));
+                }
+            }
+
+            return new RunSnapshot(run.get("runId").getAsString(), stringOr(run, "team", null), startMs, endMs, durationMs, longOr(run, "igtMs", -1),
+                    run.has("failed") && run.get("failed").getAsBoolean(),
+                    run.has("completed") && run.get("completed").getAsBoolean(),
+                    stringOr(run, "endReason", null), stringOr(run, "endPlayer", null), splits,
+                    Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(), null);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static long longOr(JsonObject o, String key, long fallback) {
+        JsonElement el = o.get(key);
+        return el != null && el.isJsonPrimitive() ? el.getAsLong() : fallback;
+    }
+
+    private static String stringOr(JsonObject o, String key, String fallback) {
+        JsonElement el = o.get(key);
+        return el != null && el.isJsonPrimitive() ? el.getAsString() : fallback;
+    }
+
+    // ------------------------------------------------------------
+    // BEST INDEX
+    // ------------------------------------------------------------
+
+    /**
+     * Read the best split per milestone: what the last open() or save stored, else from the
+     * mapped best.idx, or when that is missing or dirty from best.json. Never touches
+     * best.idx: only the storage thread marks it clean, after best.json has the bests.
+     */
+    @Override
+    public BestIndex readBest() throws IOException {
+        BestIndex w = written;
+        return w != null ? w : loadBest();
+    }
+
+    /**
+     * best.idx when it is clean, else best.json (or the legacy runs.json). The file is
+     * streamed and everything except the best objects is skipped, so a legacy runs.json
+     * with a huge "runs" array is never built in memory.
+     */
+    private BestIndex loadBest() throws IOException {
+        BestIndex mapped = indexFile.read();
+        if (mapped != null) return mapped;
+
+        Path src = Files.exists(bestFile) ? bestFile : (Files.exists(legacyFile) ? legacyFile : null);
+        if (src == null) return new BestIndex(new LinkedHashMap<>(), new LinkedHashMap<>(), new LinkedHashMap<>(), new LinkedHashMap<>());
+        return readBestStreaming(src);
+    }
+
+    static BestIndex readBestStreaming(Path src) throws IOException {
+        Map<String, RunSnapshot.Best> rta = new LinkedHashMap<>();
+        Map<String, RunSnapshot.Best> igt = new LinkedHashMap<>();
+        Map<String, RunSnapshot.Best> segRta = new LinkedHashMap<>();
+        Map<String, RunSnapshot.Best> segIgt = new LinkedHashMap<>();
+
+        try (JsonReader in = new JsonReader(Files.newBufferedReader(src, StandardCharsets.UTF_8))) {
+            if (in.peek() != JsonToken.BEGIN_OBJECT) return new BestIndex(rta, igt, segRta, segIgt);
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                Map<String, RunSnapshot.Best> target = switch (name) {
+                    case "bestSplits" -> rta;
+                    case "bestSplitsIgt" -> igt;
+                    case "bestSegments" -> segRta;
+                    case "bestSegmentsIgt" -> segIgt;
+                    default -> null;
+                };
+                if (target == null || in.peek() != JsonToken.BEGIN_OBJECT) {
+                    in.skipValue(); // "runs" and anything else
+                    continue;
+                }
+                readBestObject(in, target);
+            }
+            in.endObject();
+        }
+        return new BestIndex(rta, igt, segRta, segIgt);
+    }
+
+    private static void readBestObject(JsonReader in, Map<String, RunSnapshot.Best> out) throws IOException {
+        in.beginObject();
+        while (in.hasNext()) {
+            String label = in.nextName();
+            if (in.peek() != JsonToken.BEGIN_OBJECT) {
+                in.skipValue();
+                continue;
+            }
+
+            long timeMs = -1;
+            String runId = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                String field = in.nextName();
+                if ("timeMs".equals(field) && in.peek() == JsonToken.NUMBER) timeMs = in.nextLong();
+                else if ("runId".equals(field) && in.peek() == JsonToken.STRING) runId = in.nextString();
+                else in.skipValue();
+            }
+            in.endObject();
+
+            if (timeMs >= 0) out.put(label, new RunSnapshot.Best(timeMs, runId));
+        }
+        in.endObject();
+    }
+
+    private void writeBest(BestIndex index) throws IOException {
+        JsonObject root = new JsonObject();
+        root.addProperty("version", 4);
+        root.addProperty("journalBytes", journalBytes()); // what open() compares runs.jsonl against
+        root.add("bestSplits", bestToJson(index.rta));
+        root.add("bestSplitsIgt", bestToJson(index.igt));
+        root.add("bestSegments", bestToJson(index.segmentsRta));
+        root.add("bestSegmentsIgt", bestToJson(index.segmentsIgt));
+
+        Path tmp = bestFile.resolveSibling(BEST_FILE + ".tmp");
+        try (BufferedWriter bw = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            bw.write(PRETTY.toJson(root));
+        }
+        fsync(tmp);
+        moveAtomic(tmp, bestFile);
+        written = index;
+        indexFile.update(index);
+    }
+
+    private static JsonObject bestToJson(Map<String, RunSnapshot.Best> bestSplits) {
+        JsonObject best = new JsonObject();
+        for (Map.Entry<String, RunSnapshot.Best> e : bestSplits.entrySet()) {
+            JsonObject b = new JsonObject();
+            b.addProperty("timeMs", e.getValue().timeMs);
+            if (e.getValue().runId != null) b.addProperty("runId", e.getValue().runId);
+            best.add(e.getKey(), b);
+        }
+        return best;
+    }
+
+    private static Map<String, RunSnapshot.Best> parseBest(JsonObject best) {
+        Map<String, RunSnapshot.Best> out = new LinkedHashMap<>();
+        for (String k : best.keySet()) {
+            JsonElement el = best.get(k);
+            if (el == null || !el.isJsonObject()) continue;
+            JsonObject b = el.getAsJsonObject();
+            if (!b.has("timeMs")) continue;
+            out.put(k, new RunSnapshot.Best(b.get("timeMs").getAsLong(),
+                    b.has("runId") ? b.get("runId").getAsString() : null));
+        }
+        return out;
+    }
+
+    private static void mergeBest(Map<String, RunSnapshot.Best> best, JsonObject run, String runId, String timeField) {
+        if (!run.has("splits") || !run.get("splits").isJsonObject()) return;
+        JsonObject splits = run.getAsJsonObject("splits");
+        for (String label : splits.keySet()) {
+            JsonElement el = splits.get(label);
+            if (el == null || !el.isJsonObject() || !el.getAsJsonObject().has(timeField)) continue;
+            long t = el.getAsJsonObject().get(timeField).getAsLong();
+            RunSnapshot.Best cur = best.get(label);
+            if (cur == null || t < cur.timeMs) {
+                best.put(label, new RunSnapshot.Best(t, runId));
+            }
+        }
+    }
+
+    private static JsonObject parseRunLine(String line) {
+        if (line.isBlank()) return null;
+        try {
+            JsonElement el = JsonParser.parseString(line);
+            return el != null && el.isJsonObject() ? el.getAsJsonObject() : null;
+        } catch (Throwable ignored) {
+            return null;
+        }
+    }
+
+    // ------------------------------------------------------------
+    // FILE HELPERS
+    // ------------------------------------------------------------
+
+    private static void fsync(Path p) throws IOException {
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+    }
+
+    private static void moveAtomic(Path tmp, Path target) throws IOException {
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package nl.alliantie.damagelogger;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable copy of a finished run, taken on the server thread and handed to the
+ * storage writer. Nothing in here may point back into live (mutable) run state.
+ */
+final class RunSnapshot {
+
+    static final class Split {
+        final String label;
+        final long timeMs; // RTA
+        final long igtMs;
+        // time since the previous milestone, -1 if that one was not reached (first: since the start)
+        final long segmentMs;
+        final long segmentIgtMs;
+        final String playerName;
+        final String playerUuid;
+
+        Split(String label, long timeMs, long igtMs, long segmentMs, long segmentIgtMs, String playerName, String playerUuid) {
+            this.label = label;
+            this.timeMs = timeMs;
+            this.igtMs = igtMs;
+            this.segmentMs = segmentMs;
+            this.segmentIgtMs = segmentIgtMs;
+            this.playerName = playerName;
+            this.playerUuid = playerUuid;
+        }
+    }
+
+    static final class Best {
+        final long timeMs;
+        final String runId; // may be null
+
+        Best(long timeMs, String runId) {
+            this.timeMs = timeMs;
+            this.runId = runId;
+        }
+    }
+
+    /** Link to the binary damage timeline of this run, with the names its raw ids refer to. */
+    static final class Timeline {
+        final String file; // relative to the splits directory
+        final long records;
+        final long dropped;
+        final List<String> players; // by player slot
+        final Map<Integer, String> damageTypes;
+        final Map<Integer, String> attackerTypes;
+
+        Timeline(String file, long records, long dropped, List<String> players,
+                 Map<Integer, String> damageTypes, Map<Integer, String> attackerTypes) {
+            this.file = file;
+            this.records = records;
+            this.dropped = dropped;
+            this.players = List.copyOf(players);
+            this.damageTypes = Collections.unmodifiableMap(new LinkedHashMap<>(damageTypes));
+            this.attackerTypes = Collections.unmodifiableMap(new LinkedHashMap<>(attackerTypes));
+        }
+    }
+
+    final String runId;
+    final String team; // scoreboard team of the run, null for the default run
+    final long startMs; // wall clock, for humans and run ids
+    final long endMs;
+    final long durationMs; // RTA, monotonic
+    final long igtMs;
+    final boolean failed;
+    final boolean completed;
+    final String endReason;
+    final String endPlayer; // may be null
+    final List<Split> splits;
+    // best splits as known right after this run (label -> best), per timing mode
+    final Map<String, Best> bestSplits;
+    final Map<String, Best> bestSplitsIgt;
+    // best segment (milestone label -> time since the previous milestone), per timing mode
+    final Map<String, Best> bestSegments;
+    final Map<String, Best> bestSegmentsIgt;
+    final Timeline timeline; // may be null
+
+    RunSnapshot(String runId, String team, long startMs, long endMs, long durationMs, long igtMs, boolean failed, boolean completed,
+                String endReason, String endPlayer, List<Split> splits,
+                Map<String, Best> bestSplits, Map<String, Best> bestSplitsIgt,
+                Map<String, Best> bestSegments, Map<String, Best> bestSegmentsIgt, Timeline timeline) {
+        this.runId = runId;
+        this.team = team;
+        this.startMs = startMs;
+        this.endMs = endMs;
+        this.durationMs = durationMs;
+        this.igtMs = igtMs;
+        this.failed = failed;
+        this.completed = completed;
+        this.endReason = endReason;
+        this.endPlayer = endPlayer;
+        this.splits = List.copyOf(splits);
+        this.bestSplits = Collections.unmodifiableMap(new LinkedHashMap<>(bestSplits));
+        this.bestSplitsIgt = Collections.unmodifiableMap(new LinkedHashMap<>(bestSplitsIgt));
+        this.bestSegments = Collections.unmodifiableMap(new LinkedHashMap<>(bestSegments));
+        this.bestSegmentsIgt = Collections.unmodifiableMap(new LinkedHashMap<>(bestSegmentsIgt));
+        this.timeline = timeline;
+    }
+}
@@ -0,0 +1,381 @@
+package nl.alliantie.damagelogger;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Per-player statistics for the current run, stored column-wise in primitive arrays.
+ *
+ * Every player gets a slot the first time they are seen; a hit is a few array writes and
+ * never boxes. The top {@link #TOP_K} by damage taken and by damage dealt are kept up to
+ * date on every hit (damage only goes up during a run), so the leaderboards can be read at
+ * any moment without copying or sorting. Slots that changed are flagged for the next run
+ * checkpoint.
+ *
+ * Damage dealt is kept per target entity type (raw registry id) and per weapon. Weapons are
+ * columns shared by the run, found by an int key the caller derives from the registries;
+ * only a weapon's first hit in a run resolves its name.
+ * Server thread only.
+ */
+final class RunStats {
+
+    static final int TOP_K = 5;
+    // DamageTypeTable.NORMAL and DamageTypeTable.DOT; IGNORE is never counted
+    static final int CATEGORIES = 2;
+
+    private final Map<UUID, Integer> slotOf = new HashMap<>();
+    private int size = 0;
+
+    private UUID[] ids = new UUID[8];
+    private String[] names = new String[8];
+    private float[] taken = new float[8];
+    private float[] takenByCategory = new float[8 * CATEGORIES];
+    private int[] hits = new int[8];
+    private float[] biggestHit = new float[8];
+    private int[] lowHealthTicks = new int[8];
+
+    // damage dealt: per slot, by target entity type raw id and by weapon column (grown on first use)
+    private float[] dealt = new float[8];
+    private int[] dealtHits = new int[8];
+    private float[][] dealtTo = new float[8][];
+    private int[][] dealtHitsTo = new int[8][];
+    private float[][] dealtWith = new float[8][];
+
+    // weapon columns of this run: key -> column + 1 (0 = not seen yet)
+    private int[] weaponOfKey = new int[64];
+    private String[] weaponNames = new String[8];
+    private int weapons = 0;
+    private final Map<String, Integer> weaponOfName = new HashMap<>();
+
+    // slots ordered by damage taken, highest first
+    private final int[] top = new int[TOP_K];
+    private int topSize = 0;
+    // slots ordered by damage dealt, highest first
+    private final int[] topDealt = new int[TOP_K];
+    private int topDealtSize = 0;
+
+    // slots changed since the last checkpoint (RunCheckpoint)
+    private final BitSet changed = new BitSet();
+
+    /** Slot of this player, or -1 if they have no stats yet. */
+    int slot(UUID id) {
+        Integer s = slotOf.get(id);
+        return s == null ? -1 : s;
+    }
+
+    /** Slot of this player, assigned on first use. */
+    int slot(UUID id, String name) {
+        Integer s = slotOf.get(id);
+        if (s != null) return s;
+
+        if (size == ids.length) grow();
+        int slot = size++;
+        ids[slot] = id;
+        names[slot] = name;
+        slotOf.put(id, slot);
+        changed.set(slot);
+        return slot;
+    }
+
+    /** A player as stored in a checkpoint; call in slot order on cleared stats, so slots stay the same. */
+    int restore(UUID id, String name, float taken, float takenNormal, float takenDot, int hits, float biggestHit, int lowHealthTicks) {
+        int slot = slot(id, name);
+        this.taken[slot] = taken;
+        takenByCategory[slot * CATEGORIES + DamageTypeTable.NORMAL] = takenNormal;
+        takenByCategory[slot * CATEGORIES + DamageTypeTable.DOT] = takenDot;
+        this.hits[slot] = hits;
+        this.biggestHit[slot] = biggestHit;
+        this.lowHealthTicks[slot] = lowHealthTicks;
+        if (taken > 0f) topSize = updateTop(top, topSize, this.taken, slot);
+        return slot;
+    }
+
+    /** Checkpointed damage dealt to one target type; the totals are the sum over the targets. */
+    void restoreDealt(int slot, int targetType, float amount, int hits) {
+        if (targetType < 0 || amount <= 0f) return;
+        fitTarget(slot, targetType);
+        dealtTo[slot][targetType] += amount;
+        dealtHitsTo[slot][targetType] += hits;
+        dealt[slot] += amount;
+        dealtHits[slot] += hits;
+        topDealtSize = updateTop(topDealt, topDealtSize, dealt, slot);
+    }
+
+    /** Checkpointed damage dealt with one weapon; the column gets its key on the next hit with it. */
+    void restoreDealtWith(int slot, String weaponName, float amount) {
+        if (amount <= 0f) return;
+        int weapon = addWeapon(-1, weaponName);
+        fitWeapon(slot, weapon);
+        dealtWith[slot][weapon] += amount;
+    }
+
+    void hit(int slot, byte category, float amount) {
+        if (amount <= 0f || category < 0 || category >= CATEGORIES) return;
+
+        taken[slot] += amount;
+        takenByCategory[slot * CATEGORIES + category] += amount;
+        hits[slot]++;
+        if (amount > biggestHit[slot]) biggestHit[slot] = amount;
+        changed.set(slot);
+
+        topSize = updateTop(top, topSize, taken, slot);
+    }
+
+    /**
+     * Damage this player dealt.
+     *
+     * @param targetType entity type raw id of what was hit
+     * @param weapon     column from {@link #weapon} / {@link #addWeapon}, -1 if unknown
+     */
+    void dealt(int slot, int targetType, int weapon, float amount) {
+        if (amount <= 0f || targetType < 0) return;
+
+        float[] to = dealtTo[slot];
+        if (to == null || targetType >= to.length) to = fitTarget(slot, targetType);
+        to[targetType] += amount;
+        dealtHitsTo[slot][targetType]++;
+        if (weapon >= 0) {
+            float[] with = dealtWith[slot];
+            if (with == null || weapon >= with.length) with = fitWeapon(slot, weapon);
+            with[weapon] += amount;
+        }
+        dealt[slot] += amount;
+        dealtHits[slot]++;
+        changed.set(slot);
+
+        topDealtSize = updateTop(topDealt, topDealtSize, dealt, slot);
+    }
+
+    /** Column of this weapon key, -1 if it wasn't used this run yet. */
+    int weapon(int key) {
+        return key >= 0 && key < weaponOfKey.length ? weaponOfKey[key] - 1 : -1;
+    }
+
+    /** Column for this weapon, added on first use; key -1 only looks up or adds the name. */
+    int addWeapon(int key, String name) {
+        Integer known = weaponOfName.get(name);
+        int weapon;
+        if (known != null) {
+            weapon = known;
+        } else {
+            if (weapons == weaponNames.length) weaponNames = Arrays.copyOf(weaponNames, weapons * 2);
+            weapon = weapons++;
+            weaponNames[weapon] = name;
+            weaponOfName.put(name, weapon);
+        }
+        if (key >= 0) {
+            if (key >= weaponOfKey.length) weaponOfKey = Arrays.copyOf(weaponOfKey, Math.max(key + 1, weaponOfKey.length * 2));
+            weaponOfKey[key] = weapon + 1;
+        }
+        return weapon;
+    }
+
+    void lowHealthTick(int slot) {
+        lowHealthTicks[slot]++;
+        changed.set(slot);
+    }
+
+    /** Next slot at or after this one that changed since {@link #clearChanged()}, -1 if none. */
+    int nextChanged(int from) {
+        return changed.nextSetBit(from);
+    }
+
+    void clearChanged() {
+        changed.clear();
+    }
+
+    void clear() {
+        slotOf.clear();
+        Arrays.fill(ids, 0, size, null);
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(taken, 0, size, 0f);
+        Arrays.fill(takenByCategory, 0, size * CATEGORIES, 0f);
+        Arrays.fill(hits, 0, size, 0);
+        Arrays.fill(biggestHit, 0, size, 0f);
+        Arrays.fill(lowHealthTicks, 0, size, 0);
+        Arrays.fill(dealt, 0, size, 0f);
+        Arrays.fill(dealtHits, 0, size, 0);
+        Arrays.fill(dealtTo, 0, size, null);
+        Arrays.fill(dealtHitsTo, 0, size, null);
+        Arrays.fill(dealtWith, 0, size, null);
+        Arrays.fill(weaponOfKey, 0);
+        Arrays.fill(weaponNames, 0, weapons, null);
+        weapons = 0;
+        weaponOfName.clear();
+        size = 0;
+        topSize = 0;
+        topDealtSize = 0;
+        changed.clear();
+    }
+
+    int size() {
+        return size;
+    }
+
+    UUID id(int slot) {
+        return ids[slot];
+    }
+
+    String name(int slot) {
+        return names[slot];
+    }
+
+    float taken(int slot) {
+        return taken[slot];
+    }
+
+    float taken(int slot, byte category) {
+        return takenByCategory[slot * CATEGORIES + category];
+    }
+
+    int hits(int slot) {
+        return hits[slot];
+    }
+
+    float biggestHit(int slot) {
+        return biggestHit[slot];
+    }
+
+    int lowHealthTicks(int slot) {
+        return lowHealthTicks[slot];
+    }
+
+    float dealt(int slot) {
+        return dealt[slot];
+    }
+
+    int dealtHits(int slot) {
+        return dealtHits[slot];
+    }
+
+    /** Upper bound (exclusive) of the target type ids this player has dealt damage to. */
+    int dealtTargetTypes(int slot) {
+        float[] to = dealtTo[slot];
+        return to != null ? to.length : 0;
+    }
+
+    float dealtTo(int slot, int targetType) {
+        float[] to = dealtTo[slot];
+        return to != null && targetType >= 0 && targetType < to.length ? to[targetType] : 0f;
+    }
+
+    int dealtHitsTo(int slot, int targetType) {
+        int[] to = dealtHitsTo[slot];
+        return to != null && targetType >= 0 && targetType < to.length ? to[targetType] : 0;
+    }
+
+    int weapons() {
+        return weapons;
+    }
+
+    String weaponName(int weapon) {
+        return weaponNames[weapon];
+    }
+
+    float dealtWith(int slot, int weapon) {
+        float[] with = dealtWith[slot];
+        return with != null && weapon < with.length ? with[weapon] : 0f;
+    }
+
+    /** Target type this player dealt the most damage to, -1 if none. */
+    int topTarget(int slot) {
+        return argMax(dealtTo[slot]);
+    }
+
+    /** Weapon column this player dealt the most damage with, -1 if none. */
+    int topWeapon(int slot) {
+        return argMax(dealtWith[slot]);
+    }
+
+    int topSize() {
+        return topSize;
+    }
+
+    /** Slot at this leaderboard position (0 = most damage taken). */
+    int top(int rank) {
+        return top[rank];
+    }
+
+    int topDealtSize() {
+        return topDealtSize;
+    }
+
+    /** Slot at this leaderboard position (0 = most damage dealt). */
+    int topDealt(int rank) {
+        return topDealt[rank];
+    }
+
+    // values[slot] only grew, so at most this slot moves up (or enters at the bottom); returns the new size
+    private static int updateTop(int[] top, int topSize, float[] values, int slot) {
+        int pos = -1;
+        for (int i = 0; i < topSize; i++) {
+            if (top[i] == slot) {
+                pos = i;
+                break;
+            }
+        }
+
+        if (pos < 0) {
+            if (topSize < TOP_K) {
+                pos = topSize++;
+            } else if (values[slot] > values[top[TOP_K - 1]]) {
+                pos = TOP_K - 1;
+            } else {
+                return topSize;
+            }
+        }
+
+        float v = values[slot];
+        while (pos > 0 && values[top[pos - 1]] < v) {
+            top[pos] = top[pos - 1];
+            pos--;
+        }
+        top[pos] = slot;
+        return topSize;
+    }
+
+    private static int argMax(float[] a) {
+        if (a == null) return -1;
+        int best = -1;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] > 0f && (best < 0 || a[i] > a[best])) best = i;
+        }
+        return best;
+    }
+
+    private float[] fitTarget(int slot, int targetType) {
+        float[] to = dealtTo[slot];
+        if (to != null && targetType < to.length) return to;
+        int n = Math.max(targetType + 1, to != null ? to.length * 2 : 0);
+        dealtTo[slot] = to = to != null ? Arrays.copyOf(to, n) : new float[n];
+        dealtHitsTo[slot] = dealtHitsTo[slot] != null ? Arrays.copyOf(dealtHitsTo[slot], n) : new int[n];
+        return to;
+    }
+
+    private float[] fitWeapon(int slot, int weapon) {
+        float[] with = dealtWith[slot];
+        if (with != null && weapon < with.length) return with;
+        int n = Math.max(Math.max(weapon + 1, weapons), with != null ? with.length * 2 : 0);
+        dealtWith[slot] = with = with != null ? Arrays.copyOf(with, n) : new float[n];
+        return with;
+    }
+
+    private void grow() {
+        int n = ids.length * 2;
+        ids = Arrays.copyOf(ids, n);
+        names = Arrays.copyOf(names, n);
+        taken = Arrays.copyOf(taken, n);
+        takenByCategory = Arrays.copyOf(takenByCategory, n * CATEGORIES);
+        hits = Arrays.copyOf(hits, n);
+        biggestHit = Arrays.copyOf(biggestHit, n);
+        lowHealthTicks = Arrays.copyOf(lowHealthTicks, n);
+        dealt = Arrays.copyOf(dealt, n);
+        dealtHits = Arrays.copyOf(dealtHits, n);
+        dealtTo = Arrays.copyOf(dealtTo, n);
+        dealtHitsTo = Arrays.copyOf(dealtHitsTo, n);
+        dealtWith = Arrays.copyOf(dealtWith, n);
+    }
+}
@@ -0,0 +1,161 @@
+package nl.alliantie.damagelogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-writer persistence thread for finished runs.
+ *
+ * The server thread only builds a {@link RunSnapshot} and offers it to a bounded queue.
+ * The writer thread drains everything that is queued at that moment and hands it to the
+ * sink as one batch, so back-to-back saves cost one file write instead of several.
+ * The outcome of every run is reported through the {@link Listener}; the listener decides
+ * on which thread it continues (the mod hops back to the server thread for chat).
+ * A sink that fails to open is reported there too and stays available as {@link #openError()};
+ * runs are still handed to it, each with its own outcome.
+ */
+final class RunStorageWriter {
+
+    interface Sink {
+        // called once on the writer thread before the first write (migration, repair, ...)
+        default void open() throws Exception {}
+
+        void write(List<RunSnapshot> batch) throws Exception;
+
+        // called once on the writer thread after the last write (connections, locks, ...)
+        default void close() throws Exception {}
+    }
+
+    interface Listener {
+        void saved(RunSnapshot run);
+
+        void failed(RunSnapshot run, Throwable error);
+
+        // Sink.open() threw; called once, on the writer thread
+        void openFailed(Throwable error);
+    }
+
+    private static final int QUEUE_CAPACITY = 64;
+    private static final long POLL_MS = 250;
+
+    private final BlockingQueue<RunSnapshot> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Sink sink;
+    private final Listener listener;
+    private final Thread thread;
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+    private volatile Throwable openError = null;
+    private volatile boolean closed = false;
+
+    RunStorageWriter(String threadName, Sink sink, Listener listener) {
+        this.sink = sink;
+        this.listener = listener;
+        this.thread = new Thread(this::loop, threadName);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Completes on the writer thread once {@link Sink#open()} has run, exceptionally (with
+     * the open error) if it threw. The thread starts in the constructor, so this may already
+     * be complete when a stage is attached; a non-async stage then runs on the calling thread.
+     * Attach with the *Async variants and an executor to keep work off the server thread.
+     * Stages are not ordered against writes.
+     */
+    CompletableFuture<Void> ready() {
+        return ready;
+    }
+
+    /** Why {@link Sink#open()} failed; null if it succeeded or has not run yet. */
+    Throwable openError() {
+        return openError;
+    }
+
+    /**
+     * Queue a run for saving. Never blocks; a full queue or a closed writer is reported
+     * as a failure through the listener.
+     */
+    void submit(RunSnapshot run) {
+        if (closed) {
+            listener.failed(run, new IllegalStateException("storage writer is closed"));
+            return;
+        }
+        if (!queue.offer(run)) {
+            listener.failed(run, new IllegalStateException("storage queue full"));
+        }
+    }
+
+    /**
+     * Stop accepting new runs, write whatever is still queued and wait for the thread
+     * to finish (bounded by timeoutMs).
+     */
+    void close(long timeoutMs) {
+        closed = true;
+        // no interrupt: that would close an NIO channel in the middle of a write
+        try {
+            thread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void loop() {
+        try {
+            sink.open();
+            ready.complete(null);
+        } catch (Throwable t) {
+            // writes still get their own error reporting
+            openError = t;
+            try {
+                listener.openFailed(t);
+            } catch (Throwable ignored) {}
+            ready.completeExceptionally(t);
+        }
+
+        List<RunSnapshot> batch = new ArrayList<>();
+        while (true) {
+            try {
+                RunSnapshot first = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                }
+            } catch (InterruptedException ignored) {}
+
+            queue.drainTo(batch);
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+                batch.clear();
+            }
+
+            if (closed && queue.isEmpty()) break;
+        }
+
+        try {
+            sink.close();
+        } catch (Throwable ignored) {}
+    }
+
+    private void writeBatch(List<RunSnapshot> batch) {
+        try {
+            sink.write(batch);
+        } catch (Throwable t) {
+            for (RunSnapshot r : batch) {
+                safeReport(r, t);
+            }
+            return;
+        }
+        for (RunSnapshot r : batch) {
+            safeReport(r, null);
+        }
+    }
+
+    private void safeReport(RunSnapshot run, Throwable error) {
+        try {
+            if (error == null) listener.saved(run);
+            else listener.failed(run, error);
+        } catch (Throwable ignored) {}
+    }
+}
@@ -0,0 +1,29 @@
+package nl.alliantie.damagelogger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Where finished runs are kept: written in batches by the {@link RunStorageWriter}, read back
+ * for the best splits (at server start) and the /splits history.
+ *
+ * Two implementations, picked with {@code storage} in the config: {@link RunJournal}
+ * (runs.jsonl + best.json, the default) and {@link RunDatabase} (an embedded H2 file).
+ * Reads may come from any thread, but only after {@link #open()} has run.
+ */
+interface RunStore extends RunStorageWriter.Sink {
+
+    /** Best split and best segment per milestone over everything stored. */
+    RunJournal.BestIndex readBest() throws IOException;
+
+    /** Stream every stored run to the consumer, oldest first. */
+    void readRuns(Consumer<RunSnapshot> out) throws IOException;
+
+    static RunStore of(DamageLoggerConfig.Storage kind, Path dir) {
+        return switch (kind) {
+            case JOURNAL -> new RunJournal(dir);
+            case H2 -> new RunDatabase(dir);
+        };
+    }
+}
@@ -0,0 +1,74 @@
+package nl.alliantie.damagelogger;
+
+import net.minecraft.server.PlayerManager;
+import net.minecraft.server.network.ServerPlayerEntity;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * Version-sensitive server entry points, looked up once at init.
+ *
+ * Everything here used to be found by reflection on every call. Now the lookup happens in
+ * {@link #init()} and the result is kept as a {@link MethodHandle} (or null when the running
+ * version simply doesn't have it, in which case the caller falls back to vanilla behaviour).
+ */
+final class ServerCompat {
+
+    // (PlayerManager, ServerPlayerEntity) -> void, trailing parameters already bound
+    private static MethodHandle respawnPlayer = null;
+
+    private ServerCompat() {}
+
+    static void init() {
+        respawnPlayer = findRespawnPlayer();
+    }
+
+    /**
+     * Respawn a (dead) player server-side, bypassing the hardcore "Game Over" screen.
+     * Note: this replaces the player entity; look the player up again afterwards.
+     */
+    static boolean respawn(PlayerManager pm, ServerPlayerEntity player) {
+        MethodHandle mh = respawnPlayer;
+        if (mh == null) return false;
+        try {
+            mh.invokeExact(pm, player);
+            return true;
+        } catch (Throwable ignored) {
+            // If it fails, we just fall back to manual "Spectate World" click.
+            return false;
+        }
+    }
+
+    private static MethodHandle findRespawnPlayer() {
+        try {
+            // Find a respawnPlayer(...) method that matches our mappings/runtime
+            for (Method m : PlayerManager.class.getMethods()) {
+                if (!m.getName().equals("respawnPlayer")) continue;
+                Class<?>[] p = m.getParameterTypes();
+                if (p.length < 2) continue;
+                if (!ServerPlayerEntity.class.isAssignableFrom(p[0])) continue;
+
+                // Common Yarn signatures look like:
+                // respawnPlayer(ServerPlayerEntity, boolean)
+                // respawnPlayer(ServerPlayerEntity, boolean, RemovalReason)
+                // respawnPlayer(ServerPlayerEntity, boolean, Entity.RemovalReason, ...)
+                if (p[1] != boolean.class && p[1] != Boolean.class) continue;
+
+                Object[] bound = new Object[p.length - 1];
+                bound[0] = Boolean.TRUE; // keep inventory / or "alive-ish" depending on version; true is safest here
+                // fill remaining params with null/false defaults
+                for (int i = 2; i < p.length; i++) {
+                    bound[i - 1] = p[i] == boolean.class ? Boolean.FALSE : null;
+                }
+
+                MethodHandle mh = MethodHandles.publicLookup().unreflect(m);
+                mh = MethodHandles.insertArguments(mh, 2, bound);
+                return mh.asType(MethodType.methodType(void.class, PlayerManager.class, ServerPlayerEntity.class));
+            }
+        } catch (Throwable ignored) {}
+        return null;
+    }
+}
@@ -0,0 +1,118 @@
+package nl.alliantie.damagelogger;
+
+import java.util.Locale;
+
+/**
+ * Time and sidebar text formatting. Plain strings with legacy color codes only, so it can
+ * be used (and benchmarked) without a running server.
+ */
+final class SplitFormat {
+
+    // Formatting.X.toString()
+    private static final String WHITE = "§f";
+    private static final String GRAY = "§7";
+    private static final String DARK_GRAY = "§8";
+    private static final String GOLD = "§6";
+    private static final String AQUA = "§b";
+    private static final String GREEN = "§a";
+    private static final String RED = "§c";
+    private static final String DARK_RED = "§4";
+    private static final String DARK_AQUA = "§3";
+
+    // default for the sidebarMaxLength setting
+    static final int SIDEBAR_MAX_LENGTH = 38;
+
+    private SplitFormat() {}
+
+    static String formatDuration(long ms) {
+        StringBuilder sb = new StringBuilder(8);
+        appendDuration(sb, ms, false);
+        return sb.toString();
+    }
+
+    // formatDuration, with "--:--:--" for unknown (-1)
+    static String formatTime(long ms) {
+        return ms < 0 ? "--:--:--" : formatDuration(ms);
+    }
+
+    // HH:MM:SS (or HH:MM:SS.t), no String.format
+    static void appendDuration(StringBuilder sb, long ms, boolean tenths) {
+        if (ms < 0) ms = 0;
+        long t = ms / 1000;
+        long h = t / 3600;
+        long m = (t % 3600) / 60;
+        long s = t % 60;
+        if (h < 10) sb.append('0');
+        sb.append(h).append(':');
+        if (m < 10) sb.append('0');
+        sb.append(m).append(':');
+        if (s < 10) sb.append('0');
+        sb.append(s);
+        if (tenths) sb.append('.').append((ms % 1000) / 100);
+    }
+
+    static String trimToSafeLength(String s, int max) {
+        if (s == null) return "";
+        if (s.length() <= max) return s;
+        return s.substring(0, max);
+    }
+
+    /**
+     * One milestone line of the splits sidebar.
+     *
+     * @param best      best split for this milestone, null if unknown
+     * @param timeMs    this run's split, -1 if not reached yet
+     * @param maxLength longer lines are cut off (color codes count)
+     */
+    static String milestoneSidebarLine(String label, Long best, long timeMs, int maxLength) {
+        if (timeMs < 0) {
+            // Not achieved: show best time if known, else "--:--:--"
+            String baseTime = (best != null) ? formatDuration(best) : "--:--:--";
+            // Baseline line is gray-ish to indicate "target"
+            return trimToSafeLength(DARK_GRAY + label + " " + GRAY + baseTime, maxLength);
+        }
+
+        // Achieved: show current time
+        String current = formatDuration(timeMs);
+
+        // If no best known yet: just show current
+        if (best == null) {
+            return trimToSafeLength(WHITE + label + " " + GOLD + current, maxLength);
+        }
+
+        // Delta vs best: + slower (red), - faster (green)
+        long diffMs = timeMs - best; // + slower, - faster
+        String sign = diffMs >= 0 ? "+" : "-";
+        String delta = (diffMs <= 0 ? GREEN : RED) + sign + formatDuration(Math.abs(diffMs));
+
+        // Example: "IRON 00:02:10 (+00:00:07)"
+        String line = WHITE + label + " "
+                + GOLD + current
+                + DARK_GRAY + " ("
+                + delta
+                + DARK_GRAY + ")";
+
+        return trimToSafeLength(line, maxLength);
+    }
+
+    // status line on top of the sidebar once the run is over
+    static String statusSidebarLine(boolean completed) {
+        return completed ? GREEN + "COMPLETED" : DARK_RED + "FAILED";
+    }
+
+    // "PACE 01:23:45": furthest split + best segments still to go
+    static String predictedSidebarLine(long predictedMs, int maxLength) {
+        return trimToSafeLength(GRAY + "PACE " + GOLD + formatDuration(predictedMs), maxLength);
+    }
+
+    // "SoB 01:20:00": sum of best segments
+    static String sumOfBestSidebarLine(long sumOfBestMs, int maxLength) {
+        return trimToSafeLength(DARK_AQUA + "SoB " + AQUA + formatDuration(sumOfBestMs), maxLength);
+    }
+
+    // live "most damage taken" line, e.g. "DMG Steve 42.5♥"
+    static String damageSidebarLine(String name, float taken, int maxLength) {
+        return trimToSafeLength(DARK_AQUA + "DMG " + WHITE + name + " " + RED
+                + String.format(Locale.ROOT, "%.1f♥", taken), maxLength);
+    }
+}
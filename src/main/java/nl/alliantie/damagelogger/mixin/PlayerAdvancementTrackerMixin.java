@@ -0,0 +1,30 @@
+package nl.alliantie.damagelogger.mixin;
+
+import net.minecraft.advancement.AdvancementEntry;
+import net.minecraft.advancement.AdvancementProgress;
+import net.minecraft.advancement.PlayerAdvancementTracker;
+import net.minecraft.server.network.ServerPlayerEntity;
+import nl.alliantie.damagelogger.DamageLoggerMod;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+// Report a split the moment the last criterion of an advancement is granted
+@Mixin(PlayerAdvancementTracker.class)
+public abstract class PlayerAdvancementTrackerMixin {
+
+	@Shadow
+	private ServerPlayerEntity owner;
+
+	@Shadow
+	public abstract AdvancementProgress getProgress(AdvancementEntry advancement);
+
+	@Inject(method = "grantCriterion", at = @At("RETURN"))
+	private void damagelogger$onGrantCriterion(AdvancementEntry advancement, String criterionName, CallbackInfoReturnable<Boolean> cir) {
+		if (!cir.getReturnValue()) return;
+		if (!getProgress(advancement).isDone()) return;
+		DamageLoggerMod.onAdvancementCompleted(owner, advancement);
+	}
+}
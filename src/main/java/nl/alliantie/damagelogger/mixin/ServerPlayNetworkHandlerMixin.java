@@ -0,0 +1,27 @@
+package nl.alliantie.damagelogger.mixin;
+
+import net.minecraft.network.packet.c2s.play.PlayerMoveC2SPacket;
+import net.minecraft.server.network.ServerPlayNetworkHandler;
+import net.minecraft.server.network.ServerPlayerEntity;
+import nl.alliantie.damagelogger.DamageLoggerMod;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+// Pin after a failed run: drop movement that leaves the radius before the server applies it
+@Mixin(ServerPlayNetworkHandler.class)
+public abstract class ServerPlayNetworkHandlerMixin {
+
+	@Shadow
+	public ServerPlayerEntity player;
+
+	@Inject(method = "onPlayerMove", at = @At("HEAD"), cancellable = true)
+	private void damagelogger$onPlayerMove(PlayerMoveC2SPacket packet, CallbackInfo ci) {
+		if (!packet.changesPosition()) return;
+		if (DamageLoggerMod.rejectPinnedMove(player, packet.getX(player.getX()), packet.getY(player.getY()), packet.getZ(player.getZ()))) {
+			ci.cancel();
+		}
+	}
+}
@@ -0,0 +1,597 @@
+package nl.alliantie.damagelogger;
+
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Headless load test: drives {@link RunEngine} with synthetic players, the same way the
+ * Fabric events in {@link DamageLoggerMod} do, and reports what the mod costs per tick.
+ *
+ * Every virtual player gets random hits (mob, arrow, fall, player, explosion), fire/lava
+ * episodes with a hit every 10 ticks, and walks through the milestones at a random pace.
+ * Around every player mobs get hit too (--mob-hits per second); only --dealt-share of those
+ * hits are the player's, the rest is mob on mob and environment, which the mod turns away
+ * first thing. Players' hits count as damage dealt, with a target type and a weapon, unless
+ * a shield blocked them or armor took all of it (about one in ten); optionally one of them dies at a fixed minute (ending only that player's run). With
+ * --runs N the players are dealt out over N concurrent runs, one engine each, as with
+ * runsPerTeam. Ticks run back to back on a simulated clock (50 ms per tick), so cooldown
+ * windows, IGT and RTA behave as on a real server.
+ *
+ * Measured per tick, on the simulating thread: the engine calls plus the number formatting
+ * the mod does for every chat line it builds. Text components, packet encoding and the
+ * network are not measured; instead the chat lines and actionbar updates are counted and
+ * multiplied by the players of a run (every player on the default /damagelog level), the
+ * scoreboard updates by all players, which is what goes out over the wire. Storage, the
+ * timeline and run checkpoints run on their real background threads in a scratch directory.
+ *
+ *   gradlew simulate --args="--players 200 --minutes 30"
+ *   gradlew simulate --args="--players 200 --runs 16"
+ */
+public final class LoadSimulator {
+
+    // damage types (VanillaDamageTypes) of the hits on players
+    private static final int[] HIT_TYPES = {VanillaDamageTypes.MOB, VanillaDamageTypes.MOB, VanillaDamageTypes.MOB,
+            VanillaDamageTypes.ARROW, VanillaDamageTypes.FALL, VanillaDamageTypes.PLAYER, VanillaDamageTypes.EXPLOSION};
+    private static final int[] DOT_TYPES = {VanillaDamageTypes.ON_FIRE, VanillaDamageTypes.LAVA, VanillaDamageTypes.IN_FIRE};
+    private static final int PLAYER_ENTITY_TYPE = 128;
+    private static final int MOB_ENTITY_TYPES = 64;
+    // weapon keys as DamageLoggerMod.weaponKey builds them (hand 3, item raw id * 4, projectile type * 4 + 1)
+    private static final int[] WEAPON_KEYS = {3, 830 * 4, 837 * 4, 7 * 4 + 1};
+    private static final String[] WEAPON_NAMES = {"hand", "iron_sword", "diamond_axe", "arrow"};
+
+    private static final List<String> MILESTONES = List.of("IRON", "NETHER", "FORT", "BLAZE", "END", "DRAGON");
+    private static final int TICKS_PER_SECOND = 20;
+    private static final long TICK_NANOS = RunClock.TICK_MS * 1_000_000L;
+    private static final int DOT_INTERVAL_TICKS = 10;
+    private static final int RESTART_DELAY_TICKS = 5 * TICKS_PER_SECOND;
+    private static final long SIM_EPOCH_MS = 1_700_000_000_000L;
+    // lines the mod prints itself around an engine event (DamageLoggerMod.broadcastEndRunFailed)
+    private static final int FAILED_BANNER_LINES = 10;
+
+    /** Command line options; "--name value" or "--name=value". */
+    static final class Options {
+        int players = 200;
+        int runs = 1;                 // concurrent runs; players are dealt out round robin
+        double minutes = 10;
+        double warmupSeconds = 60;
+        double hitsPerSecond = 0.5;   // per player
+        double mobHitsPerSecond = 4;  // hits on mobs around each player, by anyone (at most 20)
+        double dealtShare = 0.2;      // of those, dealt by the player
+        double firePerMinute = 1;     // fire/lava episodes per player
+        double splitMinutes = 2;      // mean time between a player's milestones
+        double deathAtMinute = -1;    // -1 = nobody dies
+        // damage_logger.json settings (--config), with --timing / --tenths / --storage on top
+        DamageLoggerConfig config = DamageLoggerConfig.DEFAULTS;
+        long seed = 1;
+        Path dir = null;              // null = scratch directory, deleted afterwards
+
+        static Options parse(String[] args) throws IOException {
+            Map<String, String> kv = new HashMap<>();
+            for (int i = 0; i < args.length; i++) {
+                String a = args[i];
+                if (!a.startsWith("--")) throw new IllegalArgumentException("unexpected argument: " + a);
+                int eq = a.indexOf('=');
+                if (eq > 0) {
+                    kv.put(a.substring(2, eq), a.substring(eq + 1));
+                } else if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                    kv.put(a.substring(2), args[++i]);
+                } else {
+                    kv.put(a.substring(2), "true");
+                }
+            }
+
+            Options o = new Options();
+            o.players = Integer.parseInt(kv.getOrDefault("players", String.valueOf(o.players)));
+            o.runs = Integer.parseInt(kv.getOrDefault("runs", String.valueOf(o.runs)));
+            o.minutes = Double.parseDouble(kv.getOrDefault("minutes", String.valueOf(o.minutes)));
+            o.warmupSeconds = Double.parseDouble(kv.getOrDefault("warmup", String.valueOf(o.warmupSeconds)));
+            o.hitsPerSecond = Double.parseDouble(kv.getOrDefault("hits", String.valueOf(o.hitsPerSecond)));
+            o.mobHitsPerSecond = Double.parseDouble(kv.getOrDefault("mob-hits", String.valueOf(o.mobHitsPerSecond)));
+            o.dealtShare = Double.parseDouble(kv.getOrDefault("dealt-share", String.valueOf(o.dealtShare)));
+            o.firePerMinute = Double.parseDouble(kv.getOrDefault("fire", String.valueOf(o.firePerMinute)));
+            o.splitMinutes = Double.parseDouble(kv.getOrDefault("split-minutes", String.valueOf(o.splitMinutes)));
+            o.deathAtMinute = Double.parseDouble(kv.getOrDefault("death-at", String.valueOf(o.deathAtMinute)));
+            JsonObject cfg = kv.containsKey("config")
+                    ? DamageLoggerConfig.parse(Files.readString(Paths.get(kv.get("config")), StandardCharsets.UTF_8)).toJson()
+                    : new JsonObject();
+            if (kv.containsKey("tenths")) cfg.addProperty("actionbarTenths", Boolean.parseBoolean(kv.get("tenths")));
+            if (kv.containsKey("timing")) cfg.addProperty("timing", kv.get("timing"));
+            if (kv.containsKey("storage")) cfg.addProperty("storage", kv.get("storage"));
+            o.config = DamageLoggerConfig.of(cfg);
+            o.seed = Long.parseLong(kv.getOrDefault("seed", String.valueOf(o.seed)));
+            if (kv.containsKey("dir")) o.dir = Paths.get(kv.get("dir"));
+            kv.keySet().removeAll(List.of("players", "runs", "minutes", "warmup", "hits", "mob-hits", "dealt-share", "fire", "split-minutes",
+                    "death-at", "tenths", "timing", "storage", "config", "seed", "dir"));
+            if (!kv.isEmpty()) throw new IllegalArgumentException("unknown option(s): " + kv.keySet());
+            if (o.players < 1 || o.players > Short.MAX_VALUE) throw new IllegalArgumentException("players: 1.." + Short.MAX_VALUE);
+            if (o.runs < 1 || o.runs > o.players) throw new IllegalArgumentException("runs: 1..players");
+            return o;
+        }
+    }
+
+    /** Counts what the mod would send; formats numbers the way the mod's chat lines do. */
+    private static final class CountingOutput implements RunEngine.Output {
+        long damageLines, summaryLines, runLines, actionbarUpdates, sidebarUpdates;
+        long runsCompleted, runsFailed, timelineRecords, timelineDropped;
+        RunStorageWriter writer;
+        String sink; // keeps the formatted text reachable, like the mod's Text would be
+
+        @Override
+        public void damageSummary(UUID player, String name, String cause, float amount, int hits, long spanMs) {
+            summaryLines++;
+            sink = String.format(Locale.ROOT, "%.1f", amount) + String.format(Locale.ROOT, "%.1fs", spanMs / 1000.0)
+                    + String.format(Locale.ROOT, "%.1f/%.1f", 10f, 20f);
+        }
+
+        @Override
+        public void split(String label, long timeMs, Long best, long segmentMs, Long bestSegment, long predictedMs,
+                          String playerName) {
+            runLines++;
+            sink = SplitFormat.formatDuration(timeMs) + SplitFormat.formatTime(segmentMs) + SplitFormat.formatTime(predictedMs);
+        }
+
+        @Override
+        public void personalBest(String label, long timeMs, Long old, String playerName) {
+            runLines++;
+            sink = SplitFormat.formatDuration(timeMs);
+        }
+
+        @Override
+        public void completed(long elapsedMs, String winnerName) {
+            runLines += 7;
+            runsCompleted++;
+        }
+
+        @Override
+        public void leaderboard(RunStats stats) {
+            runLines += stats.topSize() + 4;
+            if (stats.topDealtSize() > 0) {
+                runLines += stats.topDealtSize() + 3;
+                sink = String.format(Locale.ROOT, "%.1f", stats.dealt(stats.topDealt(0)));
+            }
+        }
+
+        @Override
+        public void save(RunSnapshot run) {
+            runLines++; // "[Splits] Saved run ..."
+            if (run.failed) runsFailed++;
+            if (run.timeline != null) {
+                timelineRecords += run.timeline.records;
+                timelineDropped += run.timeline.dropped;
+            }
+            if (writer != null) writer.submit(run);
+        }
+
+        @Override
+        public void sidebarLine(int score, String text, boolean added) {
+            sidebarUpdates++;
+        }
+
+        @Override
+        public void actionbar(int state, String time) {
+            actionbarUpdates++;
+        }
+    }
+
+    private final Options opt;
+    private final Random rnd;
+    private long simNanos = 0;
+    // one engine (and clock) per run, like RunContext in the mod; the output counts for all of them
+    private final RunEngine[] engines;
+    private final int[][] members; // run -> players
+    private final long[] ticksUntilRestart;
+    private final CountingOutput out = new CountingOutput();
+
+    // virtual players
+    private final int[] runOf; // player -> run
+    private final UUID[] ids;
+    private final String[] names;
+    private final float[] hp;
+    private final int[] dotTicksLeft;
+    private final int[] dotType;
+    private final int[] nextMilestone;
+
+    // events of the current tick (generated before the measured part)
+    private int[] evPlayer = new int[256];
+    private int[] evType = new int[256];
+    private int[] evAttacker = new int[256];
+    private float[] evAmount = new float[256];
+    private int events;
+    private int[] mobAttacker = new int[256]; // player, or -1 (not a player)
+    private int[] mobTarget = new int[256];
+    private int[] mobWeapon = new int[256];
+    private float[] mobAmount = new float[256]; // damage taken, after armor; 0 = nothing went through
+    private boolean[] mobBlocked = new boolean[256]; // shield
+    private int mobEvents;
+    private int[] advPlayer = new int[16];
+    private int advancements;
+    private int deathPlayer;
+
+    private long damageEvents, mobHitEvents, dealtEvents, advancementEvents, deaths;
+
+    private LoadSimulator(Options opt, long seed) {
+        this.opt = opt;
+        this.rnd = new Random(seed);
+
+        int runs = opt.runs;
+        engines = new RunEngine[runs];
+        ticksUntilRestart = new long[runs];
+        DamageTypeTable types = VanillaDamageTypes.table();
+        String[] entityIds = new String[PLAYER_ENTITY_TYPE + 1];
+        for (int i = 0; i < entityIds.length; i++) entityIds[i] = "sim:mob_" + i;
+        entityIds[PLAYER_ENTITY_TYPE] = "minecraft:player";
+        EntityTypeTable entityTypes = new EntityTypeTable(entityIds, entityIds);
+        for (int r = 0; r < runs; r++) {
+            // wall clock follows the simulated ticks too, so back-to-back runs get distinct ids
+            RunEngine engine = new RunEngine(runs == 1 ? "" : "team" + r, MILESTONES, opt.config, new RunClock(() -> simNanos),
+                    () -> SIM_EPOCH_MS + simNanos / 1_000_000L, id -> "sim:mob_" + id);
+            engine.setDamageTypes(types);
+            engine.setEntityTypes(entityTypes);
+            engine.setOutput(out);
+            engines[r] = engine;
+            ticksUntilRestart[r] = -1;
+        }
+
+        int n = opt.players;
+        runOf = new int[n];
+        members = new int[runs][];
+        for (int r = 0; r < runs; r++) {
+            members[r] = new int[(n - r + runs - 1) / runs];
+        }
+        for (int p = 0; p < n; p++) {
+            runOf[p] = p % runs;
+            members[p % runs][p / runs] = p;
+        }
+        ids = new UUID[n];
+        names = new String[n];
+        hp = new float[n];
+        dotTicksLeft = new int[n];
+        dotType = new int[n];
+        nextMilestone = new int[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = new UUID(0x5EED, i);
+            names[i] = "Player" + i;
+        }
+        for (int r = 0; r < runs; r++) {
+            resetPlayers(r);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opt = Options.parse(args);
+
+        // JIT warm-up on a throwaway engine without storage
+        if (opt.warmupSeconds > 0) {
+            LoadSimulator warm = new LoadSimulator(opt, opt.seed ^ 0x5DEECE66DL);
+            warm.run((int) (opt.warmupSeconds * TICKS_PER_SECOND), null);
+        }
+
+        boolean scratch = opt.dir == null;
+        Path dir = scratch ? Files.createTempDirectory("damagelogger-sim") : opt.dir;
+        RunStorageWriter writer = new RunStorageWriter("DamageLogger-Storage", RunStore.of(opt.config.storage, dir), new RunStorageWriter.Listener() {
+            @Override
+            public void saved(RunSnapshot run) {}
+
+            @Override
+            public void failed(RunSnapshot run, Throwable error) {
+                System.err.println("save failed: " + run.runId + ": " + error);
+            }
+
+            @Override
+            public void openFailed(Throwable error) {
+                System.err.println("storage open failed: " + error);
+            }
+        });
+        DamageTimeline timeline = new DamageTimeline(dir);
+        RunCheckpoint checkpoints = new RunCheckpoint(dir);
+        try {
+            LoadSimulator sim = new LoadSimulator(opt, opt.seed);
+            sim.out.writer = writer;
+            for (RunEngine engine : sim.engines) {
+                engine.setTimeline(timeline);
+                engine.setCheckpoint(checkpoints);
+            }
+
+            int ticks = (int) (opt.minutes * 60 * TICKS_PER_SECOND);
+            long[] tickNanos = new long[ticks];
+            long[] tickBytes = new long[ticks];
+            sim.run(ticks, new long[][]{tickNanos, tickBytes});
+            sim.report(ticks, tickNanos, tickBytes);
+        } finally {
+            writer.close(10_000);
+            timeline.close(10_000);
+            checkpoints.close(10_000);
+            if (scratch) deleteRecursively(dir);
+        }
+    }
+
+    // ------------------------------------------------------------
+    // SIMULATION
+    // ------------------------------------------------------------
+
+    private void run(int ticks, long[][] measure) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int deathTick = opt.deathAtMinute >= 0 ? (int) (opt.deathAtMinute * 60 * TICKS_PER_SECOND) : -1;
+
+        for (RunEngine engine : engines) {
+            engine.startRun(); // first join
+        }
+
+        for (int t = 0; t < ticks; t++) {
+            simNanos += TICK_NANOS;
+            generate(t == deathTick);
+
+            long bytes0 = measure != null ? threads.getCurrentThreadAllocatedBytes() : 0;
+            long t0 = System.nanoTime();
+
+            tick(t);
+
+            long t1 = System.nanoTime();
+            if (measure != null) {
+                measure[0][t] = t1 - t0;
+                measure[1][t] = threads.getCurrentThreadAllocatedBytes() - bytes0;
+            }
+
+            // a new run starts when the next player joins; here: a few seconds after the end
+            for (int r = 0; r < engines.length; r++) {
+                if (engines[r].ended() && ticksUntilRestart[r] < 0) ticksUntilRestart[r] = RESTART_DELAY_TICKS;
+                if (ticksUntilRestart[r] >= 0 && ticksUntilRestart[r]-- == 0) {
+                    ticksUntilRestart[r] = -1;
+                    resetPlayers(r);
+                    engines[r].startRun();
+                }
+            }
+        }
+    }
+
+    // What the Fabric events would call during one server tick
+    private void tick(int t) {
+        for (RunEngine engine : engines) {
+            engine.clock().tick(); // START_SERVER_TICK
+        }
+
+        // ALLOW_DAMAGE (player -> run is one array read, like the mod's index)
+        for (int e = 0; e < events; e++) {
+            int p = evPlayer[e];
+            RunEngine engine = engines[runOf[p]];
+            if (engine.ended()) continue;
+            RunStats stats = engine.stats();
+            int slot = stats.slot(ids[p]);
+            if (slot < 0) slot = stats.slot(ids[p], names[p]);
+
+            int typeId = evType[e];
+            DamageTypeTable types = engine.damageTypes();
+            byte kind = types.contains(typeId) ? types.kind(typeId) : DamageTypeTable.NORMAL;
+            float amount = evAmount[e];
+            if (engine.damage(slot, ids[p], typeId, kind, evAttacker[e], amount, hp[p], p, 64, -p)) {
+                out.damageLines++;
+                out.sink = String.format(Locale.ROOT, "%.1f", amount) + String.format(Locale.ROOT, "%.1f/%.1f", hp[p], 20f);
+            }
+            hp[p] = hp[p] > amount ? hp[p] - amount : 20f; // nobody dies from hits; deaths are scripted
+        }
+        damageEvents += events;
+
+        // AFTER_DAMAGE on mobs: not a player's hit, or nothing went through -> out
+        // (DamageLoggerMod's early-out)
+        for (int e = 0; e < mobEvents; e++) {
+            int p = mobAttacker[e];
+            if (p < 0) continue;
+            if (mobBlocked[e] || mobAmount[e] <= 0f) continue;
+            RunEngine engine = engines[runOf[p]];
+            if (!engine.active()) continue;
+            RunStats stats = engine.stats();
+            int slot = stats.slot(ids[p]);
+            if (slot < 0) slot = stats.slot(ids[p], names[p]);
+
+            int key = WEAPON_KEYS[mobWeapon[e]];
+            int weapon = stats.weapon(key);
+            if (weapon < 0 && key >= 0) weapon = stats.addWeapon(key, WEAPON_NAMES[mobWeapon[e]]);
+            engine.dealt(slot, mobTarget[e], weapon, mobAmount[e]);
+            dealtEvents++;
+        }
+        mobHitEvents += mobEvents;
+
+        // advancement mixin
+        for (int a = 0; a < advancements; a++) {
+            int p = advPlayer[a];
+            engines[runOf[p]].split(nextMilestone[p]++, ids[p], names[p]);
+        }
+        advancementEvents += advancements;
+
+        // AFTER_DEATH
+        if (deathPlayer >= 0) {
+            RunEngine engine = engines[runOf[deathPlayer]];
+            if (engine.fail()) {
+                deaths++;
+                engine.flushDamage(true);
+                out.runLines += FAILED_BANNER_LINES;
+                engine.endRun("FAILED", names[deathPlayer]);
+            }
+        }
+
+        // END_SERVER_TICK: per run, over its own players
+        for (int r = 0; r < engines.length; r++) {
+            RunEngine engine = engines[r];
+            if (engine.active()) {
+                RunStats stats = engine.stats();
+                for (int p : members[r]) {
+                    if (engine.lowHealth(hp[p])) {
+                        int slot = stats.slot(ids[p]);
+                        stats.lowHealthTick(slot >= 0 ? slot : stats.slot(ids[p], names[p]));
+                    }
+                }
+            }
+            engine.tick();
+            if (t % TICKS_PER_SECOND == TICKS_PER_SECOND - 1 && engine.started()) {
+                engine.renderSidebar();
+            }
+        }
+    }
+
+    private void generate(boolean death) {
+        events = 0;
+        mobEvents = 0;
+        advancements = 0;
+        deathPlayer = death ? rnd.nextInt(hp.length) : -1;
+
+        double hitChance = opt.hitsPerSecond / TICKS_PER_SECOND;
+        double mobHitChance = opt.mobHitsPerSecond / TICKS_PER_SECOND;
+        double fireChance = opt.firePerMinute / (60.0 * TICKS_PER_SECOND);
+        double splitChance = opt.splitMinutes > 0 ? 1.0 / (opt.splitMinutes * 60 * TICKS_PER_SECOND) : 0;
+
+        for (int p = 0; p < hp.length; p++) {
+            if (!engines[runOf[p]].active()) continue;
+
+            // hits
+            if (rnd.nextDouble() < hitChance) {
+                int type = HIT_TYPES[rnd.nextInt(HIT_TYPES.length)];
+                int attacker = type == VanillaDamageTypes.PLAYER ? PLAYER_ENTITY_TYPE
+                        : (type == VanillaDamageTypes.FALL ? -1 : rnd.nextInt(MOB_ENTITY_TYPES));
+                addEvent(p, type, attacker, 1f + rnd.nextInt(16) * 0.5f);
+            }
+
+            // mobs hit nearby: by this player, or by something else
+            if (rnd.nextDouble() < mobHitChance) {
+                // some hits are blocked by a shield or soaked up whole by armor
+                boolean byPlayer = rnd.nextDouble() < opt.dealtShare;
+                boolean blocked = rnd.nextInt(20) == 0;
+                float taken = blocked || rnd.nextInt(20) == 0 ? 0f : 1f + rnd.nextInt(18) * 0.5f;
+                addMobEvent(byPlayer ? p : -1, rnd.nextInt(MOB_ENTITY_TYPES), rnd.nextInt(WEAPON_KEYS.length),
+                        taken, blocked);
+            }
+
+            // fire / lava
+            if (dotTicksLeft[p] == 0 && rnd.nextDouble() < fireChance) {
+                dotTicksLeft[p] = (3 + rnd.nextInt(6)) * TICKS_PER_SECOND;
+                dotType[p] = DOT_TYPES[rnd.nextInt(DOT_TYPES.length)];
+            }
+            if (dotTicksLeft[p] > 0) {
+                if (dotTicksLeft[p] % DOT_INTERVAL_TICKS == 0) {
+                    addEvent(p, dotType[p], -1, dotType[p] == VanillaDamageTypes.LAVA ? 4f : 1f);
+                }
+                dotTicksLeft[p]--;
+            }
+
+            // milestones
+            if (nextMilestone[p] < MILESTONES.size() && rnd.nextDouble() < splitChance) {
+                if (advancements == advPlayer.length) advPlayer = Arrays.copyOf(advPlayer, advancements * 2);
+                advPlayer[advancements++] = p;
+            }
+        }
+    }
+
+    private void addEvent(int player, int type, int attacker, float amount) {
+        if (events == evPlayer.length) {
+            int n = events * 2;
+            evPlayer = Arrays.copyOf(evPlayer, n);
+            evType = Arrays.copyOf(evType, n);
+            evAttacker = Arrays.copyOf(evAttacker, n);
+            evAmount = Arrays.copyOf(evAmount, n);
+        }
+        evPlayer[events] = player;
+        evType[events] = type;
+        evAttacker[events] = attacker;
+        evAmount[events] = amount;
+        events++;
+    }
+
+    private void addMobEvent(int attacker, int target, int weapon, float amount, boolean blocked) {
+        if (mobEvents == mobAttacker.length) {
+            int n = mobEvents * 2;
+            mobAttacker = Arrays.copyOf(mobAttacker, n);
+            mobTarget = Arrays.copyOf(mobTarget, n);
+            mobWeapon = Arrays.copyOf(mobWeapon, n);
+            mobAmount = Arrays.copyOf(mobAmount, n);
+            mobBlocked = Arrays.copyOf(mobBlocked, n);
+        }
+        mobAttacker[mobEvents] = attacker;
+        mobTarget[mobEvents] = target;
+        mobWeapon[mobEvents] = weapon;
+        mobAmount[mobEvents] = amount;
+        mobBlocked[mobEvents] = blocked;
+        mobEvents++;
+    }
+
+    private void resetPlayers(int run) {
+        for (int p : members[run]) {
+            hp[p] = 20f;
+            dotTicksLeft[p] = 0;
+            nextMilestone[p] = 0;
+        }
+    }
+
+    // ------------------------------------------------------------
+    // REPORT
+    // ------------------------------------------------------------
+
+    private void report(int ticks, long[] tickNanos, long[] tickBytes) {
+        double seconds = (double) ticks / TICKS_PER_SECOND;
+        int n = hp.length;
+
+        long[] sorted = tickNanos.clone();
+        Arrays.sort(sorted);
+        double mean = Arrays.stream(tickNanos).average().orElse(0);
+        double bytesPerTick = Arrays.stream(tickBytes).average().orElse(0);
+
+        // chat and actionbar go to the players of one run; scoreboard updates to everyone
+        double perRun = (double) n / engines.length;
+        long chatLines = out.damageLines + out.summaryLines + out.runLines;
+        long chatPackets = Math.round(chatLines * perRun);
+        long actionbarPackets = Math.round(out.actionbarUpdates * perRun);
+        long sidebarPackets = out.sidebarUpdates * n;
+        long packets = chatPackets + actionbarPackets + sidebarPackets;
+        long running = Arrays.stream(engines).filter(RunEngine::active).count();
+
+        System.out.printf(Locale.ROOT, "DamageLogger load simulation: %d players in %d run(s), %.0f s (%d ticks), seed %d%n",
+                n, engines.length, seconds, ticks, opt.seed);
+        System.out.printf(Locale.ROOT, "  hits %.2f/s/player, mob hits %.1f/s/player (%.0f%% dealt by players), fire %.1f/min/player, milestone every ~%.1f min/player, death at %s, timing %s%n",
+                opt.hitsPerSecond, opt.mobHitsPerSecond, opt.dealtShare * 100, opt.firePerMinute, opt.splitMinutes,
+                opt.deathAtMinute >= 0 ? opt.deathAtMinute + " min" : "-", engines[0].timing());
+        System.out.printf(Locale.ROOT, "runs                 %d completed, %d failed, %d still running%n",
+                out.runsCompleted, out.runsFailed, running);
+        System.out.println();
+        System.out.printf(Locale.ROOT, "mod cost per tick    mean %.1f us   p50 %.1f   p99 %.1f   p99.9 %.1f   max %.1f   (%.3f%% of a 50 ms tick)%n",
+                mean / 1e3, pct(sorted, 50) / 1e3, pct(sorted, 99) / 1e3, pct(sorted, 99.9) / 1e3,
+                sorted[sorted.length - 1] / 1e3, mean / TICK_NANOS * 100);
+        System.out.printf(Locale.ROOT, "allocation           %.0f B/tick   %.1f KiB/s%n",
+                bytesPerTick, bytesPerTick * TICKS_PER_SECOND / 1024);
+        System.out.printf(Locale.ROOT, "events /s            damage %.1f   mob hits %.1f (dealt by players %.1f)   advancements %.2f   deaths %d total%n",
+                damageEvents / seconds, mobHitEvents / seconds, dealtEvents / seconds, advancementEvents / seconds, deaths);
+        System.out.printf(Locale.ROOT, "chat lines /s        damage %.2f   summaries %.2f   splits/run %.2f%n",
+                out.damageLines / seconds, out.summaryLines / seconds, out.runLines / seconds);
+        System.out.printf(Locale.ROOT, "packets /s           chat %.0f   actionbar %.0f   sidebar %.0f   total %.0f   (%.1f per player)%n",
+                chatPackets / seconds, actionbarPackets / seconds, sidebarPackets / seconds, packets / seconds,
+                packets / seconds / n);
+        System.out.printf(Locale.ROOT, "timeline             %d records, %d dropped (ended runs)%n",
+                out.timelineRecords, out.timelineDropped);
+    }
+
+    // nearest rank
+    private static long pct(long[] sorted, double pct) {
+        int rank = (int) Math.ceil(pct / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+}
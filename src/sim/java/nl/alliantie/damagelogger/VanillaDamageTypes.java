@@ -0,0 +1,29 @@
+package nl.alliantie.damagelogger;
+
+/** A vanilla-like damage type registry (msgIds by raw id), for the simulator and the benchmarks. */
+final class VanillaDamageTypes {
+
+    static final int IN_FIRE = 0;
+    static final int ON_FIRE = 3;
+    static final int LAVA = 4;
+    static final int FALL = 11;
+    static final int MOB = 27;
+    static final int PLAYER = 28;
+    static final int ARROW = 29;
+    static final int EXPLOSION = 37;
+
+    private static final String[] NAMES = {
+            "inFire", "campfire", "lightningBolt", "onFire", "lava", "hotFloor", "inWall", "cramming", "drown",
+            "starve", "cactus", "fall", "enderPearl", "flyIntoWall", "outOfWorld", "generic", "magic", "wither",
+            "dragonBreath", "dryout", "sweetBerryBush", "freeze", "stalagmite", "fallingBlock", "anvil",
+            "fallingStalactite", "sting", "mob", "player", "arrow", "trident", "fireworks", "fireball", "witherSkull",
+            "thrown", "indirectMagic", "thorns", "explosion", "explosion.player", "sonic_boom", "badRespawnPoint",
+            "outsideBorder", "genericKill", "mace_smash", "spit", "windCharge"
+    };
+
+    private VanillaDamageTypes() {}
+
+    static DamageTypeTable table() {
+        return new DamageTypeTable(NAMES);
+    }
+}
@@ -0,0 +1,50 @@
+package nl.alliantie.damagelogger;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DamageAggregatorTest {
+
+    private static final UUID ALEX = new UUID(0x5EED, 1);
+    private static final UUID STEVE = new UUID(0x5EED, 2);
+
+    private final DamageAggregator windows = new DamageAggregator();
+    private final List<String> summaries = new ArrayList<>();
+    private final DamageAggregator.SummarySink sink =
+            (id, slot, amount, hits, spanMs) -> summaries.add(id + " " + slot + " " + amount + " " + hits);
+
+    @Test
+    void hitsInsideTheWindowBecomeOneSummary() {
+        assertTrue(windows.hit(0, ALEX, 4, 8, 0, 1_000, 2f));
+        assertFalse(windows.hit(0, ALEX, 4, 8, 500, 1_000, 3f));
+        assertFalse(windows.hit(0, ALEX, 4, 8, 600, 1_000, 1f));
+
+        windows.flush(900, sink);
+        assertEquals(List.of(), summaries);
+        windows.flush(1_000, sink);
+        assertEquals(List.of(ALEX + " 4 4.0 2"), summaries);
+    }
+
+    @Test
+    void leavingEmitsWhatIsPendingAndForgetsThePlayer() {
+        windows.hit(0, ALEX, 4, 8, 0, 1_000, 2f);
+        windows.hit(0, ALEX, 4, 8, 100, 1_000, 3f);
+        windows.hit(1, STEVE, 4, 8, 0, 1_000, 2f);
+
+        windows.remove(0, sink);
+        assertEquals(List.of(ALEX + " 4 3.0 1"), summaries);
+
+        // nothing left of Alex: the next hit opens a fresh window
+        summaries.clear();
+        windows.flush(5_000, sink);
+        assertEquals(List.of(), summaries);
+        assertTrue(windows.hit(0, ALEX, 4, 8, 5_000, 1_000, 1f));
+    }
+}
@@ -0,0 +1,76 @@
+package nl.alliantie.damagelogger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RunCheckpointTest {
+
+    // the old idTag turned all of these into checkpoint-Team_Red.jsonl / checkpoint-rood_1.jsonl
+    private static final List<String> LOOKALIKES = List.of("Team Red", "Team_Red", "rood-1", "rood_1");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void lookalikeTeamsGetTheirOwnFile() {
+        assertNotEquals(RunCheckpoint.file(dir, "Team Red"), RunCheckpoint.file(dir, "Team_Red"));
+        assertNotEquals(RunCheckpoint.file(dir, "rood-1"), RunCheckpoint.file(dir, "rood_1"));
+        // case-insensitive file systems
+        assertNotEquals(RunCheckpoint.file(dir, "Red").toString().toLowerCase(),
+                RunCheckpoint.file(dir, "red").toString().toLowerCase());
+        assertNotEquals(RunCheckpoint.file(dir, ""), RunCheckpoint.file(dir, "_"));
+    }
+
+    @Test
+    void lookalikeTeamsKeepBothCheckpoints() {
+        RunCheckpoint checkpoints = new RunCheckpoint(dir);
+        for (String team : LOOKALIKES) {
+            RunCheckpoint.Log log = checkpoints.log(team);
+            log.start(team, 1_000, List.of("IRON", "NETHER"));
+            log.clock(team.length() * 1_000L, 100, 6_000);
+            log.flush();
+        }
+        checkpoints.close(5_000);
+
+        Map<String, RunCheckpoint.State> loaded = RunCheckpoint.load(dir);
+        assertEquals(Set.copyOf(LOOKALIKES), loaded.keySet());
+        for (String team : LOOKALIKES) {
+            assertEquals(team.length() * 1_000L, loaded.get(team).rtaMs);
+        }
+    }
+
+    @Test
+    void longTeamNamesStayValidFileNames() {
+        String a = "é".repeat(200) + "a";
+        String b = "é".repeat(200) + "b";
+        assertNotEquals(RunCheckpoint.file(dir, a), RunCheckpoint.file(dir, b));
+        assertTrue(RunCheckpoint.file(dir, a).getFileName().toString().length() < 255);
+    }
+
+    @Test
+    void checkpointUnderTheOldNameIsRenamed() throws IOException {
+        Path old = dir.resolve("checkpoint-Team_Red.jsonl");
+        Files.writeString(old, """
+                {"t":"start","team":"Team Red","runStartMs":1000,"milestones":["IRON"]}
+                {"t":"clock","rtaMs":2000,"ticks":40,"wallMs":3000}
+                """, StandardCharsets.UTF_8);
+
+        Map<String, RunCheckpoint.State> loaded = RunCheckpoint.load(dir);
+        assertEquals(2_000, loaded.get("Team Red").rtaMs);
+        assertFalse(Files.exists(old));
+        assertTrue(Files.exists(RunCheckpoint.file(dir, "Team Red")));
+    }
+}
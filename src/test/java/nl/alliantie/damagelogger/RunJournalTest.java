@@ -0,0 +1,59 @@
+package nl.alliantie.damagelogger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RunJournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void importReadsATornJournalWithoutRepairingIt() throws IOException {
+        String journal = "{\"runId\":\"a\",\"startMs\":0,\"endMs\":5000,\"splits\":{\"IRON\":{\"timeMs\":3000}}}\n"
+                + "{\"runId\":\"b\",\"startMs\":0,\"endMs\":4000,\"splits\":{\"IRON\":{\"timeMs\":2000}}}\n"
+                + "{\"runId\":\"a\",\"startMs\":0,\"endMs\":1,\"splits\":{\"IRON\":{\"timeMs\":1}}}\n"
+                + "{\"runId\":\"c\",\"sta";
+        Path file = dir.resolve(RunJournal.JOURNAL_FILE);
+        Files.writeString(file, journal, StandardCharsets.UTF_8);
+
+        List<String> ids = new ArrayList<>();
+        RunJournal.BestIndex best = new RunJournal(dir).readForImport(run -> ids.add(run.runId));
+
+        assertEquals(List.of("a", "b"), ids);
+        assertEquals(2000L, best.rta.get("IRON").timeMs);
+        assertEquals("b", best.rta.get("IRON").runId);
+        // no repair, no compact: the torn line stays and nothing is written next to it
+        assertEquals(journal, Files.readString(file, StandardCharsets.UTF_8));
+        assertFalse(Files.exists(dir.resolve(RunJournal.BEST_FILE)));
+        assertFalse(Files.exists(dir.resolve(BestIndexFile.FILE_NAME)));
+    }
+
+    @Test
+    void importReadsALegacyFileWithoutMigratingIt() throws IOException {
+        String legacy = "{\"runs\":[{\"runId\":\"old\",\"startMs\":0,\"endMs\":9000,\"splits\":{\"IRON\":{\"timeMs\":7000}}}],"
+                + "\"bestSplits\":{\"IRON\":{\"timeMs\":6000,\"runId\":\"older\"}}}";
+        Path file = dir.resolve(RunJournal.LEGACY_FILE);
+        Files.writeString(file, legacy, StandardCharsets.UTF_8);
+
+        List<String> ids = new ArrayList<>();
+        RunJournal.BestIndex best = new RunJournal(dir).readForImport(run -> ids.add(run.runId));
+
+        assertEquals(List.of("old"), ids);
+        assertEquals("older", best.rta.get("IRON").runId);
+        assertEquals(legacy, Files.readString(file, StandardCharsets.UTF_8));
+        assertFalse(Files.exists(dir.resolve(RunJournal.JOURNAL_FILE)));
+        assertTrue(Files.exists(file));
+    }
+}
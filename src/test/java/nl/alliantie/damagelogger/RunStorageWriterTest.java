@@ -0,0 +1,63 @@
+package nl.alliantie.damagelogger;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RunStorageWriterTest {
+
+    private static final class Recorder implements RunStorageWriter.Listener {
+        final AtomicReference<Throwable> openFailed = new AtomicReference<>();
+
+        @Override
+        public void saved(RunSnapshot run) {}
+
+        @Override
+        public void failed(RunSnapshot run, Throwable error) {}
+
+        @Override
+        public void openFailed(Throwable error) {
+            openFailed.set(error);
+        }
+    }
+
+    @Test
+    void openFailureIsReportedAndFailsReady() {
+        IOException broken = new IOException("journal repair failed");
+        Recorder listener = new Recorder();
+        RunStorageWriter writer = new RunStorageWriter("test-storage", new RunStorageWriter.Sink() {
+            @Override
+            public void open() throws Exception {
+                throw broken;
+            }
+
+            @Override
+            public void write(List<RunSnapshot> batch) {}
+        }, listener);
+
+        CompletionException e = assertThrows(CompletionException.class, () -> writer.ready().join());
+        writer.close(5_000);
+
+        assertSame(broken, e.getCause());
+        assertSame(broken, writer.openError());
+        assertSame(broken, listener.openFailed.get());
+    }
+
+    @Test
+    void openSuccessLeavesNoError() {
+        Recorder listener = new Recorder();
+        RunStorageWriter writer = new RunStorageWriter("test-storage", batch -> {}, listener);
+        writer.ready().join();
+        writer.close(5_000);
+
+        assertNull(writer.openError());
+        assertNull(listener.openFailed.get());
+    }
+}